@@ -14,6 +14,7 @@ import org.matsim.alonso_mora.algorithm.relocation.GlpkMpsRelocationSolver;
 import org.matsim.alonso_mora.travel_time.DrtDetourTravelTimeEstimator;
 import org.matsim.alonso_mora.travel_time.EuclideanTravelTimeEstimator;
 import org.matsim.alonso_mora.travel_time.HybridTravelTimeEstimator;
+import org.matsim.alonso_mora.travel_time.MatrixEncoding;
 import org.matsim.alonso_mora.travel_time.MatrixTravelTimeEstimator;
 import org.matsim.alonso_mora.travel_time.RoutingTravelTimeEstimator;
 import org.matsim.contrib.common.util.ReflectiveConfigGroupWithConfigurableParameterSets;
@@ -25,6 +26,7 @@ import org.matsim.core.config.ReflectiveConfigGroup;
 import com.google.common.base.Verify;
 
 import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.Positive;
 import jakarta.validation.constraints.PositiveOrZero;
 
 /**
@@ -72,11 +74,11 @@ public class AlonsoMoraConfigGroup extends ReflectiveConfigGroupWithConfigurable
 	/* Sequence generator */
 
 	public enum SequenceGeneratorType {
-		Extensive, Insertive, Combined, EuclideanBestResponse
+		Extensive, Insertive, Combined, EuclideanBestResponse, DynamicProgramming
 	}
 
 	@Parameter
-	@Comment("Defines which sequence generator to use: Extensive (trying to find all arrangements of pickups and dropoff for a route), Insertive (inserting new pickups and dropoffs in the existing order along a vehicle's route), Combined (Extensive below insertionStartOccupancy, Insertive after), EuclideanBestResponse (as a very fast test generator based on stepwise adding the closest pickup and dropoff by Euclidean distnace).")
+	@Comment("Defines which sequence generator to use: Extensive (trying to find all arrangements of pickups and dropoff for a route), Insertive (inserting new pickups and dropoffs in the existing order along a vehicle's route), Combined (Extensive below insertionStartOccupancy, Insertive after), EuclideanBestResponse (as a very fast test generator based on stepwise adding the closest pickup and dropoff by Euclidean distnace), DynamicProgramming (for high-capacity vehicles, proposing the best orderings found by dynamic programming up to dynamicProgrammingMaximumStops and by beam search above).")
 	public SequenceGeneratorType sequenceGeneratorType = SequenceGeneratorType.Combined;
 
 	@Parameter
@@ -84,11 +86,37 @@ public class AlonsoMoraConfigGroup extends ReflectiveConfigGroupWithConfigurable
 	@PositiveOrZero
 	public int insertionStartOccupancy = 5;
 
+	@Parameter
+	@Comment("Lets the Extensive sequence generator, also as part of Combined, try the closest stops first when extending a sequence. Good routes are then found earlier, so that worse ones can be discarded earlier. In this mode, discarding a sequence never skips its alternatives, so the best route is always found.")
+	public boolean nearestFirstBranching = false;
+
+	@Parameter
+	@Comment("Defines the number of stops up to which the DynamicProgramming sequence generator solves the ordering exactly over all subsets of stops. The effort and the memory per thread grow exponentially with the number of stops, so at most 16 stops are supported.")
+	@PositiveOrZero
+	public int dynamicProgrammingMaximumStops = 12;
+
+	@Parameter
+	@Comment("Defines how many partial sequences are kept per step by the DynamicProgramming sequence generator above dynamicProgrammingMaximumStops.")
+	@Positive
+	public int beamWidth = 64;
+
+	@Parameter
+	@Comment("Splits the route search of a single vehicle and set of requests into parallel tasks per first stop if the number of complete stop sequences exceeds this value. The best route found so far is shared among the tasks, and the result is the same as for the sequential search. Requires nearestFirstBranching with the Extensive or Combined sequence generator, the latter only searches in parallel below insertionStartOccupancy. If set to 0, the search is always sequential.")
+	@PositiveOrZero
+	public long parallelSearchThreshold = 0;
+
 	@Parameter
 	@Comment("Limits the number of request-vehicle combinations that are explored when building the trip graph (III.C in paper). If set to 0, no limit is imposed.")
 	@PositiveOrZero
 	public int candidateVehiclesPerRequest = 30;
 
+	/* Travel time bounds */
+
+	@Parameter
+	@Comment("Optimistic speed in [km/h] that is used to bound travel times by the Euclidean distance between links. The bounds are used to discard request and vehicle combinations early before the travel time estimator is called. The speed must not be lower than the highest speed that can be obtained from the travel time estimator, otherwise feasible combinations may be discarded. A value of zero disables the bounds.")
+	@PositiveOrZero
+	public double optimisticSpeed = 0.0;
+
 	/* Congestion mitigation */
 
 	static public class CongestionMitigationParameters extends ReflectiveConfigGroupWithConfigurableParameterSets {
@@ -173,6 +201,14 @@ public class AlonsoMoraConfigGroup extends ReflectiveConfigGroupWithConfigurable
 	@PositiveOrZero
 	public int tripGraphLimitPerSequenceLength = 0;
 
+	@Parameter
+	@Comment("If enabled, the trip-vehicle graph of a vehicle is kept across dispatching steps as long as its position, current task, onboard requests and route do not change, except for stops that are expected later than before. The existing trips are then only recalculated for the current time, and requests are added and removed, instead of enumerating all combinations again. Combinations that were not feasible in the previous step are not checked again, which assumes that they do not become feasible later on for an unchanged vehicle. Has no effect if one of the graph limits is set.")
+	public boolean reuseVehicleGraphs = false;
+
+	@Parameter
+	@Comment("If enabled, the routes calculated for a vehicle and a set of requests are cached within a dispatching step, and the lookups and hits are written to am_runtime.csv. Since every trip is only calculated once per step, hits are mostly limited to preserved vehicle assignments, so the cache usually costs more than it saves. Mainly useful for analysis.")
+	public boolean cacheRoutes = false;
+
 	/* Block handling */
 
 	public static class AssignmentSolverParameters extends ReflectiveConfigGroupWithConfigurableParameterSets {
@@ -424,6 +460,14 @@ public class AlonsoMoraConfigGroup extends ReflectiveConfigGroupWithConfigurable
 		@Parameter
 		@Comment("Defines whether the travel time matrix is constructed step by step when routes get requested or all at once in the beginning")
 		public boolean lazy = false;
+
+		@Parameter
+		@Comment("If set, the travel time matrix is written to this directory once and memory-mapped from there in later runs instead of being calculated on startup. Files are identified by a hash of the network, the departure time and the link travel times at the departure time. This only helps if the travel times are fixed across iterations and runs, for instance free speed travel times. Otherwise, a new matrix is calculated whenever the travel times change, and the file of the previous travel times is deleted. Not used if the matrix is lazy.")
+		public String cachePath = null;
+
+		@Parameter
+		@Comment("Defines how the node-to-node travel times are stored if the matrix is not lazy: Double (exact), Float (relative error of at most 2^-24, half of the memory) or Seconds (rounded to full seconds with an error of at most 0.5s, a quarter of the memory).")
+		public MatrixEncoding encoding = MatrixEncoding.Double;
 	}
 
 	@Override
@@ -435,6 +479,14 @@ public class AlonsoMoraConfigGroup extends ReflectiveConfigGroupWithConfigurable
 		Verify.verify(loggingInterval % assignmentInterval == 0,
 				"Logging interval must be multiple of the assignment interval");
 
+		Verify.verify(dynamicProgrammingMaximumStops <= 16,
+				"Dynamic programming is not supported for more than 16 stops");
+		Verify.verify(
+				parallelSearchThreshold == 0 || nearestFirstBranching
+						&& (sequenceGeneratorType.equals(SequenceGeneratorType.Extensive)
+								|| sequenceGeneratorType.equals(SequenceGeneratorType.Combined)),
+				"Parallel route search requires nearestFirstBranching with the Extensive or Combined sequence generator");
+
 		Verify.verifyNotNull(assignmentSolver);
 		Verify.verifyNotNull(travelTimeEstimator);
 		Verify.verifyNotNull(congestionMitigation);
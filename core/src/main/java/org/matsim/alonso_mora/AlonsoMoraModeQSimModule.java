@@ -3,6 +3,7 @@ package org.matsim.alonso_mora;
 import static org.matsim.contrib.dvrp.path.VrpPaths.FIRST_LINK_TT;
 
 import java.io.File;
+import java.util.concurrent.ForkJoinPool;
 
 import org.matsim.alonso_mora.AlonsoMoraConfigGroup.CbcMpsAssignmentParameters;
 import org.matsim.alonso_mora.AlonsoMoraConfigGroup.CbcMpsRelocationParameters;
@@ -35,6 +36,7 @@ import org.matsim.alonso_mora.algorithm.function.DefaultAlonsoMoraFunction.Minim
 import org.matsim.alonso_mora.algorithm.function.DefaultAlonsoMoraFunction.NoopConstraint;
 import org.matsim.alonso_mora.algorithm.function.DefaultAlonsoMoraFunction.Objective;
 import org.matsim.alonso_mora.algorithm.function.sequence.CombinedSequenceGenerator;
+import org.matsim.alonso_mora.algorithm.function.sequence.DynamicProgrammingSequenceGenerator;
 import org.matsim.alonso_mora.algorithm.function.sequence.EuclideanSequenceGenerator;
 import org.matsim.alonso_mora.algorithm.function.sequence.ExtensiveSequenceGenerator;
 import org.matsim.alonso_mora.algorithm.function.sequence.InsertiveSequenceGenerator;
@@ -54,9 +56,11 @@ import org.matsim.alonso_mora.travel_time.DrtDetourTravelTimeEstimator;
 import org.matsim.alonso_mora.travel_time.EuclideanTravelTimeEstimator;
 import org.matsim.alonso_mora.travel_time.HybridTravelTimeEstimator;
 import org.matsim.alonso_mora.travel_time.LazyMatrixTravelTimeEstimator;
+import org.matsim.alonso_mora.travel_time.MatrixTravelTimeCache;
 import org.matsim.alonso_mora.travel_time.MatrixTravelTimeEstimator;
 import org.matsim.alonso_mora.travel_time.RoutingTravelTimeEstimator;
 import org.matsim.alonso_mora.travel_time.TravelTimeEstimator;
+import org.matsim.alonso_mora.travel_time.TravelTimeLowerBound;
 import org.matsim.api.core.v01.network.Network;
 import org.matsim.contrib.drt.optimizer.DrtOptimizer;
 import org.matsim.contrib.drt.optimizer.QsimScopeForkJoinPool;
@@ -107,13 +111,18 @@ public class AlonsoMoraModeQSimModule extends AbstractDvrpModeQSimModule {
 		bindModal(SequenceGeneratorFactory.class).toProvider(modalProvider(getter -> {
 			switch (amConfig.sequenceGeneratorType) {
 			case Combined:
-				return new CombinedSequenceGenerator.Factory(amConfig.insertionStartOccupancy);
+				return new CombinedSequenceGenerator.Factory(amConfig.insertionStartOccupancy,
+						amConfig.nearestFirstBranching);
 			case EuclideanBestResponse:
 				return new EuclideanSequenceGenerator.Factory();
 			case Extensive:
-				return new ExtensiveSequenceGenerator.Factory();
+				return new ExtensiveSequenceGenerator.Factory(amConfig.nearestFirstBranching);
 			case Insertive:
 				return new InsertiveSequenceGenerator.Factory();
+			case DynamicProgramming:
+				return new DynamicProgrammingSequenceGenerator.Factory(getter.getModal(TravelTimeEstimator.class),
+						getter.getModal(DvrpLoadType.class), drtConfig.getStopDuration(),
+						amConfig.dynamicProgrammingMaximumStops, amConfig.beamWidth);
 			default:
 				throw new IllegalStateException();
 			}
@@ -292,8 +301,17 @@ public class AlonsoMoraModeQSimModule extends AbstractDvrpModeQSimModule {
 			Network network = getter.getModal(Network.class);
 			TravelTime travelTime = getter.getModal(TravelTime.class);
 
+			ForkJoinPool pool = getter.getModal(QsimScopeForkJoinPool.class).getPool();
+
+			MatrixEstimatorParameters parameters = (MatrixEstimatorParameters) amConfig.travelTimeEstimator;
+
 			// TODO: Parametrize time
-			return MatrixTravelTimeEstimator.create(network, travelTime, 8.5 * 3600.0);
+			if (parameters.cachePath != null) {
+				return new MatrixTravelTimeCache(new File(parameters.cachePath), parameters.encoding)
+						.createEstimator(network, travelTime, 8.5 * 3600.0, pool);
+			}
+
+			return MatrixTravelTimeEstimator.create(network, travelTime, 8.5 * 3600.0, pool, parameters.encoding);
 		})).in(Singleton.class);
 
 		bindModal(LazyMatrixTravelTimeEstimator.class).toProvider(modalProvider(getter -> {
@@ -325,6 +343,14 @@ public class AlonsoMoraModeQSimModule extends AbstractDvrpModeQSimModule {
 			break;
 		}
 
+		bindModal(TravelTimeLowerBound.class).toProvider(modalProvider(getter -> {
+			if (amConfig.optimisticSpeed > 0.0) {
+				return new TravelTimeLowerBound(amConfig.optimisticSpeed / 3.6);
+			} else {
+				return TravelTimeLowerBound.disabled();
+			}
+		})).in(Singleton.class);
+
 		bindModal(AlonsoMoraFunction.class).toProvider(modalProvider(getter -> {
 			TravelTimeEstimator travelTimeEstimator = getter.getModal(TravelTimeEstimator.class);
 			SequenceGeneratorFactory sequenceGeneratorFactory = getter.getModal(SequenceGeneratorFactory.class);
@@ -338,7 +364,8 @@ public class AlonsoMoraModeQSimModule extends AbstractDvrpModeQSimModule {
 					drtConfig.getStopDuration(), congestionParameters.allowPickupViolations,
 					congestionParameters.allowPickupsWithDropoffViolations, amConfig.checkDeterminsticTravelTimes,
 					objective, constraint, amConfig.violationFactor, amConfig.violationOffset,
-					amConfig.preferNonViolation, getter.getModal(DvrpLoadType.class));
+					amConfig.preferNonViolation, getter.getModal(DvrpLoadType.class),
+					getter.getModal(TravelTimeLowerBound.class), amConfig.parallelSearchThreshold);
 		}));
 
 		bindModal(Objective.class).toProvider(() -> new MinimumDelay());
@@ -407,7 +434,8 @@ public class AlonsoMoraModeQSimModule extends AbstractDvrpModeQSimModule {
 					new AlgorithmSettings(amConfig), //
 					getter.getModal(DrtOfferAcceptor.class), //
 					drtConfig.getStopDuration(), //
-					getter.getModal(DvrpLoadType.class));
+					getter.getModal(DvrpLoadType.class), //
+					getter.getModal(TravelTimeLowerBound.class));
 		}));
 
 		bindModal(AlonsoMoraVehicleFactory.class).toProvider(modalProvider(getter -> {
@@ -148,7 +148,10 @@ class AnalysisListener implements IterationEndsListener {
 						"trip_graph_time", //
 						"assignment_time", //
 						"assignment_status", //
-						"relocation_time" //
+						"relocation_time", //
+						"route_lookups", //
+						"route_cache_hits", //
+						"route_cache_hit_rate" //
 				)) + "\n");
 
 				for (int i = 0; i < solverData.size(); i++) {
@@ -164,7 +167,10 @@ class AnalysisListener implements IterationEndsListener {
 							String.valueOf(graph.tripGraphTime), //
 							String.valueOf(solver.solutionTime), //
 							String.valueOf(solver.status), //
-							String.valueOf(rebalancing.rebalancingTime) //
+							String.valueOf(rebalancing.rebalancingTime), //
+							String.valueOf(graph.routeLookups), //
+							String.valueOf(graph.routeCacheHits), //
+							String.valueOf(graph.getRouteCacheHitRate()) //
 					)) + "\n");
 				}
 
@@ -26,7 +26,8 @@ class InformationCollector {
 		graphInformation
 				.add(new GraphInformation(simulationTime, information.requestGraphSize, information.vehicleGraphSize,
 						1e-9 * (information.requestGraphEndTime - information.requestGraphStartTime),
-						1e-9 * (information.vehicleGraphsEndTime - information.vehicleGraphsStartTime)));
+						1e-9 * (information.vehicleGraphsEndTime - information.vehicleGraphsStartTime),
+						information.numberOfRouteLookups, information.numberOfRouteCacheHits));
 		rebalancingInformation.add(new RebalancingInformation(simulationTime, information.numberOfRelocations,
 				1e-9 * (information.relocationEndTime - information.relocationStartTime)));
 		occupancyInformation.add(new OccupancyInformation(simulationTime, information.occupiedVehiclesByItems,
@@ -81,14 +82,22 @@ class InformationCollector {
 		public final int tripGraphSize;
 		public final double requestGraphTime;
 		public final double tripGraphTime;
+		public final long routeLookups;
+		public final long routeCacheHits;
 
 		public GraphInformation(double simulationTime, int requestGraphSize, int tripGraphSize, double requestGraphTime,
-				double tripGraphTime) {
+				double tripGraphTime, long routeLookups, long routeCacheHits) {
 			this.simulationTime = simulationTime;
 			this.requestGraphSize = requestGraphSize;
 			this.tripGraphSize = tripGraphSize;
 			this.requestGraphTime = requestGraphTime;
 			this.tripGraphTime = tripGraphTime;
+			this.routeLookups = routeLookups;
+			this.routeCacheHits = routeCacheHits;
+		}
+
+		public double getRouteCacheHitRate() {
+			return routeLookups > 0 ? (double) routeCacheHits / routeLookups : 0.0;
 		}
 	}
 
@@ -1,9 +1,9 @@
 package org.matsim.alonso_mora.algorithm;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -14,10 +14,12 @@ import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.stream.IntStream;
 
-import org.apache.commons.lang3.tuple.Pair;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.matsim.alonso_mora.AlonsoMoraConfigGroup;
@@ -26,6 +28,7 @@ import org.matsim.alonso_mora.algorithm.assignment.AssignmentSolver;
 import org.matsim.alonso_mora.algorithm.assignment.AssignmentSolver.Solution;
 import org.matsim.alonso_mora.algorithm.function.AlonsoMoraFunction;
 import org.matsim.alonso_mora.algorithm.function.AlonsoMoraFunction.Result;
+import org.matsim.alonso_mora.algorithm.function.CachingAlonsoMoraFunction;
 import org.matsim.alonso_mora.algorithm.function.RouteTracker;
 import org.matsim.alonso_mora.algorithm.graphs.DefaultRequestGraph;
 import org.matsim.alonso_mora.algorithm.graphs.DefaultVehicleGraph;
@@ -35,6 +38,7 @@ import org.matsim.alonso_mora.algorithm.relocation.RelocationSolver;
 import org.matsim.alonso_mora.algorithm.relocation.RelocationSolver.Relocation;
 import org.matsim.alonso_mora.scheduling.AlonsoMoraScheduler;
 import org.matsim.alonso_mora.travel_time.TravelTimeEstimator;
+import org.matsim.alonso_mora.travel_time.TravelTimeLowerBound;
 import org.matsim.api.core.v01.network.Link;
 import org.matsim.contrib.drt.passenger.AcceptedDrtRequest;
 import org.matsim.contrib.drt.passenger.DrtOfferAcceptor;
@@ -72,11 +76,13 @@ import com.google.common.base.Verify;
 public class AlonsoMoraAlgorithm {
 	private final Logger logger = LogManager.getLogger(AlonsoMoraAlgorithm.class);
 
-	private RequestGraph requestGraph;
+	private final RequestGraph requestGraph;
 	private final AssignmentSolver assignmentSolver;
 	private final RelocationSolver rebalancingSolver;
 	private final AlonsoMoraScheduler scheduler;
 	private final AlonsoMoraFunction function;
+	private final AlonsoMoraFunction uncachedFunction;
+	private final CachingAlonsoMoraFunction routeCache;
 	private final ForkJoinPool forkJoinPool;
 	private final DrtOfferAcceptor offerAcceptor;
 
@@ -85,6 +91,8 @@ public class AlonsoMoraAlgorithm {
 
 	private final List<AlonsoMoraVehicle> vehicles;
 	private final Map<AlonsoMoraVehicle, VehicleGraph> vehicleGraphs = new TreeMap<>();
+	private final Map<AlonsoMoraVehicle, VehicleGraphState> vehicleGraphStates = new HashMap<>();
+	private final Map<AlonsoMoraRequest, Double> vehicleGraphPickupTimes = new HashMap<>();
 
 	private final Set<AlonsoMoraRequest> queuedRequests = new TreeSet<>();
 	private final Set<AlonsoMoraRequest> assignedRequests = new TreeSet<>();
@@ -105,17 +113,23 @@ public class AlonsoMoraAlgorithm {
 
 	private final DvrpLoad emptyLoad;
 
+	private final TravelTimeLowerBound travelTimeBound;
+	static private final double VEHICLE_INDEX_CELL_SIZE = 1000.0; // m
+	static private final int PARALLEL_LEVEL_THRESHOLD = 64; // combinations
+
 	public AlonsoMoraAlgorithm(Fleet fleet, AssignmentSolver assignmentSolver, RelocationSolver rebalancingSolver,
 			AlonsoMoraFunction function, AlonsoMoraScheduler scheduler, EventsManager eventsManager, String mode,
 			AlonsoMoraVehicleFactory vehicleFactory, ForkJoinPool forkJoinPool, TravelTimeEstimator travelTimeEstimator,
 			PassengerStopDurationProvider stopDurationProvider, AlgorithmSettings settings, DrtOfferAcceptor offerAcceptor,
-			double vehicleStopDuration, DvrpLoadType loadType) {
+			double vehicleStopDuration, DvrpLoadType loadType, TravelTimeLowerBound travelTimeBound) {
 		this.assignmentSolver = assignmentSolver;
 		this.rebalancingSolver = rebalancingSolver;
 		this.scheduler = scheduler;
 		this.eventsManager = eventsManager;
 		this.mode = mode;
-		this.function = function;
+		this.uncachedFunction = function;
+		this.routeCache = settings.cacheRoutes ? new CachingAlonsoMoraFunction(function) : null;
+		this.function = routeCache != null ? routeCache : function;
 		this.forkJoinPool = forkJoinPool;
 		this.travelTimeEstimator = travelTimeEstimator;
 		this.stopDurationProvider = stopDurationProvider;
@@ -123,6 +137,8 @@ public class AlonsoMoraAlgorithm {
 		this.offerAcceptor = offerAcceptor;
 		this.vehicleStopDuration = vehicleStopDuration;
 		this.emptyLoad = loadType.getEmptyLoad();
+		this.requestGraph = new DefaultRequestGraph(function, forkJoinPool, travelTimeBound);
+		this.travelTimeBound = travelTimeBound;
 
 		// Create vehicle wrappers
 		vehicles = new ArrayList<>(fleet.getVehicles().size());
@@ -255,22 +271,46 @@ public class AlonsoMoraAlgorithm {
 
 	/**
 	 * This method updates the request graph which determines which requests could
-	 * potentially be on a shared route.
+	 * potentially be on a shared route. The graph is maintained across dispatching
+	 * steps: requests that are not queued or assigned anymore are removed, the
+	 * remaining edges are revalidated, and only new requests are added.
 	 */
 	private void updateRequestGraph(double now, Information information) {
 		information.requestGraphStartTime = System.nanoTime();
 
-		// Create request graph
-		requestGraph = new DefaultRequestGraph(function, forkJoinPool);
+		// Remove requests that have been picked up, rejected or are otherwise gone
+		List<AlonsoMoraRequest> removedRequests = new LinkedList<>();
+
+		for (AlonsoMoraRequest request : requestGraph.getRequests()) {
+			if (!queuedRequests.contains(request) && !assignedRequests.contains(request)) {
+				removedRequests.add(request);
+			}
+		}
+
+		for (AlonsoMoraRequest request : removedRequests) {
+			requestGraph.removeRequest(request);
+		}
+
+		// Update existing edges
+		requestGraph.revalidate(now);
+
+		// Add new requests
+		List<AlonsoMoraRequest> addedRequests = new ArrayList<>();
 
 		for (AlonsoMoraRequest request : queuedRequests) {
-			requestGraph.addRequest(request, now);
+			if (!requestGraph.containsRequest(request)) {
+				addedRequests.add(request);
+			}
 		}
 
 		for (AlonsoMoraRequest request : assignedRequests) {
-			requestGraph.addRequest(request, now);
+			if (!requestGraph.containsRequest(request)) {
+				addedRequests.add(request);
+			}
 		}
 
+		requestGraph.addRequests(addedRequests, now);
+
 		information.requestGraphEndTime = System.nanoTime();
 		information.requestGraphSize = requestGraph.getSize();
 	}
@@ -279,19 +319,28 @@ public class AlonsoMoraAlgorithm {
 	 * This method updates the trip-vehicle graphs for all eligible vehicles.
 	 */
 	void updateVehicleGraphs(double now, Information information) {
-		// Clean all graphs
-		vehicleGraphs.clear();
-
 		information.vehicleGraphsStartTime = System.nanoTime();
 
+		boolean reuseGraphs = settings.reuseVehicleGraphs && settings.tripGraphLimitPerVehicle == 0
+				&& settings.tripGraphlimitPerSequenceLength == 0;
+
+		// Graphs are only kept if they are reused, and only for vehicles that are still
+		// eligible (see below)
+		Map<AlonsoMoraVehicle, VehicleGraph> previousGraphs = new TreeMap<>();
+
+		if (reuseGraphs) {
+			previousGraphs.putAll(vehicleGraphs);
+		}
+
+		vehicleGraphs.clear();
+
 		// Create a graph per vehicle that is eligible
 		for (AlonsoMoraVehicle vehicle : vehicles) {
 			if (settings.useBindingRelocations && relocatingVehicles.contains(vehicle)) {
 				continue; // Don't create a graph for relocating vehicles if desired
 			}
 
-			vehicleGraphs.put(vehicle, new DefaultVehicleGraph(function, requestGraph, vehicle,
-					settings.tripGraphLimitPerVehicle, settings.tripGraphlimitPerSequenceLength));
+			vehicleGraphs.put(vehicle, previousGraphs.get(vehicle));
 		}
 
 		// Update timings along the current route in order to calculate delays
@@ -332,6 +381,36 @@ public class AlonsoMoraAlgorithm {
 					});
 		}).join();
 
+		/*
+		 * Graphs are only reused if the state of the vehicle (see VehicleGraphState)
+		 * has not changed since the last step. Otherwise, and for all new vehicles, an
+		 * empty graph is created.
+		 */
+
+		Set<AlonsoMoraVehicle> reusedVehicles = new HashSet<>();
+
+		for (Map.Entry<AlonsoMoraVehicle, VehicleGraph> item : vehicleGraphs.entrySet()) {
+			AlonsoMoraVehicle vehicle = item.getKey();
+			VehicleGraphState state = vehicleGraphStates.get(vehicle);
+
+			if (item.getValue() != null && state != null && state.matches(vehicle, now)) {
+				reusedVehicles.add(vehicle);
+			} else {
+				item.setValue(new DefaultVehicleGraph(function, requestGraph, vehicle,
+						settings.tripGraphLimitPerVehicle, settings.tripGraphlimitPerSequenceLength,
+						PARALLEL_LEVEL_THRESHOLD));
+			}
+		}
+
+		// Requests whose constraints have changed need to be evaluated again
+		Set<AlonsoMoraRequest> updatedRequests = new HashSet<>();
+
+		for (Map.Entry<AlonsoMoraRequest, Double> item : vehicleGraphPickupTimes.entrySet()) {
+			if (item.getKey().getPlannedPickupTime() != item.getValue()) {
+				updatedRequests.add(item.getKey());
+			}
+		}
+
 		/*
 		 * Pre-filter for request-vehicle assignments as described in III.C in
 		 * Supplementary Material. The Trip-Request-Vehicle graph can get quite large,
@@ -340,76 +419,280 @@ public class AlonsoMoraAlgorithm {
 		 * vehicle* so the only thing we can do is to find those top N vehicles per
 		 * request already in advance as we cannot do this in parallel otherwise. This
 		 * is an optional feature to reduce the size of the trip-vehicle graph.
+		 * 
+		 * Routes are only calculated for the vehicles that can reach the pickup location
+		 * of a request in time according to the travel time bound (see
+		 * VehicleReachabilityIndex). The candidates are sorted, so ties between
+		 * vehicles of the same cost are resolved in the same way as without the bound.
 		 */
 
 		final Map<AlonsoMoraVehicle, Map<AlonsoMoraRequest, AlonsoMoraFunction.Result>> topMatchings;
 
 		if (settings.candidateVehiclesPerRequest > 0) {
-			topMatchings = forkJoinPool.submit(() -> {
-				return Stream.concat(queuedRequests.parallelStream(), assignedRequests.parallelStream()) //
-						.flatMap(request -> {
-							return vehicleGraphs.keySet().parallelStream() //
-									.filter(vehicle -> vehicle.getVehicle().getSchedule().getStatus()
-											.equals(ScheduleStatus.STARTED)) //
-									.map(vehicle -> {
-										return Pair.of(Pair.of(request, vehicle),
-												function.calculateRoute(Arrays.asList(request), vehicle, now));
-									})//
-									.filter(result -> result.getRight().isPresent()) //
-									.map(pair -> Pair.of(pair.getLeft(), pair.getRight().get())) //
-									.sorted((a, b) -> {
-										return Double.compare(a.getRight().getCost(), b.getRight().getCost());
-									}) //
-									.limit(settings.candidateVehiclesPerRequest);
-						}) //
-						.collect(Collectors.groupingBy(p -> p.getLeft().getRight(),
-								Collectors.toMap(p -> p.getLeft().getLeft(), p -> p.getRight())));
+			VehicleReachabilityIndex vehicleIndex = new VehicleReachabilityIndex(travelTimeBound,
+					VEHICLE_INDEX_CELL_SIZE, vehicleGraphs.keySet().stream() //
+							.filter(vehicle -> vehicle.getVehicle().getSchedule().getStatus()
+									.equals(ScheduleStatus.STARTED)) //
+							.collect(Collectors.toList()),
+					now);
+
+			List<AlonsoMoraRequest> matchingRequests = new ArrayList<>(queuedRequests.size() + assignedRequests.size());
+			matchingRequests.addAll(queuedRequests);
+			matchingRequests.addAll(assignedRequests);
+
+			TopCandidates[] selection = new TopCandidates[matchingRequests.size()];
+
+			forkJoinPool.submit(() -> {
+				IntStream.range(0, matchingRequests.size()).parallel().forEach(index -> {
+					AlonsoMoraRequest request = matchingRequests.get(index);
+
+					List<AlonsoMoraVehicle> candidates = vehicleIndex.getCandidates(request);
+					Collections.sort(candidates);
+
+					TopCandidates requestSelection = new TopCandidates(settings.candidateVehiclesPerRequest);
+					List<AlonsoMoraRequest> routeRequests = Collections.singletonList(request);
+
+					// The selected routes are passed on to the vehicle graphs directly, so they are
+					// not cached
+					for (AlonsoMoraVehicle vehicle : candidates) {
+						Optional<AlonsoMoraFunction.Result> result = uncachedFunction.calculateRoute(routeRequests,
+								vehicle, now);
+
+						if (result.isPresent()) {
+							requestSelection.offer(vehicle, result.get());
+						}
+					}
+
+					selection[index] = requestSelection;
+				});
 			}).join();
+
+			topMatchings = new HashMap<>();
+
+			for (int index = 0; index < selection.length; index++) {
+				AlonsoMoraRequest request = matchingRequests.get(index);
+				TopCandidates requestSelection = selection[index];
+
+				for (int k = 0; k < requestSelection.size(); k++) {
+					topMatchings.computeIfAbsent(requestSelection.getVehicle(k), v -> new HashMap<>()).put(request,
+							requestSelection.getResult(k));
+				}
+			}
 		} else {
 			topMatchings = null;
 		}
 
 		// Fill the graphs
-		forkJoinPool.submit(() -> {
-			vehicleGraphs.entrySet().parallelStream() //
-					.filter(item -> item.getKey().getVehicle().getSchedule().getStatus().equals(ScheduleStatus.STARTED)) //
-					.forEach(item -> {
-						VehicleGraph vehicleGraph = item.getValue();
-
-						if (topMatchings == null) {
-							for (AlonsoMoraRequest request : queuedRequests) {
-								vehicleGraph.addRequest(request, now);
-							}
+		Consumer<Map.Entry<AlonsoMoraVehicle, VehicleGraph>> fillGraph = item -> {
+			VehicleGraph vehicleGraph = item.getValue();
 
-							for (AlonsoMoraRequest request : assignedRequests) {
-								vehicleGraph.addRequest(request, now);
-							}
-						} else {
-							Map<AlonsoMoraRequest, AlonsoMoraFunction.Result> vehicleMatchings = topMatchings
-									.get(item.getKey());
-
-							if (vehicleMatchings != null) {
-								for (Map.Entry<AlonsoMoraRequest, AlonsoMoraFunction.Result> matching : vehicleMatchings
-										.entrySet()) {
-									vehicleGraph.addRequest(matching.getKey(), now, matching.getValue());
-								}
-							}
-						}
+			Map<AlonsoMoraRequest, AlonsoMoraFunction.Result> vehicleMatchings = topMatchings == null
+					? null
+					: topMatchings.getOrDefault(item.getKey(), Collections.emptyMap());
 
-						if (settings.preserveVehicleAssignments) {
-							// Optionally, make sure that the currently assigned route is always included
-							// (even though the matching may not be available anymore as it does not exist
-							// any longer in the request graph).
+			if (reusedVehicles.contains(item.getKey())) {
+				// Remove the requests that are not relevant anymore for this vehicle and update
+				// the remaining trips
 
-							vehicleGraph.preserveVehicleAssignment(now);
-						}
-					});
-		}).join();
+				for (AlonsoMoraRequest request : new ArrayList<>(vehicleGraph.getRequests())) {
+					boolean isRelevant = vehicleMatchings == null
+							? queuedRequests.contains(request) || assignedRequests.contains(request)
+							: vehicleMatchings.containsKey(request);
+
+					if (!isRelevant || updatedRequests.contains(request)) {
+						vehicleGraph.removeRequest(request);
+					}
+				}
+
+				vehicleGraph.revalidate(now);
+			}
+
+			if (vehicleMatchings == null) {
+				for (AlonsoMoraRequest request : queuedRequests) {
+					if (!vehicleGraph.getRequests().contains(request)) {
+						vehicleGraph.addRequest(request, now);
+					}
+				}
+
+				for (AlonsoMoraRequest request : assignedRequests) {
+					if (!vehicleGraph.getRequests().contains(request)) {
+						vehicleGraph.addRequest(request, now);
+					}
+				}
+			} else {
+				for (Map.Entry<AlonsoMoraRequest, AlonsoMoraFunction.Result> matching : vehicleMatchings
+						.entrySet()) {
+					if (!vehicleGraph.getRequests().contains(matching.getKey())) {
+						vehicleGraph.addRequest(matching.getKey(), now, matching.getValue());
+					}
+				}
+			}
+
+			if (settings.preserveVehicleAssignments) {
+				// Optionally, make sure that the currently assigned route is always included
+				// (even though the matching may not be available anymore as it does not exist
+				// any longer in the request graph).
+
+				vehicleGraph.preserveVehicleAssignment(now);
+			}
+		};
+
+		/*
+		 * The effort for filling a graph differs by orders of magnitude between idle
+		 * vehicles and vehicles with many onboard requests and candidates. Hence, the
+		 * graphs are processed in the order of their estimated effort, starting with
+		 * the largest ones, by a fixed number of workers that take the next graph once
+		 * they are done. This way, no large graph is started last. Additionally, large
+		 * levels of a graph are split up into parallel tasks (see DefaultVehicleGraph).
+		 */
+
+		List<Map.Entry<AlonsoMoraVehicle, VehicleGraph>> fillItems = new ArrayList<>();
+		Map<AlonsoMoraVehicle, Double> fillEstimates = new HashMap<>();
+
+		for (Map.Entry<AlonsoMoraVehicle, VehicleGraph> item : vehicleGraphs.entrySet()) {
+			if (item.getKey().getVehicle().getSchedule().getStatus().equals(ScheduleStatus.STARTED)) {
+				int numberOfCandidates = topMatchings == null ? queuedRequests.size() + assignedRequests.size()
+						: topMatchings.getOrDefault(item.getKey(), Collections.emptyMap()).size();
+
+				fillItems.add(item);
+				fillEstimates.put(item.getKey(), estimateGraphEffort(item.getKey(), numberOfCandidates));
+			}
+		}
+
+		fillItems.sort((a, b) -> -Double.compare(fillEstimates.get(a.getKey()), fillEstimates.get(b.getKey())));
+
+		AtomicInteger nextFillItem = new AtomicInteger(0);
+		List<ForkJoinTask<?>> fillTasks = new ArrayList<>(forkJoinPool.getParallelism());
+
+		for (int worker = 0; worker < forkJoinPool.getParallelism(); worker++) {
+			fillTasks.add(forkJoinPool.submit(() -> {
+				int index;
+
+				while ((index = nextFillItem.getAndIncrement()) < fillItems.size()) {
+					fillGraph.accept(fillItems.get(index));
+				}
+			}));
+		}
+
+		for (ForkJoinTask<?> task : fillTasks) {
+			task.join();
+		}
+
+		// Remember the state for which the graphs have been built
+		vehicleGraphStates.clear();
+		vehicleGraphPickupTimes.clear();
+
+		if (reuseGraphs) {
+			for (AlonsoMoraVehicle vehicle : vehicleGraphs.keySet()) {
+				if (vehicle.getVehicle().getSchedule().getStatus().equals(ScheduleStatus.STARTED)) {
+					vehicleGraphStates.put(vehicle, new VehicleGraphState(vehicle, now));
+				}
+			}
+
+			for (AlonsoMoraRequest request : queuedRequests) {
+				vehicleGraphPickupTimes.put(request, request.getPlannedPickupTime());
+			}
+
+			for (AlonsoMoraRequest request : assignedRequests) {
+				vehicleGraphPickupTimes.put(request, request.getPlannedPickupTime());
+			}
+		}
 
 		information.vehicleGraphsEndTime = System.nanoTime();
 		information.vehicleGraphSize = vehicleGraphs.values().stream().mapToInt(g -> g.getSize()).sum();
 	}
 
+	/**
+	 * Estimates the relative effort of filling the trip-vehicle graph of a vehicle.
+	 * The number of trips grows combinatorially with the number of candidate
+	 * requests up to the free capacity of the vehicle, and the effort of finding
+	 * the route for one trip grows with the number of stops. The value is only
+	 * used to order the graphs.
+	 */
+	static private double estimateGraphEffort(AlonsoMoraVehicle vehicle, int numberOfCandidates) {
+		int numberOfOnboard = vehicle.getOnboardRequests().size();
+		int maximumLength = Math.min(Math.min(numberOfCandidates, MAXIMUM_ESTIMATED_LENGTH),
+				Math.max(1, vehicle.getItemCapacity() - numberOfOnboard));
+
+		double effort = 1.0 + numberOfOnboard;
+		double numberOfTrips = 1.0;
+
+		for (int length = 1; length <= maximumLength; length++) {
+			numberOfTrips *= (double) (numberOfCandidates - length + 1) / length;
+
+			int numberOfStops = numberOfOnboard + 2 * length;
+			effort += numberOfTrips * numberOfStops * numberOfStops;
+		}
+
+		return effort;
+	}
+
+	static private final int MAXIMUM_ESTIMATED_LENGTH = 4;
+
+	/**
+	 * Captures the state of a vehicle for which its trip-vehicle graph has been
+	 * built: the diversion point, the current task, the onboard requests and the
+	 * timed route. If any of them changes, the graph is built from scratch in the
+	 * next step. Otherwise, the existing trips are revalidated and only the changes
+	 * in requests are processed.
+	 *
+	 * The stops of the route may be expected later than before, which happens when
+	 * the route is re-timed under congestion. This only makes the constraints of
+	 * all combinations harder to fulfill, so combinations that were infeasible
+	 * before stay infeasible. If any stop is expected earlier, the graph is built
+	 * from scratch.
+	 */
+	static private class VehicleGraphState {
+		private final Link diversionLink;
+		private final Task currentTask;
+		private final Set<AlonsoMoraRequest> onboardRequests;
+		private final List<AlonsoMoraStop> route;
+
+		VehicleGraphState(AlonsoMoraVehicle vehicle, double now) {
+			this.diversionLink = vehicle.getNextDiversion(now).link;
+			this.currentTask = vehicle.getVehicle().getSchedule().getCurrentTask();
+			this.onboardRequests = new HashSet<>(vehicle.getOnboardRequests());
+			this.route = new ArrayList<>(vehicle.getRoute());
+		}
+
+		boolean matches(AlonsoMoraVehicle vehicle, double now) {
+			if (!vehicle.getVehicle().getSchedule().getStatus().equals(ScheduleStatus.STARTED)) {
+				return false;
+			}
+
+			if (vehicle.getNextDiversion(now).link != diversionLink) {
+				return false;
+			}
+
+			if (vehicle.getVehicle().getSchedule().getCurrentTask() != currentTask) {
+				return false;
+			}
+
+			if (!vehicle.getOnboardRequests().equals(onboardRequests)) {
+				return false;
+			}
+
+			List<AlonsoMoraStop> currentRoute = vehicle.getRoute();
+
+			if (currentRoute.size() != route.size()) {
+				return false;
+			}
+
+			for (int i = 0; i < route.size(); i++) {
+				AlonsoMoraStop previousStop = route.get(i);
+				AlonsoMoraStop currentStop = currentRoute.get(i);
+
+				if (previousStop.getType() != currentStop.getType() || previousStop.getLink() != currentStop.getLink()
+						|| previousStop.getRequest() != currentStop.getRequest()
+						|| !(currentStop.getTime() >= previousStop.getTime())) {
+					return false;
+				}
+			}
+
+			return true;
+		}
+	}
+
 	/*
 	 * This is the main core of the assignment where we run the matching algorithm.
 	 */
@@ -660,6 +943,11 @@ public class AlonsoMoraAlgorithm {
 	public Optional<Information> run(List<AlonsoMoraRequest> newRequests, double now) {
 		Optional<Information> information = Optional.empty();
 
+		// Routes from the previous step are not valid anymore
+		if (routeCache != null) {
+			routeCache.clear();
+		}
+
 		// Update request states
 		updateRequestsBeforeAssignment(newRequests, now);
 
@@ -684,6 +972,11 @@ public class AlonsoMoraAlgorithm {
 
 			// Perform assignment and relocation
 			performAssignment(now, information.get());
+
+			if (routeCache != null) {
+				information.get().numberOfRouteLookups = routeCache.getNumberOfLookups();
+				information.get().numberOfRouteCacheHits = routeCache.getNumberOfHits();
+			}
 		}
 
 		// Print logging information
@@ -786,6 +1079,8 @@ public class AlonsoMoraAlgorithm {
 		final int candidateVehiclesPerRequest;
 		final int tripGraphLimitPerVehicle;
 		final int tripGraphlimitPerSequenceLength;
+		final boolean reuseVehicleGraphs;
+		final boolean cacheRoutes;
 
 		public AlgorithmSettings(AlonsoMoraConfigGroup config) {
 			this.useBindingRelocations = config.useBindingRelocations;
@@ -797,6 +1092,8 @@ public class AlonsoMoraAlgorithm {
 			this.candidateVehiclesPerRequest = config.candidateVehiclesPerRequest;
 			this.tripGraphLimitPerVehicle = config.tripGraphLimitPerVehicle;
 			this.tripGraphlimitPerSequenceLength = config.tripGraphLimitPerSequenceLength;
+			this.reuseVehicleGraphs = config.reuseVehicleGraphs;
+			this.cacheRoutes = config.cacheRoutes;
 		}
 	}
 
@@ -821,6 +1118,9 @@ public class AlonsoMoraAlgorithm {
 		public int numberOfRelocations = 0;
 		public int numberOfReassignments = 0;
 
+		public long numberOfRouteLookups = 0;
+		public long numberOfRouteCacheHits = 0;
+
 		public Solution.Status solutionStatus;
 	}
 }
@@ -0,0 +1,120 @@
+package org.matsim.alonso_mora.algorithm;
+
+import org.matsim.alonso_mora.algorithm.function.AlonsoMoraFunction;
+
+/**
+ * Keeps the best vehicles for one request in a bounded max-heap, ordered by
+ * cost. Among vehicles of equal cost, the ones that are offered first are
+ * preferred, so the selection is the same as the one obtained from a stable
+ * sort of all candidates, followed by taking the first elements.
+ *
+ * @author sebhoerl
+ */
+class TopCandidates {
+	private final int limit;
+
+	private final double[] costs;
+	private final int[] order;
+	private final AlonsoMoraVehicle[] vehicles;
+	private final AlonsoMoraFunction.Result[] results;
+
+	private int size = 0;
+	private int offered = 0;
+
+	TopCandidates(int limit) {
+		this.limit = limit;
+		this.costs = new double[limit];
+		this.order = new int[limit];
+		this.vehicles = new AlonsoMoraVehicle[limit];
+		this.results = new AlonsoMoraFunction.Result[limit];
+	}
+
+	void offer(AlonsoMoraVehicle vehicle, AlonsoMoraFunction.Result result) {
+		double cost = result.getCost();
+		int index = offered++;
+
+		if (size < limit) {
+			set(size, cost, index, vehicle, result);
+			siftUp(size);
+			size++;
+		} else if (limit > 0 && isBefore(cost, index, 0)) {
+			// Replace the worst vehicle
+			set(0, cost, index, vehicle, result);
+			siftDown(0);
+		}
+	}
+
+	int size() {
+		return size;
+	}
+
+	AlonsoMoraVehicle getVehicle(int index) {
+		return vehicles[index];
+	}
+
+	AlonsoMoraFunction.Result getResult(int index) {
+		return results[index];
+	}
+
+	/**
+	 * Checks if the given candidate is preferred to the one at the given position.
+	 */
+	private boolean isBefore(double cost, int index, int position) {
+		int comparison = Double.compare(cost, costs[position]);
+		return comparison < 0 || (comparison == 0 && index < order[position]);
+	}
+
+	private void set(int position, double cost, int index, AlonsoMoraVehicle vehicle,
+			AlonsoMoraFunction.Result result) {
+		costs[position] = cost;
+		order[position] = index;
+		vehicles[position] = vehicle;
+		results[position] = result;
+	}
+
+	private void swap(int first, int second) {
+		double cost = costs[first];
+		int index = order[first];
+		AlonsoMoraVehicle vehicle = vehicles[first];
+		AlonsoMoraFunction.Result result = results[first];
+
+		set(first, costs[second], order[second], vehicles[second], results[second]);
+		set(second, cost, index, vehicle, result);
+	}
+
+	private void siftUp(int position) {
+		while (position > 0) {
+			int parent = (position - 1) / 2;
+
+			if (isBefore(costs[parent], order[parent], position)) {
+				swap(parent, position);
+				position = parent;
+			} else {
+				break;
+			}
+		}
+	}
+
+	private void siftDown(int position) {
+		while (true) {
+			int worst = position;
+			int left = 2 * position + 1;
+			int right = left + 1;
+
+			if (left < size && isBefore(costs[worst], order[worst], left)) {
+				worst = left;
+			}
+
+			if (right < size && isBefore(costs[worst], order[worst], right)) {
+				worst = right;
+			}
+
+			if (worst == position) {
+				break;
+			}
+
+			swap(position, worst);
+			position = worst;
+		}
+	}
+}
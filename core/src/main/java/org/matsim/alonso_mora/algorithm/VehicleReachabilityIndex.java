@@ -0,0 +1,176 @@
+package org.matsim.alonso_mora.algorithm;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.matsim.alonso_mora.travel_time.TravelTimeLowerBound;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.contrib.dvrp.path.VrpPaths;
+import org.matsim.contrib.dvrp.util.LinkTimePair;
+
+/**
+ * Spatial index over the diversion points of the vehicles, which is built once
+ * per dispatching step. It is used to find the candidate vehicles for a request
+ * without calculating a route for every vehicle of the fleet.
+ *
+ * A vehicle can only pick up a request if it can reach the pickup location
+ * before the planned pickup time. This necessary condition is checked using
+ * the diversion point of the vehicle and a {@link TravelTimeLowerBound}. If the
+ * bound is enabled, vehicles are kept in a grid, and only grid cells in reach of
+ * the pickup location are scanned. The vehicle to which a request is currently
+ * assigned is always returned, as pickup violations may be tolerated for it.
+ *
+ * @author sebhoerl
+ */
+class VehicleReachabilityIndex {
+	/**
+	 * The arrival time calculated in the route tracker may be earlier than the
+	 * diversion time plus the travel time when the vehicle is currently driving.
+	 */
+	static private final double ARRIVAL_TIME_TOLERANCE = VrpPaths.FIRST_LINK_TT + VrpPaths.NODE_TRANSITION_TIME;
+
+	private final TravelTimeLowerBound bound;
+	private final double cellSize;
+
+	private final List<Entry> entries = new ArrayList<>();
+	private final Map<Long, List<Entry>> cells = new HashMap<>();
+
+	private double maximumRadius = 0.0;
+	private double minimumDiversionTime = Double.POSITIVE_INFINITY;
+
+	VehicleReachabilityIndex(TravelTimeLowerBound bound, double cellSize, Collection<AlonsoMoraVehicle> vehicles,
+			double now) {
+		this.bound = bound;
+		this.cellSize = cellSize;
+
+		for (AlonsoMoraVehicle vehicle : vehicles) {
+			Entry entry = new Entry(vehicle, vehicle.getNextDiversion(now));
+			entries.add(entry);
+
+			if (bound.isEnabled()) {
+				cells.computeIfAbsent(entry.cell, c -> new ArrayList<>()).add(entry);
+				maximumRadius = Math.max(maximumRadius, entry.radius);
+				minimumDiversionTime = Math.min(minimumDiversionTime, entry.diversionTime);
+			}
+		}
+	}
+
+	/**
+	 * Returns all vehicles in the index that may reach the pickup location of the
+	 * request before its planned pickup time.
+	 */
+	List<AlonsoMoraVehicle> getCandidates(AlonsoMoraRequest request) {
+		List<AlonsoMoraVehicle> candidates = new ArrayList<>();
+
+		if (!bound.isEnabled()) {
+			for (Entry entry : entries) {
+				candidates.add(entry.vehicle);
+			}
+
+			return candidates;
+		}
+
+		Link pickupLink = request.getPickupLink();
+		double plannedPickupTime = request.getPlannedPickupTime();
+
+		// Any candidate needs to be able to reach the pickup location in time
+		double maximumTime = plannedPickupTime + ARRIVAL_TIME_TOLERANCE - minimumDiversionTime;
+
+		if (maximumTime >= 0.0) {
+			double maximumDistance = bound.getMaximumDistance(maximumTime) + TravelTimeLowerBound.getRadius(pickupLink)
+					+ maximumRadius;
+			double cellRange = Math.floor(maximumDistance / cellSize) + 1.0;
+
+			int centerX = getCellIndex(pickupLink.getCoord().getX());
+			int centerY = getCellIndex(pickupLink.getCoord().getY());
+
+			if ((2.0 * cellRange + 1.0) * (2.0 * cellRange + 1.0) <= cells.size()) {
+				int range = (int) cellRange;
+
+				for (int x = centerX - range; x <= centerX + range; x++) {
+					for (int y = centerY - range; y <= centerY + range; y++) {
+						List<Entry> cell = cells.get(getCell(x, y));
+
+						if (cell != null) {
+							collect(cell, request, candidates);
+						}
+					}
+				}
+			} else {
+				for (Map.Entry<Long, List<Entry>> cell : cells.entrySet()) {
+					if (Math.abs((double) getCellX(cell.getKey()) - centerX) <= cellRange
+							&& Math.abs((double) getCellY(cell.getKey()) - centerY) <= cellRange) {
+						collect(cell.getValue(), request, candidates);
+					}
+				}
+			}
+		}
+
+		// The currently assigned vehicle is not subject to the condition
+		AlonsoMoraVehicle assignedVehicle = request.getVehicle();
+
+		if (assignedVehicle != null && !candidates.contains(assignedVehicle)) {
+			for (Entry entry : entries) {
+				if (entry.vehicle == assignedVehicle) {
+					candidates.add(assignedVehicle);
+					break;
+				}
+			}
+		}
+
+		return candidates;
+	}
+
+	private void collect(List<Entry> entries, AlonsoMoraRequest request, List<AlonsoMoraVehicle> candidates) {
+		for (Entry entry : entries) {
+			double travelTime = bound.getTravelTime(entry.diversionLink, request.getPickupLink());
+
+			if (entry.diversionTime + travelTime - ARRIVAL_TIME_TOLERANCE <= request.getPlannedPickupTime()) {
+				candidates.add(entry.vehicle);
+			}
+		}
+	}
+
+	private int getCellIndex(double coordinate) {
+		return (int) Math.floor(coordinate / cellSize);
+	}
+
+	private long getCell(int x, int y) {
+		return (((long) x) << 32) | (y & 0xFFFFFFFFL);
+	}
+
+	private int getCellX(long cell) {
+		return (int) (cell >> 32);
+	}
+
+	private int getCellY(long cell) {
+		return (int) cell;
+	}
+
+	private class Entry {
+		final AlonsoMoraVehicle vehicle;
+		final Link diversionLink;
+		final double diversionTime;
+
+		final double radius;
+		final long cell;
+
+		Entry(AlonsoMoraVehicle vehicle, LinkTimePair diversion) {
+			this.vehicle = vehicle;
+			this.diversionLink = diversion.link;
+			this.diversionTime = diversion.time;
+
+			if (bound.isEnabled()) {
+				this.radius = TravelTimeLowerBound.getRadius(diversionLink);
+				this.cell = getCell(getCellIndex(diversionLink.getCoord().getX()),
+						getCellIndex(diversionLink.getCoord().getY()));
+			} else {
+				this.radius = 0.0;
+				this.cell = 0;
+			}
+		}
+	}
+}
@@ -1,14 +1,18 @@
 package org.matsim.alonso_mora.algorithm.function;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
 import org.matsim.alonso_mora.algorithm.AlonsoMoraRequest;
 import org.matsim.alonso_mora.algorithm.AlonsoMoraStop;
+import org.matsim.alonso_mora.algorithm.AlonsoMoraStop.StopType;
 import org.matsim.alonso_mora.algorithm.AlonsoMoraVehicle;
 import org.matsim.api.core.v01.network.Link;
 
+import com.google.common.base.Verify;
+
 /**
  * This class represents one of the core components of the algorithm described
  * by Alonso-Mora et al. It replicates the "travel" function as defined in the
@@ -41,6 +45,18 @@ public interface AlonsoMoraFunction {
 	 */
 	Optional<Result> calculateRoute(Collection<AlonsoMoraRequest> requests, AlonsoMoraVehicle vehicle, double now);
 
+	/**
+	 * Find a minimum cost stop sequence for a vehicle and the given list of
+	 * requests, given the result for a trip that contains all but one of the
+	 * requests. The hint may be used to speed up the calculation, but does not
+	 * need to be taken into account and must not change the result. See
+	 * {@link DefaultAlonsoMoraFunction#calculateRoute(Collection, AlonsoMoraVehicle, double, Result)}.
+	 */
+	default Optional<Result> calculateRoute(Collection<AlonsoMoraRequest> requests, AlonsoMoraVehicle vehicle,
+			double now, Result hint) {
+		return calculateRoute(requests, vehicle, now);
+	}
+
 	/**
 	 * Check whether a relocation trip can be assigned to the vehicle, given the
 	 * destination link. See
@@ -48,20 +64,113 @@ public interface AlonsoMoraFunction {
 	 */
 	Optional<Double> checkRelocation(AlonsoMoraVehicle vehicle, Link destination, double now);
 
+	/**
+	 * The result of a route calculation. The stops can either be given directly or
+	 * in a compact form, which only consists of the request, the type and the time
+	 * per stop. Since the trip-vehicle graph holds a result for each of its trips,
+	 * but only few of them are finally assigned, the stop objects are then only
+	 * created when they are requested for the first time.
+	 */
 	static public class Result {
 		private final double cost;
-		private final List<AlonsoMoraStop> stops;
+		private List<AlonsoMoraStop> stops;
+
+		private final AlonsoMoraRequest[] stopRequests;
+		private final boolean[] stopIsDropoff;
+		private final double[] stopTimes;
 
 		public Result(double cost, List<AlonsoMoraStop> stops) {
 			this.cost = cost;
 			this.stops = stops;
+
+			this.stopRequests = null;
+			this.stopIsDropoff = null;
+			this.stopTimes = null;
+		}
+
+		/**
+		 * Creates a result with a compact stop sequence of pickups and dropoffs. The
+		 * arrays are not copied.
+		 */
+		public Result(double cost, AlonsoMoraRequest[] stopRequests, boolean[] stopIsDropoff, double[] stopTimes) {
+			Verify.verify(stopRequests.length == stopIsDropoff.length && stopRequests.length == stopTimes.length);
+
+			this.cost = cost;
+			this.stops = null;
+
+			this.stopRequests = stopRequests;
+			this.stopIsDropoff = stopIsDropoff;
+			this.stopTimes = stopTimes;
+		}
+
+		/**
+		 * Creates a result with a compact stop sequence from a list of pickup and
+		 * dropoff stops, saving their current timing.
+		 */
+		static public Result compact(double cost, List<AlonsoMoraStop> stops) {
+			AlonsoMoraRequest[] stopRequests = new AlonsoMoraRequest[stops.size()];
+			boolean[] stopIsDropoff = new boolean[stops.size()];
+			double[] stopTimes = new double[stops.size()];
+
+			int index = 0;
+
+			for (AlonsoMoraStop stop : stops) {
+				Verify.verify(!stop.getType().equals(StopType.Relocation), "Relocation stops cannot be compacted");
+
+				stopRequests[index] = stop.getRequest();
+				stopIsDropoff[index] = stop.getType().equals(StopType.Dropoff);
+				stopTimes[index] = stop.getTime();
+				index++;
+			}
+
+			return new Result(cost, stopRequests, stopIsDropoff, stopTimes);
 		}
 
 		public double getCost() {
 			return cost;
 		}
 
+		public int getNumberOfStops() {
+			return stops != null ? stops.size() : stopRequests.length;
+		}
+
+		/**
+		 * Returns the request of a stop without creating the stop objects.
+		 */
+		public AlonsoMoraRequest getStopRequest(int index) {
+			return stopRequests != null ? stopRequests[index] : stops.get(index).getRequest();
+		}
+
+		/**
+		 * Returns the type of a stop without creating the stop objects.
+		 */
+		public StopType getStopType(int index) {
+			if (stopRequests != null) {
+				return stopIsDropoff[index] ? StopType.Dropoff : StopType.Pickup;
+			}
+
+			return stops.get(index).getType();
+		}
+
 		public List<AlonsoMoraStop> getStops() {
+			if (stops == null) {
+				List<AlonsoMoraStop> materialized = new ArrayList<>(stopRequests.length);
+
+				for (int i = 0; i < stopRequests.length; i++) {
+					AlonsoMoraRequest request = stopRequests[i];
+
+					if (stopIsDropoff[i]) {
+						materialized.add(
+								new AlonsoMoraStop(StopType.Dropoff, request.getDropoffLink(), request, stopTimes[i]));
+					} else {
+						materialized.add(
+								new AlonsoMoraStop(StopType.Pickup, request.getPickupLink(), request, stopTimes[i]));
+					}
+				}
+
+				stops = materialized;
+			}
+
 			return stops;
 		}
 	}
@@ -0,0 +1,139 @@
+package org.matsim.alonso_mora.algorithm.function;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.matsim.alonso_mora.algorithm.AlonsoMoraRequest;
+import org.matsim.alonso_mora.algorithm.AlonsoMoraVehicle;
+import org.matsim.api.core.v01.network.Link;
+
+/**
+ * Wraps a travel function and keeps the results of
+ * {@link AlonsoMoraFunction#calculateRoute(Collection, AlonsoMoraVehicle, double)}
+ * for the duration of one dispatching step. During a step, the same route is
+ * requested multiple times for a vehicle and a set of requests, for instance
+ * when building and revalidating the trip-vehicle graph and when preserving the
+ * current assignment of a vehicle. Routes that are not requested again, like
+ * those for selecting candidate vehicles, should be calculated with the
+ * delegate (see {@link #getDelegate()}) so that they do not fill up the cache.
+ *
+ * Results are identified by the vehicle and the sorted requests. A hint must
+ * not change the result of the delegate (see
+ * {@link AlonsoMoraFunction#calculateRoute(Collection, AlonsoMoraVehicle, double, Result)}),
+ * so it is not part of the key. The cache assumes that the state of the vehicles
+ * and requests does not change while it is used, so it needs to be cleared at
+ * the beginning of each step. Shareability checks and relocations are not
+ * cached.
+ *
+ * @author sebhoerl
+ */
+public class CachingAlonsoMoraFunction implements AlonsoMoraFunction {
+	private final AlonsoMoraFunction delegate;
+
+	private final Map<RouteKey, Optional<Result>> cache = new ConcurrentHashMap<>();
+
+	private final AtomicLong numberOfLookups = new AtomicLong();
+	private final AtomicLong numberOfHits = new AtomicLong();
+
+	public CachingAlonsoMoraFunction(AlonsoMoraFunction delegate) {
+		this.delegate = delegate;
+	}
+
+	/**
+	 * Returns the wrapped function to calculate routes without caching them.
+	 */
+	public AlonsoMoraFunction getDelegate() {
+		return delegate;
+	}
+
+	/**
+	 * Removes all results and resets the statistics.
+	 */
+	public void clear() {
+		cache.clear();
+		numberOfLookups.set(0);
+		numberOfHits.set(0);
+	}
+
+	public long getNumberOfLookups() {
+		return numberOfLookups.get();
+	}
+
+	public long getNumberOfHits() {
+		return numberOfHits.get();
+	}
+
+	@Override
+	public boolean checkShareability(AlonsoMoraRequest firstRequest, AlonsoMoraRequest secondRequest, double now) {
+		return delegate.checkShareability(firstRequest, secondRequest, now);
+	}
+
+	@Override
+	public Optional<Result> calculateRoute(Collection<AlonsoMoraRequest> requests, AlonsoMoraVehicle vehicle,
+			double now) {
+		return calculateRoute(requests, vehicle, now, null);
+	}
+
+	/**
+	 * Returns the cached result if available. Otherwise, the route is calculated,
+	 * passing on the hint to speed up the calculation. If two threads ask for the
+	 * same route at the same time, it may be calculated twice, but both obtain the
+	 * same result.
+	 */
+	@Override
+	public Optional<Result> calculateRoute(Collection<AlonsoMoraRequest> requests, AlonsoMoraVehicle vehicle,
+			double now, Result hint) {
+		RouteKey key = new RouteKey(vehicle, requests);
+		numberOfLookups.incrementAndGet();
+
+		Optional<Result> result = cache.get(key);
+
+		if (result != null) {
+			numberOfHits.incrementAndGet();
+			return result;
+		}
+
+		result = delegate.calculateRoute(requests, vehicle, now, hint);
+		Optional<Result> previousResult = cache.putIfAbsent(key, result);
+
+		return previousResult == null ? result : previousResult;
+	}
+
+	@Override
+	public Optional<Double> checkRelocation(AlonsoMoraVehicle vehicle, Link destination, double now) {
+		return delegate.checkRelocation(vehicle, destination, now);
+	}
+
+	static private class RouteKey {
+		private final AlonsoMoraVehicle vehicle;
+		private final AlonsoMoraRequest[] requests;
+		private final int hashCode;
+
+		RouteKey(AlonsoMoraVehicle vehicle, Collection<AlonsoMoraRequest> requests) {
+			this.vehicle = vehicle;
+			this.requests = requests.toArray(new AlonsoMoraRequest[requests.size()]);
+			Arrays.sort(this.requests);
+
+			this.hashCode = 31 * System.identityHashCode(vehicle) + Arrays.hashCode(this.requests);
+		}
+
+		@Override
+		public boolean equals(Object otherObject) {
+			if (otherObject instanceof RouteKey) {
+				RouteKey otherKey = (RouteKey) otherObject;
+				return otherKey.vehicle == vehicle && Arrays.equals(otherKey.requests, requests);
+			}
+
+			return false;
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+	}
+}
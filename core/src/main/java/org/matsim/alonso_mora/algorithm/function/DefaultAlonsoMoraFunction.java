@@ -4,23 +4,25 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToDoubleFunction;
 
 import org.matsim.alonso_mora.algorithm.AlonsoMoraRequest;
 import org.matsim.alonso_mora.algorithm.AlonsoMoraStop;
 import org.matsim.alonso_mora.algorithm.AlonsoMoraStop.StopType;
 import org.matsim.alonso_mora.algorithm.AlonsoMoraVehicle;
 import org.matsim.alonso_mora.algorithm.function.sequence.ExtensiveSequenceGenerator;
+import org.matsim.alonso_mora.algorithm.function.sequence.SeededSequenceGenerator;
 import org.matsim.alonso_mora.algorithm.function.sequence.SequenceGenerator;
 import org.matsim.alonso_mora.algorithm.function.sequence.SequenceGeneratorFactory;
 import org.matsim.alonso_mora.travel_time.TravelTimeEstimator;
+import org.matsim.alonso_mora.travel_time.TravelTimeLowerBound;
 import org.matsim.api.core.v01.network.Link;
-import org.matsim.contrib.drt.passenger.DrtRequest;
 import org.matsim.contrib.drt.stops.PassengerStopDurationProvider;
+import org.matsim.contrib.dvrp.fleet.DvrpVehicle;
 import org.matsim.contrib.dvrp.load.DvrpLoad;
 import org.matsim.contrib.dvrp.load.DvrpLoadType;
 import org.matsim.contrib.dvrp.util.LinkTimePair;
@@ -35,6 +37,7 @@ import com.google.common.base.Verify;
  */
 public class DefaultAlonsoMoraFunction implements AlonsoMoraFunction {
 	private final TravelTimeEstimator travelTimeEstimator;
+	private final TravelTimeLowerBound travelTimeBound;
 	private final SequenceGeneratorFactory generatorFactory;
 
 	private final PassengerStopDurationProvider stopDurationProvider;
@@ -53,12 +56,30 @@ public class DefaultAlonsoMoraFunction implements AlonsoMoraFunction {
 
 	private final DvrpLoad emptyLoad;
 
+	private final long parallelSearchThreshold;
+
+	private final ThreadLocal<SmallTripSearch> smallTripSearch = ThreadLocal.withInitial(SmallTripSearch::new);
+	private final ThreadLocal<RouteSearchState> routeSearchState = ThreadLocal.withInitial(RouteSearchState::new);
+
 	public DefaultAlonsoMoraFunction(TravelTimeEstimator travelTimeEstimator, SequenceGeneratorFactory generatorFactory,
 			PassengerStopDurationProvider stopDurationProvider, double vehicleStopDuration,
 			boolean allowPickupViolations, boolean allowPickupsWithDropoffViolations,
 			boolean checkDeterminsticTravelTimes, Objective objective, Constraint constraint, double violationFactor,
-			double violationOffset, boolean preferNonViolation, DvrpLoadType loadType) {
+			double violationOffset, boolean preferNonViolation, DvrpLoadType loadType,
+			TravelTimeLowerBound travelTimeBound) {
+		this(travelTimeEstimator, generatorFactory, stopDurationProvider, vehicleStopDuration, allowPickupViolations,
+				allowPickupsWithDropoffViolations, checkDeterminsticTravelTimes, objective, constraint, violationFactor,
+				violationOffset, preferNonViolation, loadType, travelTimeBound, 0);
+	}
+
+	public DefaultAlonsoMoraFunction(TravelTimeEstimator travelTimeEstimator, SequenceGeneratorFactory generatorFactory,
+			PassengerStopDurationProvider stopDurationProvider, double vehicleStopDuration,
+			boolean allowPickupViolations, boolean allowPickupsWithDropoffViolations,
+			boolean checkDeterminsticTravelTimes, Objective objective, Constraint constraint, double violationFactor,
+			double violationOffset, boolean preferNonViolation, DvrpLoadType loadType,
+			TravelTimeLowerBound travelTimeBound, long parallelSearchThreshold) {
 		this.travelTimeEstimator = travelTimeEstimator;
+		this.travelTimeBound = travelTimeBound;
 		this.vehicleStopDuration = vehicleStopDuration;
 		this.stopDurationProvider = stopDurationProvider;
 		this.generatorFactory = generatorFactory;
@@ -75,6 +96,7 @@ public class DefaultAlonsoMoraFunction implements AlonsoMoraFunction {
 		this.preferNonViolation = preferNonViolation;
 
 		this.emptyLoad = loadType.getEmptyLoad();
+		this.parallelSearchThreshold = parallelSearchThreshold;
 	}
 
 	/**
@@ -85,64 +107,78 @@ public class DefaultAlonsoMoraFunction implements AlonsoMoraFunction {
 	 * of pickups and dropoffs of the two requests are iterated through and once a
 	 * valid solution is found, it is returned. If no solution is returned, the
 	 * requests are not pollable.
+	 * 
+	 * The orderings are evaluated by {@link SmallTripSearch}, which performs the
+	 * same calculations as the {@link RouteTracker} without allocating any stops
+	 * or timing lists.
+	 * 
+	 * Before the orderings are evaluated with the travel time estimator, they are
+	 * checked using lower bounds for the travel times (see
+	 * {@link #checkShareabilityBound(AlonsoMoraRequest, AlonsoMoraRequest, double)}).
 	 */
 	@Override
 	public boolean checkShareability(AlonsoMoraRequest firstRequest, AlonsoMoraRequest secondRequest, double now) {
-		SequenceGenerator generator = new ExtensiveSequenceGenerator(Collections.emptyList(),
-				Arrays.asList(firstRequest, secondRequest));
-
-		Map<AlonsoMoraRequest, Double> requiredPickupTimes = new HashMap<>();
-		Map<AlonsoMoraRequest, Double> requiredDropoffTimes = new HashMap<>();
+		if (!checkShareabilityBound(firstRequest, secondRequest, now)) {
+			return false;
+		}
 
-		requiredPickupTimes.put(firstRequest, firstRequest.getPlannedPickupTime());
-		requiredPickupTimes.put(secondRequest, secondRequest.getPlannedPickupTime());
-		requiredDropoffTimes.put(firstRequest, firstRequest.getLatestDropoffTime());
-		requiredDropoffTimes.put(secondRequest, secondRequest.getLatestDropoffTime());
+		return smallTripSearch.get().checkShareability(firstRequest, secondRequest, now);
+	}
 
-		RouteTracker tracker = new RouteTracker(null, travelTimeEstimator, stopDurationProvider, vehicleStopDuration, emptyLoad,
-				now, Optional.empty(), requiredPickupTimes, requiredDropoffTimes);
+	/**
+	 * All orderings of the pickups (0, 2) and dropoffs (1, 3) of two requests.
+	 */
+	static private final int[][] SHAREABILITY_ORDERINGS = { //
+			{ 0, 1, 2, 3 }, { 0, 2, 1, 3 }, { 0, 2, 3, 1 }, //
+			{ 2, 3, 0, 1 }, { 2, 0, 3, 1 }, { 2, 0, 1, 3 } //
+	};
 
-		while (generator.hasNext()) {
-			List<AlonsoMoraStop> stops = generator.get();
-			int startIndex = tracker.update(stops);
+	/**
+	 * Checks whether any ordering of the pickups and dropoffs of two requests may
+	 * be feasible when travel times are replaced by their lower bounds and stop
+	 * durations are neglected. The resulting stop times are never later than the
+	 * ones obtained from the travel time estimator, so if no ordering is feasible
+	 * here, the requests are not shareable.
+	 */
+	private boolean checkShareabilityBound(AlonsoMoraRequest firstRequest, AlonsoMoraRequest secondRequest,
+			double now) {
+		Link[] links = { firstRequest.getPickupLink(), firstRequest.getDropoffLink(), secondRequest.getPickupLink(),
+				secondRequest.getDropoffLink() };
 
-			boolean isValid = true;
+		double[] earliestTimes = { firstRequest.getEarliestPickupTime(), Double.NEGATIVE_INFINITY,
+				secondRequest.getEarliestPickupTime(), Double.NEGATIVE_INFINITY };
 
-			for (int i = startIndex; i < stops.size() && isValid; i++) {
-				AlonsoMoraStop stop = stops.get(i);
+		double[] latestTimes = { firstRequest.getPlannedPickupTime(), firstRequest.getLatestDropoffTime(),
+				secondRequest.getPlannedPickupTime(), secondRequest.getLatestDropoffTime() };
 
-				switch (stop.getType()) {
-					case Pickup:
-						double maximumPickupTime = stop.getRequest().getPlannedPickupTime();
-						double calculatedPickupTime = stop.getTime();
+		double[][] travelTimes = new double[4][4];
 
-						if (calculatedPickupTime > maximumPickupTime) {
-							isValid = false;
-						}
+		if (travelTimeBound.isEnabled()) {
+			for (int i = 0; i < 4; i++) {
+				for (int j = i + 1; j < 4; j++) {
+					travelTimes[i][j] = travelTimeBound.getTravelTime(links[i], links[j]);
+					travelTimes[j][i] = travelTimes[i][j];
+				}
+			}
+		}
 
-						break;
-					case Dropoff:
-						double maximumDropoffTime = stop.getRequest().getLatestDropoffTime();
-						double calculatedDropoffTime = stop.getTime();
+		for (int[] ordering : SHAREABILITY_ORDERINGS) {
+			double time = now;
+			boolean isValid = true;
 
-						if (calculatedDropoffTime > maximumDropoffTime) {
-							isValid = false;
-						}
+			for (int k = 0; k < ordering.length && isValid; k++) {
+				int stop = ordering[k];
 
-						break;
-					default:
-						throw new IllegalStateException();
+				if (k > 0) {
+					time += travelTimes[ordering[k - 1]][stop];
 				}
-			}
 
-			if (isValid && generator.isComplete()) {
-				return true;
+				time = Math.max(time, earliestTimes[stop]);
+				isValid = time <= latestTimes[stop];
 			}
 
 			if (isValid) {
-				generator.advance();
-			} else {
-				generator.abort();
+				return true;
 			}
 		}
 
@@ -152,6 +188,28 @@ public class DefaultAlonsoMoraFunction implements AlonsoMoraFunction {
 	@Override
 	public Optional<Result> calculateRoute(Collection<AlonsoMoraRequest> requests, AlonsoMoraVehicle vehicle,
 			double now) {
+		return calculateRoute(requests, vehicle, now, null);
+	}
+
+	/**
+	 * Finds a minimum cost stop sequence for the vehicle and the given requests.
+	 * If a hint is given, which contains the best sequence for all but one of the
+	 * requests, all insertions of the remaining request into that sequence are
+	 * evaluated first (see {@link SeededSequenceGenerator}). The best of them is
+	 * then used as the initial bound of the search. This is only done if the
+	 * objective never decreases along a sequence and the generator only discards
+	 * the extensions of an aborted sequence, because only then the tighter bound
+	 * does not change the route that is found.
+	 * 
+	 * If a parallel search threshold is configured and the number of sequences
+	 * for the vehicle exceeds it, the branches of the search are explored in
+	 * parallel (see {@link RouteSearch}) instead, so that a single large route
+	 * evaluation can make use of idle threads. The same conditions as for the
+	 * hint apply, so the route is the same as for the sequential search.
+	 */
+	@Override
+	public Optional<Result> calculateRoute(Collection<AlonsoMoraRequest> requests, AlonsoMoraVehicle vehicle,
+			double now, Result hint) {
 		Collection<AlonsoMoraRequest> onboardRequests = vehicle.getOnboardRequests();
 
 		if (requests.size() == 0 && onboardRequests.size() == 0) {
@@ -162,7 +220,9 @@ public class DefaultAlonsoMoraFunction implements AlonsoMoraFunction {
 			return Optional.of(new Result(0.0, Collections.emptyList()));
 		}
 
-		boolean onlyDropoff = requests.size() == 0;
+		if (isSmallTrip(requests, vehicle, onboardRequests)) {
+			return smallTripSearch.get().calculateRoute(requests, vehicle, now);
+		}
 
 		/*
 		 * Update the *required* pickup and dropoff times (see Hörl and Zwick, TRB
@@ -174,209 +234,749 @@ public class DefaultAlonsoMoraFunction implements AlonsoMoraFunction {
 		 * Note that this assumes that the timing along the stops is updated with
 		 * current traffic conditions *before* this function is called! This is done in
 		 * AlonsoMoraAlgorithm when initializing the vehicle graphs.
+		 * 
+		 * The required times, as well as all other per-request and per-stop values
+		 * below, are kept in the arrays of the per-thread RouteSearchState.
 		 */
 
-		Map<AlonsoMoraRequest, Double> requiredPickupTimes = new HashMap<>();
-		Map<AlonsoMoraRequest, Double> requiredDropoffTimes = new HashMap<>();
+		RouteSearchState state = routeSearchState.get();
+		state.prepare(onboardRequests, requests);
 
 		// Technically, find the maximum value between the current estimate and the
 		// constraint value in case we make use of the respective fix.
 
-		for (int i = 0; i < vehicle.getRoute().size(); i++) {
-			AlonsoMoraStop stop = vehicle.getRoute().get(i);
-			AlonsoMoraRequest request = stop.getRequest();
+		for (AlonsoMoraStop stop : vehicle.getRoute()) {
+			int index = state.indexOf(stop.getRequest());
 
-			if (stop.getType().equals(StopType.Pickup)) {
-				if (allowPickupViolations) {
-					requiredPickupTimes.put(stop.getRequest(),
-							Math.max(stop.getTime(), request.getPlannedPickupTime()));
-				}
-			} else if (stop.getType().equals(StopType.Dropoff)) {
-				if (allowPickupsWithDropoffViolations) {
-					requiredDropoffTimes.put(stop.getRequest(),
-							Math.max(stop.getTime(), request.getLatestDropoffTime()));
+			if (index >= 0) {
+				AlonsoMoraRequest request = stop.getRequest();
+
+				if (stop.getType().equals(StopType.Pickup)) {
+					if (allowPickupViolations) {
+						state.requiredPickupTimes[index] = Math.max(stop.getTime(), request.getPlannedPickupTime());
+					}
+				} else if (stop.getType().equals(StopType.Dropoff)) {
+					if (allowPickupsWithDropoffViolations) {
+						state.requiredDropoffTimes[index] = Math.max(stop.getTime(), request.getLatestDropoffTime());
+					}
 				}
 			}
 		}
 
-		// For requests which are not assigned to the vehicle, consider the general
-		// constraint values of the request.
+		// Set up the sequence generator
+		SequenceGenerator generator = generatorFactory.createGenerator(vehicle, onboardRequests, requests, now);
+		RouteSearch search = new RouteSearch(vehicle, onboardRequests, requests, now);
 
-		for (AlonsoMoraRequest request : requests) {
-			requiredPickupTimes.computeIfAbsent(request, r -> r.getPlannedPickupTime());
-			requiredDropoffTimes.computeIfAbsent(request, r -> r.getLatestDropoffTime());
+		Best best;
+
+		if (useParallelSearch(vehicle, onboardRequests, requests)) {
+			best = search.runInParallel(state, generator);
+		} else {
+			if (hint != null && !preferNonViolation && useCompletionBound()
+					&& generatorFactory.isAbortLocal(vehicle, onboardRequests, requests)) {
+				generator = createSeededGenerator(state, hint, generator);
+			}
+
+			best = search.run(generator, state, null, null);
 		}
 
-		for (AlonsoMoraRequest request : onboardRequests) {
-			requiredPickupTimes.computeIfAbsent(request, r -> r.getPlannedPickupTime());
-			requiredDropoffTimes.computeIfAbsent(request, r -> r.getLatestDropoffTime());
+		state.clear();
+
+		if (best.solution == null) {
+			return Optional.empty();
 		}
 
-		// Set up the sequence generator
-		LinkTimePair diversion = vehicle.getNextDiversion(now);
-		SequenceGenerator generator = generatorFactory.createGenerator(vehicle, onboardRequests, requests, now);
+		if (checkDeterminsticTravelTimes) {
+			Verify.verify(!best.hasViolations,
+					"Checking for determinstic travel times. In that case, no volutions with violations should be found as best.");
+		}
 
-		// Set up the timing and occupancy tracker
-		DvrpLoad startLoad = onboardRequests.stream() //
-				.map(AlonsoMoraRequest::getDrtRequest) //
-				.map(DrtRequest::getLoad) //
-				.reduce(emptyLoad, DvrpLoad::add);
+		return Optional.of(best.solution);
+	}
 
-		RouteTracker tracker = new RouteTracker(vehicle, travelTimeEstimator, stopDurationProvider, vehicleStopDuration,
-				startLoad, diversion.time,
-				Optional.of(diversion.link), requiredPickupTimes, requiredDropoffTimes);
+	/**
+	 * The search is split into parallel subtasks if the number of complete
+	 * sequences, which is (d + 2r)! / 2^r for d onboard requests and r new
+	 * requests, exceeds the configured threshold. The bound that is shared among
+	 * the subtasks only keeps the result of the sequential search if it cannot
+	 * change the route (see the hint in
+	 * {@link #calculateRoute(Collection, AlonsoMoraVehicle, double, Result)}).
+	 * The preference for solutions without violations depends on the order in
+	 * which solutions are found, so it is always searched sequentially in that
+	 * case.
+	 */
+	private boolean useParallelSearch(AlonsoMoraVehicle vehicle, Collection<AlonsoMoraRequest> onboardRequests,
+			Collection<AlonsoMoraRequest> requests) {
+		if (parallelSearchThreshold == 0 || preferNonViolation || !useCompletionBound()
+				|| !generatorFactory.isAbortLocal(vehicle, onboardRequests, requests)) {
+			return false;
+		}
 
-		tracker.setDrivingState(vehicle);
+		double numberOfSequences = 1.0;
+		int numberOfStops = onboardRequests.size() + 2 * requests.size();
 
-		// Set up tracking of best solution
-		List<AlonsoMoraStop> bestSolution = null;
-		double bestObjective = Double.POSITIVE_INFINITY;
-		boolean bestHasViolations = true;
+		for (int k = 2; k <= numberOfStops; k++) {
+			numberOfSequences *= k;
+		}
 
-		// Track violations
-		LinkedList<Double> violations = new LinkedList<>();
+		numberOfSequences /= Math.pow(2.0, requests.size());
+		return numberOfSequences > parallelSearchThreshold;
+	}
 
-		// Start looping through the proposed sequences
-		while (generator.hasNext()) {
-			List<AlonsoMoraStop> stops = generator.get();
-			int startIndex = tracker.update(stops);
+	/**
+	 * Best solution of a (partial) route search.
+	 */
+	private static class Best {
+		Result solution = null;
+		double objective = Double.POSITIVE_INFINITY;
+		boolean hasViolations = true;
+	}
 
-			while (violations.size() > startIndex) {
-				violations.removeLast();
+	/**
+	 * Search for the best route of one call of
+	 * {@link DefaultAlonsoMoraFunction#calculateRoute(Collection, AlonsoMoraVehicle, double, Result)}.
+	 * 
+	 * The search either runs through all sequences of the generator, or it is
+	 * split by the first stop of the sequences. In the latter case, each branch is
+	 * explored by a fork-join subtask with its own generator, which is moved to
+	 * the branch by skipping the preceding ones, and its own state. The best
+	 * objective found so far is shared among the subtasks, so that each of them
+	 * can discard sequences that are worse than a solution found in another
+	 * branch. Sequences that are as good as the shared bound are still evaluated,
+	 * so each branch finds the last of its best sequences, like the sequential
+	 * search does.
+	 */
+	private class RouteSearch {
+		private final AlonsoMoraVehicle vehicle;
+		private final Collection<AlonsoMoraRequest> onboardRequests;
+		private final Collection<AlonsoMoraRequest> requests;
+		private final double now;
+
+		private final boolean onlyDropoff;
+		private final LinkTimePair diversion;
+		private final DvrpLoad startLoad;
+
+		private final DvrpLoad vehicleCapacity;
+		private final double serviceEndTime;
+
+		// The default objective and the lower bound for completing partial sequences
+		// are calculated incrementally along the stops
+		private final boolean useRunningObjective;
+		private final boolean useCompletionBound;
+
+		RouteSearch(AlonsoMoraVehicle vehicle, Collection<AlonsoMoraRequest> onboardRequests,
+				Collection<AlonsoMoraRequest> requests, double now) {
+			this.vehicle = vehicle;
+			this.onboardRequests = onboardRequests;
+			this.requests = requests;
+			this.now = now;
+
+			this.onlyDropoff = requests.size() == 0;
+			this.diversion = vehicle.getNextDiversion(now);
+
+			DvrpLoad startLoad = emptyLoad;
+
+			for (AlonsoMoraRequest request : onboardRequests) {
+				startLoad = startLoad.add(request.getDrtRequest().getLoad());
 			}
 
-			// Assume the sequence is valid in the beginning
-			boolean isValid = true;
+			this.startLoad = startLoad;
 
-			// Check constraints for updated part of the sequence
-			for (int i = startIndex; i < stops.size() && isValid; i++) {
-				AlonsoMoraStop stop = stops.get(i);
-				boolean isOnboard = onboardRequests.contains(stop.getRequest());
+			this.vehicleCapacity = vehicle.getVehicle().getCapacity();
+			this.serviceEndTime = vehicle.getVehicle().getServiceEndTime();
 
-				/*
-				 * First, check pickup and dropoff time constraints.
-				 */
+			this.useRunningObjective = objective.getClass() == MinimumDelay.class;
+			this.useCompletionBound = useCompletionBound();
+		}
 
-				switch (stop.getType()) {
-					case Pickup:
-						Verify.verify(!isOnboard, "Cannot pick up onboard requests");
+		/**
+		 * Explores the top-level branches of the generator in parallel. If the
+		 * generator does not support skipping or only proposes one branch, the search
+		 * is run sequentially.
+		 */
+		Best runInParallel(RouteSearchState state, SequenceGenerator generator) {
+			int numberOfBranches = 0;
 
-						double requiredPickupTime = requiredPickupTimes.get(stop.getRequest());
-						double calculatedPickupTime = stop.getTime();
+			while (generator.hasNext()) {
+				numberOfBranches++;
 
-						if (calculatedPickupTime > requiredPickupTime) {
-							// Too late for pickup! Can never happen if vehicle is already assigned to the
-							// request and pickup violations are allowed.
-							isValid = false;
-						}
+				if (!generator.skip()) {
+					numberOfBranches = 0;
+					break;
+				}
+			}
+
+			if (numberOfBranches < 2) {
+				return run(generatorFactory.createGenerator(vehicle, onboardRequests, requests, now), state, null,
+						null);
+			}
+
+			AtomicLong sharedObjective = new AtomicLong(Double.doubleToLongBits(Double.POSITIVE_INFINITY));
+			List<ForkJoinTask<Best>> tasks = new ArrayList<>(numberOfBranches);
+
+			for (int branch = 0; branch < numberOfBranches; branch++) {
+				// The state of this thread may be used by other searches while waiting for
+				// the subtasks, so each of them obtains its own copy
+				RouteSearchState branchState = new RouteSearchState();
+				branchState.prepare(onboardRequests, requests);
+				branchState.copyRequiredTimes(state);
 
-						violations.add(Math.max(0, calculatedPickupTime - stop.getRequest().getPlannedPickupTime())
-								* stop.getRequest().getItems());
+				int skippedBranches = branch;
 
-						break;
-					case Dropoff:
-						double requiredDropoffTime = requiredDropoffTimes.get(stop.getRequest());
-						double calculatedDropoffTime = stop.getTime();
+				tasks.add(ForkJoinTask.adapt(() -> {
+					SequenceGenerator branchGenerator = generatorFactory.createGenerator(vehicle, onboardRequests,
+							requests, now);
 
-						if (calculatedDropoffTime > requiredDropoffTime) {
-							// Too late for dropoff! Can never happen if vehicle is already assigned to the
-							// request and dropoff violations are allowed. Furthermore,
+					for (int k = 0; k < skippedBranches && branchGenerator.hasNext(); k++) {
+						branchGenerator.skip();
+					}
 
-							if (!onlyDropoff) {
-								// However, constraint can only be enforced when there are pickups. If we have
-								// only dropoffs we need to get rid of the passengers in any case.
+					if (!branchGenerator.hasNext()) {
+						return new Best();
+					}
+
+					AlonsoMoraStop branchStop = branchGenerator.get().get(0);
+					Best branchBest = run(branchGenerator, branchState, branchStop, sharedObjective);
+					branchState.clear();
+
+					return branchBest;
+				}));
+			}
+
+			Best best = new Best();
+
+			for (ForkJoinTask<Best> task : ForkJoinTask.invokeAll(tasks)) {
+				Best branchBest = task.join();
+
+				// Like in the sequential search, ties are resolved in favour of the last branch
+				if (branchBest.solution != null && branchBest.objective <= best.objective) {
+					best = branchBest;
+				}
+			}
+
+			return best;
+		}
+
+		/**
+		 * Runs through the sequences of the generator. If a branch stop is given, the
+		 * search ends once the generator proposes a sequence that does not start with
+		 * it. If a shared objective is given, sequences that are worse than the
+		 * objective are discarded and better solutions are published to it.
+		 */
+		Best run(SequenceGenerator generator, RouteSearchState state, AlonsoMoraStop branchStop,
+				AtomicLong sharedObjective) {
+			// Set up the timing and occupancy tracker
+			RouteTracker tracker = new RouteTracker(vehicle, travelTimeEstimator, stopDurationProvider,
+					vehicleStopDuration, startLoad, diversion.time, Optional.of(diversion.link),
+					state.requiredPickupTimeFunction, state.requiredDropoffTimeFunction);
+
+			tracker.setDrivingState(vehicle);
+
+			// Set up tracking of best solution
+			Best best = new Best();
+
+			// Track violations as running sums along the stops
+			int numberOfViolations = 0;
+
+			// Start looping through the proposed sequences
+			while (generator.hasNext()) {
+				List<AlonsoMoraStop> stops = generator.get();
+
+				if (branchStop != null && stops.get(0) != branchStop) {
+					break;
+				}
+
+				int startIndex = tracker.update(stops);
+
+				numberOfViolations = Math.min(numberOfViolations, startIndex);
+
+				// Assume the sequence is valid in the beginning
+				boolean isValid = true;
+
+				// Check constraints for updated part of the sequence
+				for (int i = startIndex; i < stops.size() && isValid; i++) {
+					AlonsoMoraStop stop = stops.get(i);
+					AlonsoMoraRequest request = stop.getRequest();
+					int index = state.indexOf(request);
+
+					double violation;
+
+					/*
+					 * First, check pickup and dropoff time constraints.
+					 */
+
+					switch (stop.getType()) {
+						case Pickup:
+							Verify.verify(!state.isOnboard[index], "Cannot pick up onboard requests");
+
+							double requiredPickupTime = state.requiredPickupTimes[index];
+							double calculatedPickupTime = stop.getTime();
+
+							if (calculatedPickupTime > requiredPickupTime) {
+								// Too late for pickup! Can never happen if vehicle is already assigned to the
+								// request and pickup violations are allowed.
 								isValid = false;
 							}
-						}
 
-						violations.add(Math.max(0, calculatedDropoffTime - stop.getRequest().getLatestDropoffTime())
-								* stop.getRequest().getItems());
+							violation = Math.max(0, calculatedPickupTime - request.getPlannedPickupTime())
+									* request.getItems();
+
+							break;
+						case Dropoff:
+							double requiredDropoffTime = state.requiredDropoffTimes[index];
+							double calculatedDropoffTime = stop.getTime();
+
+							if (calculatedDropoffTime > requiredDropoffTime) {
+								// Too late for dropoff! Can never happen if vehicle is already assigned to the
+								// request and dropoff violations are allowed. Furthermore,
+
+								if (!onlyDropoff) {
+									// However, constraint can only be enforced when there are pickups. If we have
+									// only dropoffs we need to get rid of the passengers in any case.
+									isValid = false;
+								}
+							}
+
+							violation = Math.max(0, calculatedDropoffTime - request.getLatestDropoffTime())
+									* request.getItems();
+
+							break;
+						default:
+							throw new IllegalStateException();
+					}
+
+					state.violationSums[numberOfViolations] = numberOfViolations > 0
+							? state.violationSums[numberOfViolations - 1] + violation
+							: violation;
+					numberOfViolations++;
+
+					/*
+					 * Second, check occupancy constraint.
+					 */
+
+					if (!tracker.getOccupancyAfter(i).fitsIn(vehicleCapacity)) {
+						// Not a valid solution because we exceed vehicle capacity.
+						isValid = false;
+					}
+				}
+
+				// Check additional constraint
+				double constraintViolations = 0.0;
+
+				if (isValid) {
+					constraintViolations = constraint.checkAssignment(vehicle, onboardRequests, stops, now,
+							generator.isComplete(), tracker);
+					isValid &= constraintViolations == 0.0 || onlyDropoff;
+				}
+
+				// Calculate objective of the partial sequence
+				double partialObjective;
+
+				if (useRunningObjective) {
+					partialObjective = state.updateObjective(stops, startIndex);
+				} else {
+					partialObjective = objective.calculateObjective(vehicle, requests, stops, now, tracker);
+				}
+
+				double totalViolations = numberOfViolations > 0 ? state.violationSums[numberOfViolations - 1] : 0.0;
+				totalViolations += constraintViolations;
+
+				if (totalViolations > 0.0) {
+					// Add factor-based penalty to the objective and constant offset
+					partialObjective += totalViolations * violationFactor;
+					partialObjective += violationOffset;
+				}
+
+				boolean hasViolations = totalViolations > 0.0;
+
+				// Best objective found by this or, if shared, any other search
+				double bestObjective = best.objective;
+
+				if (sharedObjective != null) {
+					bestObjective = Math.min(bestObjective, Double.longBitsToDouble(sharedObjective.get()));
+				}
+
+				if (partialObjective > bestObjective) {
+					boolean initiallyValid = isValid;
+					isValid = false; // Per default invalid because worse than the one we know
 
-						break;
-					default:
-						throw new IllegalStateException();
+					if (initiallyValid && preferNonViolation && best.hasViolations && !hasViolations) {
+						isValid = true; // Special case: We prefer non-violating solutions even if objective is worse
+					}
 				}
 
-				/*
-				 * Second, check occupancy constraint.
-				 */
+				if (isValid && !onlyDropoff) {
+					double lastDepartureTime = tracker.getDepartureTime(stops.size() - 1);
 
-				if (!tracker.getOccupancyAfter(i).fitsIn(vehicle.getVehicle().getCapacity())) {
-					// Not a valid solution because we exceed vehicle capacity.
-					isValid = false;
+					if (lastDepartureTime > serviceEndTime) {
+						// We exceed the service time of the vehicle
+						isValid = false;
+					}
+				}
+
+				// Controlling the sequence generator ...
+
+				if (isValid) {
+					if (generator.isComplete()) {
+						// We found a new solution that is better than the old one (see objective
+						// constraint above)
+						best.objective = partialObjective;
+						best.solution = Result.compact(partialObjective, stops);
+						best.hasViolations = hasViolations;
+
+						bestObjective = partialObjective;
+
+						if (sharedObjective != null) {
+							long objectiveBits = Double.doubleToLongBits(partialObjective);
+							sharedObjective.accumulateAndGet(objectiveBits,
+									(a, b) -> Double.longBitsToDouble(a) <= Double.longBitsToDouble(b) ? a : b);
+						}
+					}
+
+					if (useCompletionBound && !generator.isComplete() && Double.isFinite(bestObjective)
+							&& !(preferNonViolation && best.hasViolations)) {
+						/*
+						 * No extension of this sequence can be better than the best one found so far
+						 * if the lower bound for the remaining dropoffs already exceeds it. In that
+						 * case, the extensions are skipped, but not the alternatives to this sequence.
+						 * The tolerance makes sure that rounding does not lead to pruning sequences
+						 * that would have been accepted.
+						 */
+						double lowerBound = partialObjective + state.calculateCompletionBound(stops, tracker);
+						double tolerance = COMPLETION_BOUND_TOLERANCE * Math.max(1.0, Math.abs(bestObjective));
+
+						if (lowerBound > bestObjective + tolerance && generator.skip()) {
+							continue;
+						}
+					}
+
+					// ... accept this sequence and expand.
+					generator.advance();
+				} else {
+					// ... stop exploring this sequence.
+					generator.abort();
 				}
 			}
 
-			// Check additional constraint
-			double constraintViolations = 0.0;
+			return best;
+		}
+	}
 
-			if (isValid) {
-				constraintViolations = constraint.checkAssignment(vehicle, onboardRequests, stops, now,
-						generator.isComplete(), tracker);
-				isValid &= constraintViolations == 0.0 || onlyDropoff;
+	static private final double COMPLETION_BOUND_TOLERANCE = 1e-9;
+
+	/**
+	 * The completion bound is derived for the default objective. It requires that
+	 * the objective of a sequence never decreases when stops are added, which is
+	 * the case for the default constraint and non-negative violation penalties.
+	 */
+	private boolean useCompletionBound() {
+		return objective.getClass() == MinimumDelay.class && constraint instanceof NoopConstraint
+				&& violationFactor >= 0.0 && violationOffset >= 0.0;
+	}
+
+	/**
+	 * Wraps the generator so that it first proposes the insertions of the one
+	 * request that is not covered by the hint into the sequence of the hint. If
+	 * the hint does not consist of the pickups and dropoffs of all but one of the
+	 * requests, the generator is returned as it is.
+	 */
+	private SequenceGenerator createSeededGenerator(RouteSearchState state, Result hint,
+			SequenceGenerator generator) {
+		int[] numberOfPickups = new int[state.numberOfRequests];
+		int[] numberOfDropoffs = new int[state.numberOfRequests];
+
+		for (int i = 0; i < hint.getNumberOfStops(); i++) {
+			int index = state.indexOf(hint.getStopRequest(i));
+
+			if (index < 0) {
+				return generator;
 			}
 
-			// Calculate objective of the partial sequence
-			double partialObjective = objective.calculateObjective(vehicle, requests, stops, now, tracker);
+			switch (hint.getStopType(i)) {
+				case Pickup:
+					if (state.isOnboard[index]) {
+						return generator;
+					}
+
+					numberOfPickups[index]++;
+					break;
+				case Dropoff:
+					if (!state.isOnboard[index] && numberOfPickups[index] == 0) {
+						return generator;
+					}
+
+					numberOfDropoffs[index]++;
+					break;
+				default:
+					return generator;
+			}
+		}
 
-			double totalViolations = violations.stream().mapToDouble(d -> d).sum();
-			totalViolations += constraintViolations;
+		int missingIndex = -1;
 
-			if (totalViolations > 0.0) {
-				// Add factor-based penalty to the objective and constant offset
-				partialObjective += totalViolations * violationFactor;
-				partialObjective += violationOffset;
+		for (int index = 0; index < state.numberOfRequests; index++) {
+			if (state.isOnboard[index]) {
+				if (numberOfPickups[index] != 0 || numberOfDropoffs[index] != 1) {
+					return generator;
+				}
+			} else if (numberOfPickups[index] == 0 && numberOfDropoffs[index] == 0 && missingIndex == -1) {
+				missingIndex = index;
+			} else if (numberOfPickups[index] != 1 || numberOfDropoffs[index] != 1) {
+				return generator;
 			}
+		}
 
-			boolean hasViolations = totalViolations > 0.0;
+		if (missingIndex == -1) {
+			return generator;
+		}
 
-			if (partialObjective > bestObjective) {
-				boolean initiallyValid = isValid;
-				isValid = false; // Per default invalid because worse than the one we know
+		List<AlonsoMoraStop> baseStops = new ArrayList<>(hint.getNumberOfStops());
 
-				if (initiallyValid && preferNonViolation && bestHasViolations && !hasViolations) {
-					isValid = true; // Special case: We prefer non-violating solutions even if objective is worse
+		for (int i = 0; i < hint.getNumberOfStops(); i++) {
+			AlonsoMoraRequest request = hint.getStopRequest(i);
+
+			if (hint.getStopType(i).equals(StopType.Pickup)) {
+				baseStops.add(new AlonsoMoraStop(StopType.Pickup, request.getPickupLink(), request));
+			} else {
+				baseStops.add(new AlonsoMoraStop(StopType.Dropoff, request.getDropoffLink(), request));
+			}
+		}
+
+		AlonsoMoraRequest request = state.requests[missingIndex];
+
+		return new SeededSequenceGenerator(baseStops,
+				new AlonsoMoraStop(StopType.Pickup, request.getPickupLink(), request),
+				new AlonsoMoraStop(StopType.Dropoff, request.getDropoffLink(), request), generator);
+	}
+
+	/**
+	 * Per-thread state of the generic route search in
+	 * {@link DefaultAlonsoMoraFunction#calculateRoute(Collection, AlonsoMoraVehicle, double)}.
+	 * The onboard and new requests of a call are assigned to dense indices, and all
+	 * per-request and per-stop values are kept in primitive arrays that are reused
+	 * across calls, so that evaluating a sequence does not allocate any memory in
+	 * the function itself. Requests are looked up by a linear scan, which is fast
+	 * for the small number of requests that fit into a vehicle.
+	 * 
+	 * The state also provides the lower bound for the delay that is added to the
+	 * objective by the stops which are not part of a partial sequence yet. For each
+	 * request that is not dropped off yet, the dropoff cannot happen before the
+	 * arrival at the last stop of the partial sequence plus the lower bound of the
+	 * travel time to the dropoff, via the pickup if the request has not been picked
+	 * up yet. If the pickup is on a different link than the dropoff, the dropoff
+	 * furthermore cannot happen before the earliest pickup time plus the travel
+	 * time between the two. All travel times are bounded by the
+	 * {@link TravelTimeLowerBound}, or are zero if it is disabled. Stops are
+	 * identified by codes, with 2r for the pickup and 2r + 1 for the dropoff of the
+	 * r-th request.
+	 */
+	private class RouteSearchState {
+		private int numberOfRequests;
+		private AlonsoMoraRequest[] requests = new AlonsoMoraRequest[0];
+
+		private boolean[] isOnboard = new boolean[0];
+		private double[] requiredPickupTimes = new double[0];
+		private double[] requiredDropoffTimes = new double[0];
+
+		private double[] violationSums = new double[0];
+		private double[] objectiveSums = new double[0];
+
+		private boolean[] isPickedUp = new boolean[0];
+		private boolean[] isDroppedOff = new boolean[0];
+		private Link[] links = new Link[0];
+		private double[] travelTimes = new double[0];
+
+		final ToDoubleFunction<AlonsoMoraRequest> requiredPickupTimeFunction = request -> {
+			int index = indexOf(request);
+			return index >= 0 ? requiredPickupTimes[index] : Double.POSITIVE_INFINITY;
+		};
+
+		final ToDoubleFunction<AlonsoMoraRequest> requiredDropoffTimeFunction = request -> {
+			int index = indexOf(request);
+			return index >= 0 ? requiredDropoffTimes[index] : Double.POSITIVE_INFINITY;
+		};
+
+		/**
+		 * Takes over the required pickup and dropoff times from a state that has been
+		 * prepared for the same requests.
+		 */
+		void copyRequiredTimes(RouteSearchState other) {
+			System.arraycopy(other.requiredPickupTimes, 0, requiredPickupTimes, 0, numberOfRequests);
+			System.arraycopy(other.requiredDropoffTimes, 0, requiredDropoffTimes, 0, numberOfRequests);
+		}
+
+		void prepare(Collection<AlonsoMoraRequest> onboardRequests, Collection<AlonsoMoraRequest> requests) {
+			numberOfRequests = onboardRequests.size() + requests.size();
+			int numberOfStops = 2 * numberOfRequests;
+
+			if (this.requests.length < numberOfRequests) {
+				this.requests = new AlonsoMoraRequest[numberOfRequests];
+				isOnboard = new boolean[numberOfRequests];
+				requiredPickupTimes = new double[numberOfRequests];
+				requiredDropoffTimes = new double[numberOfRequests];
+				isPickedUp = new boolean[numberOfRequests];
+				isDroppedOff = new boolean[numberOfRequests];
+
+				violationSums = new double[numberOfStops];
+				objectiveSums = new double[numberOfStops];
+				links = new Link[numberOfStops];
+				travelTimes = new double[numberOfStops * numberOfStops];
+			}
+
+			int index = 0;
+
+			for (AlonsoMoraRequest request : onboardRequests) {
+				this.requests[index] = request;
+				isOnboard[index++] = true;
+			}
+
+			for (AlonsoMoraRequest request : requests) {
+				this.requests[index] = request;
+				isOnboard[index++] = false;
+			}
+
+			for (index = 0; index < numberOfRequests; index++) {
+				AlonsoMoraRequest request = this.requests[index];
+
+				// For requests which are not assigned to the vehicle, consider the general
+				// constraint values of the request.
+				requiredPickupTimes[index] = request.getPlannedPickupTime();
+				requiredDropoffTimes[index] = request.getLatestDropoffTime();
+
+				links[2 * index] = request.getPickupLink();
+				links[2 * index + 1] = request.getDropoffLink();
+			}
+
+			// Travel time bounds are calculated on demand
+			Arrays.fill(travelTimes, 0, numberOfStops * numberOfStops, Double.NaN);
+		}
+
+		int indexOf(AlonsoMoraRequest request) {
+			for (int index = 0; index < numberOfRequests; index++) {
+				if (requests[index] == request) {
+					return index;
 				}
 			}
 
-			if (isValid && !onlyDropoff) {
-				double lastDepartureTime = tracker.getDepartureTime(stops.size() - 1);
+			return -1;
+		}
+
+		/**
+		 * Updates the objective of the default {@link MinimumDelay} along the stops
+		 * that have changed. The values are summed up in the same order as in the
+		 * objective, so the results are identical.
+		 */
+		double updateObjective(List<AlonsoMoraStop> stops, int startIndex) {
+			for (int i = startIndex; i < stops.size(); i++) {
+				AlonsoMoraStop stop = stops.get(i);
+				double objective = i > 0 ? objectiveSums[i - 1] : 0.0;
 
-				if (lastDepartureTime > vehicle.getVehicle().getServiceEndTime()) {
-					// We exceed the service time of the vehicle
-					isValid = false;
+				if (stop.getType().equals(StopType.Dropoff)) {
+					double calculatedDropoffTime = stop.getTime();
+					double directDropoffTime = stop.getRequest().getDirectArivalTime();
+					double delay = Math.max(0.0, calculatedDropoffTime - directDropoffTime);
+					objective += stop.getRequest().getItems() * delay;
 				}
+
+				objectiveSums[i] = objective;
 			}
 
-			// Controlling the sequence generator ...
+			return objectiveSums[stops.size() - 1];
+		}
 
-			if (isValid) {
-				if (generator.isComplete()) {
-					// We found a new solution that is better than the old one (see objective
-					// constraint above)
-					bestSolution = copySolution(stops);
-					bestObjective = partialObjective;
-					bestHasViolations = hasViolations;
+		private double getTravelTime(int fromStop, int toStop) {
+			if (!travelTimeBound.isEnabled()) {
+				return 0.0;
+			}
+
+			int entry = fromStop * 2 * numberOfRequests + toStop;
+			double travelTime = travelTimes[entry];
+
+			if (Double.isNaN(travelTime)) {
+				travelTime = travelTimeBound.getTravelTime(links[fromStop], links[toStop]);
+				travelTimes[entry] = travelTime;
+			}
+
+			return travelTime;
+		}
+
+		double calculateCompletionBound(List<AlonsoMoraStop> stops, RouteTracker tracker) {
+			System.arraycopy(isOnboard, 0, isPickedUp, 0, numberOfRequests);
+			Arrays.fill(isDroppedOff, 0, numberOfRequests, false);
+
+			int lastStop = -1;
+
+			for (AlonsoMoraStop stop : stops) {
+				int index = indexOf(stop.getRequest());
+
+				if (stop.getType().equals(StopType.Pickup)) {
+					isPickedUp[index] = true;
+					lastStop = 2 * index;
+				} else {
+					isDroppedOff[index] = true;
+					lastStop = 2 * index + 1;
 				}
+			}
 
-				// ... accept this sequence and expand.
-				generator.advance();
-			} else {
-				// ... stop exploring this sequence.
-				generator.abort();
+			double arrivalTime = tracker.getArrivalTime(stops.size() - 1);
+			double bound = 0.0;
+
+			for (int index = 0; index < numberOfRequests; index++) {
+				if (!isDroppedOff[index]) {
+					AlonsoMoraRequest request = requests[index];
+
+					int pickupStop = 2 * index;
+					int dropoffStop = 2 * index + 1;
+
+					double dropoffTime;
+
+					if (isPickedUp[index]) {
+						dropoffTime = arrivalTime + getTravelTime(lastStop, dropoffStop);
+					} else {
+						double pickupTime = arrivalTime + getTravelTime(lastStop, pickupStop);
+
+						if (links[pickupStop] != links[dropoffStop]) {
+							pickupTime = Math.max(pickupTime, request.getEarliestPickupTime());
+						}
+
+						dropoffTime = pickupTime + getTravelTime(pickupStop, dropoffStop);
+					}
+
+					bound += request.getItems() * Math.max(0.0, dropoffTime - request.getDirectArivalTime());
+				}
 			}
+
+			return bound;
 		}
 
-		if (bestSolution == null) {
-			return Optional.empty();
+		/**
+		 * Releases the references to requests and links after a call.
+		 */
+		void clear() {
+			Arrays.fill(requests, 0, numberOfRequests, null);
+			Arrays.fill(links, 0, 2 * numberOfRequests, null);
+			numberOfRequests = 0;
 		}
+	}
 
-		if (checkDeterminsticTravelTimes) {
-			Verify.verify(!bestHasViolations,
-					"Checking for determinstic travel times. In that case, no volutions with violations should be found as best.");
+	/**
+	 * Small trips of an empty vehicle are evaluated by a specialised search (see
+	 * {@link SmallTripSearch}). This is possible for a single request, for which
+	 * there is only one sequence, and for two requests if the configured generator
+	 * would propose all orderings anyway. The specialised search covers the default
+	 * objective and constraint, other implementations require the generic path.
+	 */
+	private boolean isSmallTrip(Collection<AlonsoMoraRequest> requests, AlonsoMoraVehicle vehicle,
+			Collection<AlonsoMoraRequest> onboardRequests) {
+		if (onboardRequests.size() > 0 || requests.size() == 0 || requests.size() > 2) {
+			return false;
+		}
+
+		if (objective.getClass() != MinimumDelay.class || !(constraint instanceof NoopConstraint)) {
+			return false;
 		}
 
-		return Optional.of(new Result(bestObjective, bestSolution));
+		return requests.size() == 1 || generatorFactory.isExhaustive(vehicle, onboardRequests, requests);
 	}
 
 	/**
@@ -416,6 +1016,344 @@ public class DefaultAlonsoMoraFunction implements AlonsoMoraFunction {
 		return Optional.of(arrivalTime);
 	}
 
+	/**
+	 * Evaluates all orderings of the stops of one or two requests for an empty
+	 * vehicle (or a virtual vehicle in the shareability check). The calculations
+	 * are the same as in the {@link RouteTracker}, the generic loop in
+	 * {@link DefaultAlonsoMoraFunction#calculateRoute(Collection, AlonsoMoraVehicle, double)}
+	 * and {@link MinimumDelay}, but they are performed on primitive state. The
+	 * orderings are traversed depth-first in the same order and with the same
+	 * pruning as in the {@link ExtensiveSequenceGenerator}, so the results are
+	 * identical to the generic path.
+	 * 
+	 * Stops are encoded as 2 * r for the pickup and 2 * r + 1 for the dropoff of
+	 * request r. One instance is kept per thread and reused for all calls.
+	 */
+	private final class SmallTripSearch {
+		private final AlonsoMoraRequest[] requests = new AlonsoMoraRequest[2];
+		private int numberOfStops;
+
+		// Per stop
+		private final Link[] links = new Link[4];
+		private final double[] earliestTimes = new double[4];
+		private final double[] requiredTimes = new double[4];
+		private final double[] constraintTimes = new double[4];
+		private final double[] stopDurations = new double[4];
+
+		// Per occupancy state (bit mask of requests on board)
+		private final boolean[] fitsCapacity = new boolean[4];
+
+		// Setup of the vehicle
+		private Link initialLink;
+		private double initialDepartureTime;
+		private boolean isCurrentlyDriving;
+		private boolean needsDrivingModeSwitch;
+		private double serviceEndTime;
+		private boolean isFeasibilityCheck;
+
+		// Per position along the sequence
+		private final int[] sequence = new int[4];
+		private final double[] arrivalTimes = new double[4];
+		private final double[] departureTimes = new double[4];
+		private final double[] stopTimes = new double[4];
+		private final double[] objectives = new double[4];
+		private final double[] violations = new double[4];
+
+		// Best solution
+		private final int[] bestSequence = new int[4];
+		private final double[] bestStopTimes = new double[4];
+		private boolean hasBest;
+		private double bestObjective;
+		private boolean bestHasViolations;
+
+		boolean checkShareability(AlonsoMoraRequest firstRequest, AlonsoMoraRequest secondRequest, double now) {
+			setRequest(0, firstRequest, null, firstRequest.getPlannedPickupTime(),
+					firstRequest.getLatestDropoffTime());
+			setRequest(1, secondRequest, null, secondRequest.getPlannedPickupTime(),
+					secondRequest.getLatestDropoffTime());
+			numberOfStops = 4;
+
+			initialLink = null; // start at the first stop
+			initialDepartureTime = now;
+			isCurrentlyDriving = false;
+			needsDrivingModeSwitch = false;
+			isFeasibilityCheck = true;
+
+			boolean isShareable = search(0, 0, 0);
+
+			clear();
+			return isShareable;
+		}
+
+		Optional<Result> calculateRoute(Collection<AlonsoMoraRequest> requests, AlonsoMoraVehicle vehicle,
+				double now) {
+			int requestIndex = 0;
+
+			for (AlonsoMoraRequest request : requests) {
+				// Same logic as for the required times in the generic path
+				double requiredPickupTime = request.getPlannedPickupTime();
+				double requiredDropoffTime = request.getLatestDropoffTime();
+
+				for (AlonsoMoraStop stop : vehicle.getRoute()) {
+					if (stop.getType().equals(StopType.Pickup)) {
+						if (allowPickupViolations && request.equals(stop.getRequest())) {
+							requiredPickupTime = Math.max(stop.getTime(), request.getPlannedPickupTime());
+						}
+					} else if (stop.getType().equals(StopType.Dropoff)) {
+						if (allowPickupsWithDropoffViolations && request.equals(stop.getRequest())) {
+							requiredDropoffTime = Math.max(stop.getTime(), request.getLatestDropoffTime());
+						}
+					}
+				}
+
+				setRequest(requestIndex, request, vehicle, requiredPickupTime, requiredDropoffTime);
+				requestIndex++;
+			}
+
+			numberOfStops = 2 * requestIndex;
+
+			DvrpLoad capacity = vehicle.getVehicle().getCapacity();
+			DvrpLoad firstLoad = this.requests[0].getDrtRequest().getLoad();
+
+			fitsCapacity[0] = emptyLoad.fitsIn(capacity);
+			fitsCapacity[1] = emptyLoad.add(firstLoad).fitsIn(capacity);
+
+			if (requestIndex > 1) {
+				DvrpLoad secondLoad = this.requests[1].getDrtRequest().getLoad();
+				fitsCapacity[2] = emptyLoad.add(secondLoad).fitsIn(capacity);
+				fitsCapacity[3] = emptyLoad.add(firstLoad).add(secondLoad).fitsIn(capacity);
+			}
+
+			LinkTimePair diversion = vehicle.getNextDiversion(now);
+			initialLink = diversion.link;
+			initialDepartureTime = diversion.time;
+			isCurrentlyDriving = RouteTracker.isCurrentlyDriving(vehicle);
+			needsDrivingModeSwitch = RouteTracker.needsDrivingModeSwitch(vehicle);
+			serviceEndTime = vehicle.getVehicle().getServiceEndTime();
+			isFeasibilityCheck = false;
+
+			hasBest = false;
+			bestObjective = Double.POSITIVE_INFINITY;
+			bestHasViolations = true;
+
+			search(0, 0, 0);
+
+			if (!hasBest) {
+				clear();
+				return Optional.empty();
+			}
+
+			if (checkDeterminsticTravelTimes) {
+				Verify.verify(!bestHasViolations,
+						"Checking for determinstic travel times. In that case, no volutions with violations should be found as best.");
+			}
+
+			AlonsoMoraRequest[] stopRequests = new AlonsoMoraRequest[numberOfStops];
+			boolean[] stopIsDropoff = new boolean[numberOfStops];
+
+			for (int k = 0; k < numberOfStops; k++) {
+				int stop = bestSequence[k];
+				stopRequests[k] = this.requests[stop / 2];
+				stopIsDropoff[k] = !isPickup(stop);
+			}
+
+			Result result = new Result(bestObjective, stopRequests, stopIsDropoff,
+					Arrays.copyOf(bestStopTimes, numberOfStops));
+
+			clear();
+			return Optional.of(result);
+		}
+
+		/**
+		 * Releases the references to requests and links after a call.
+		 */
+		private void clear() {
+			Arrays.fill(requests, null);
+			Arrays.fill(links, null);
+			initialLink = null;
+		}
+
+		private void setRequest(int index, AlonsoMoraRequest request, AlonsoMoraVehicle vehicle,
+				double requiredPickupTime, double requiredDropoffTime) {
+			DvrpVehicle dvrpVehicle = vehicle == null ? null : vehicle.getVehicle();
+
+			int pickup = 2 * index;
+			int dropoff = pickup + 1;
+
+			requests[index] = request;
+
+			links[pickup] = request.getPickupLink();
+			earliestTimes[pickup] = request.getEarliestPickupTime();
+			requiredTimes[pickup] = requiredPickupTime;
+			constraintTimes[pickup] = request.getPlannedPickupTime();
+			stopDurations[pickup] = stopDurationProvider.calcPickupDuration(dvrpVehicle, request.getDrtRequest());
+
+			links[dropoff] = request.getDropoffLink();
+			earliestTimes[dropoff] = Double.NEGATIVE_INFINITY;
+			requiredTimes[dropoff] = requiredDropoffTime;
+			constraintTimes[dropoff] = request.getLatestDropoffTime();
+			stopDurations[dropoff] = stopDurationProvider.calcDropoffDuration(dvrpVehicle, request.getDrtRequest());
+		}
+
+		private boolean isPickup(int stop) {
+			return stop % 2 == 0;
+		}
+
+		/**
+		 * Expands the sequence at the given position. Returns true if the search can
+		 * be stopped (only in feasibility mode).
+		 */
+		private boolean search(int position, int visitedStops, int onboardRequests) {
+			for (int stop = 0; stop < numberOfStops; stop++) {
+				if ((visitedStops & (1 << stop)) != 0) {
+					continue; // already in the sequence
+				}
+
+				boolean isPickup = isPickup(stop);
+
+				if (!isPickup && (visitedStops & (1 << (stop - 1))) == 0) {
+					continue; // not picked up yet
+				}
+
+				sequence[position] = stop;
+				updateTiming(position);
+
+				int updatedOnboardRequests = onboardRequests ^ (1 << (stop / 2));
+				boolean isComplete = position == numberOfStops - 1;
+
+				boolean isValid = stopTimes[position] <= requiredTimes[stop];
+
+				if (isFeasibilityCheck) {
+					if (isValid && isComplete) {
+						return true;
+					}
+				} else {
+					isValid &= fitsCapacity[updatedOnboardRequests];
+					isValid = evaluate(position, stop, isValid, isComplete);
+				}
+
+				if (isValid && !isComplete) {
+					if (search(position + 1, visitedStops | (1 << stop), updatedOnboardRequests)) {
+						return true;
+					}
+				} else if (!isValid && position > 0) {
+					// Same as an abort in the generator, which continues with the next ordering at
+					// the previous position
+					return false;
+				}
+			}
+
+			return false;
+		}
+
+		/**
+		 * Same as {@link RouteTracker#update(List)} for one stop.
+		 */
+		private void updateTiming(int position) {
+			int stop = sequence[position];
+			boolean isPickup = isPickup(stop);
+
+			Link toLink = links[stop];
+			Link fromLink;
+			double departureTime;
+
+			if (position == 0) {
+				fromLink = initialLink == null ? toLink : initialLink;
+				departureTime = initialDepartureTime;
+			} else {
+				fromLink = links[sequence[position - 1]];
+				departureTime = departureTimes[position - 1];
+			}
+
+			if (fromLink != toLink || position == 0) {
+				double arrivalTime = travelTimeEstimator.estimateTravelTime(fromLink, toLink, departureTime,
+						requiredTimes[stop]) + departureTime;
+
+				if (position == 0) {
+					arrivalTime = RouteTracker.correctArrivalTime(arrivalTime, fromLink != toLink, isCurrentlyDriving,
+							needsDrivingModeSwitch);
+				}
+
+				double stopArrivalTime = isPickup ? Math.max(arrivalTime, earliestTimes[stop]) : arrivalTime;
+				double vehicleDepartureTime = stopArrivalTime + vehicleStopDuration;
+				double stopTime = stopArrivalTime + stopDurations[stop];
+
+				arrivalTimes[position] = stopArrivalTime;
+				departureTimes[position] = Math.max(stopTime, vehicleDepartureTime);
+				stopTimes[position] = stopTime;
+			} else {
+				// We don't move.
+				double stopArrivalTime = arrivalTimes[position - 1];
+				double vehicleDepartureTime = stopArrivalTime + vehicleStopDuration;
+				double stopDepartureTime = Math.max(departureTimes[position - 1], vehicleDepartureTime);
+
+				double passengerTime = isPickup ? Math.max(stopArrivalTime, earliestTimes[stop]) : stopArrivalTime;
+				double stopTime = passengerTime + stopDurations[stop];
+
+				arrivalTimes[position] = stopArrivalTime;
+				departureTimes[position] = Math.max(stopTime, stopDepartureTime);
+				stopTimes[position] = stopTime;
+			}
+		}
+
+		/**
+		 * Same as the objective, violation and service time logic of the generic path
+		 * for one stop. Returns whether the sequence should be expanded.
+		 */
+		private boolean evaluate(int position, int stop, boolean isValid, boolean isComplete) {
+			AlonsoMoraRequest request = requests[stop / 2];
+
+			double previousObjective = position == 0 ? 0.0 : objectives[position - 1];
+			double previousViolations = position == 0 ? 0.0 : violations[position - 1];
+
+			double objective = previousObjective;
+
+			if (!isPickup(stop)) {
+				double delay = Math.max(0.0, stopTimes[position] - request.getDirectArivalTime());
+				objective += request.getItems() * delay;
+			}
+
+			double totalViolations = previousViolations
+					+ Math.max(0, stopTimes[position] - constraintTimes[stop]) * request.getItems();
+
+			objectives[position] = objective;
+			violations[position] = totalViolations;
+
+			double partialObjective = objective;
+
+			if (totalViolations > 0.0) {
+				partialObjective += totalViolations * violationFactor;
+				partialObjective += violationOffset;
+			}
+
+			boolean hasViolations = totalViolations > 0.0;
+
+			if (partialObjective > bestObjective) {
+				boolean initiallyValid = isValid;
+				isValid = false;
+
+				if (initiallyValid && preferNonViolation && bestHasViolations && !hasViolations) {
+					isValid = true;
+				}
+			}
+
+			if (isValid && departureTimes[position] > serviceEndTime) {
+				isValid = false;
+			}
+
+			if (isValid && isComplete) {
+				System.arraycopy(sequence, 0, bestSequence, 0, numberOfStops);
+				System.arraycopy(stopTimes, 0, bestStopTimes, 0, numberOfStops);
+
+				hasBest = true;
+				bestObjective = partialObjective;
+				bestHasViolations = hasViolations;
+			}
+
+			return isValid;
+		}
+	}
+
 	public interface Objective {
 		double calculateObjective(AlonsoMoraVehicle vehicle, Collection<AlonsoMoraRequest> requests,
 				List<AlonsoMoraStop> stops, double now, RouteTracker tracker);
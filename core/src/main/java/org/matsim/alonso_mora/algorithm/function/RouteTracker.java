@@ -1,10 +1,11 @@
 package org.matsim.alonso_mora.algorithm.function;
 
-import java.util.Collections;
-import java.util.LinkedList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.function.ToDoubleFunction;
 
 import org.matsim.alonso_mora.algorithm.AlonsoMoraRequest;
 import org.matsim.alonso_mora.algorithm.AlonsoMoraStop;
@@ -36,12 +37,19 @@ public class RouteTracker {
 	private final double initialDepartureTime;
 	private final Optional<Link> initialLink;
 
-	private final LinkedList<Double> departureTimes = new LinkedList<>();
-	private final LinkedList<Double> arrivalTimes = new LinkedList<>();
-	private final LinkedList<DvrpLoad> occupancies = new LinkedList<>();
+	static private final int INITIAL_CAPACITY = 16;
 
-	private final Map<AlonsoMoraRequest, Double> requiredPickupTimes;
-	private final Map<AlonsoMoraRequest, Double> requiredDropoffTimes;
+	/*
+	 * Timing and occupancy of the stops that have been tracked so far. The arrays
+	 * are used as stacks with a common size and are grown when needed.
+	 */
+	private double[] departureTimes = new double[INITIAL_CAPACITY];
+	private double[] arrivalTimes = new double[INITIAL_CAPACITY];
+	private DvrpLoad[] occupancies = new DvrpLoad[INITIAL_CAPACITY];
+	private int size = 0;
+
+	private final ToDoubleFunction<AlonsoMoraRequest> requiredPickupTimes;
+	private final ToDoubleFunction<AlonsoMoraRequest> requiredDropoffTimes;
 
 	public RouteTracker(AlonsoMoraVehicle vehicle, TravelTimeEstimator estimator,
 			PassengerStopDurationProvider stopDurationProvider, double vehicleStopDuration, DvrpLoad initialOccupancy,
@@ -54,14 +62,27 @@ public class RouteTracker {
 		this.vehicleStopDuration = vehicleStopDuration;
 		this.vehicle = vehicle;
 
-		this.requiredPickupTimes = Collections.emptyMap();
-		this.requiredDropoffTimes = Collections.emptyMap();
+		this.requiredPickupTimes = request -> Double.POSITIVE_INFINITY;
+		this.requiredDropoffTimes = request -> Double.POSITIVE_INFINITY;
 	}
 
 	public RouteTracker(AlonsoMoraVehicle vehicle, TravelTimeEstimator estimator,
 			PassengerStopDurationProvider stopDurationProvider, double vehicleStopDuration, DvrpLoad initialOccupancy,
 			double initialDepartureTime, Optional<Link> initialLink, Map<AlonsoMoraRequest, Double> requiredPickupTimes,
 			Map<AlonsoMoraRequest, Double> requiredDropoffTimes) {
+		this(vehicle, estimator, stopDurationProvider, vehicleStopDuration, initialOccupancy, initialDepartureTime,
+				initialLink, request -> requiredPickupTimes.getOrDefault(request, Double.POSITIVE_INFINITY),
+				request -> requiredDropoffTimes.getOrDefault(request, Double.POSITIVE_INFINITY));
+	}
+
+	/**
+	 * Creates a tracker that obtains the required pickup and dropoff times of the
+	 * requests from the given functions, without the need to set up maps.
+	 */
+	public RouteTracker(AlonsoMoraVehicle vehicle, TravelTimeEstimator estimator,
+			PassengerStopDurationProvider stopDurationProvider, double vehicleStopDuration, DvrpLoad initialOccupancy,
+			double initialDepartureTime, Optional<Link> initialLink, ToDoubleFunction<AlonsoMoraRequest> requiredPickupTimes,
+			ToDoubleFunction<AlonsoMoraRequest> requiredDropoffTimes) {
 		this.estimator = estimator;
 		this.stopDurationProvider = stopDurationProvider;
 		this.initialDepartureTime = initialDepartureTime;
@@ -86,12 +107,21 @@ public class RouteTracker {
 	 * implications on travel time.
 	 */
 	public void setDrivingState(AlonsoMoraVehicle vehicle) {
-		isCurrentlyDriving = vehicle.getVehicle().getSchedule().getCurrentTask() instanceof DriveTask;
+		isCurrentlyDriving = isCurrentlyDriving(vehicle);
+		needsDrivingModeSwitch = needsDrivingModeSwitch(vehicle);
+	}
 
-		if (isCurrentlyDriving) {
+	static boolean isCurrentlyDriving(AlonsoMoraVehicle vehicle) {
+		return vehicle.getVehicle().getSchedule().getCurrentTask() instanceof DriveTask;
+	}
+
+	static boolean needsDrivingModeSwitch(AlonsoMoraVehicle vehicle) {
+		if (isCurrentlyDriving(vehicle)) {
 			DriveTask driveTask = (DriveTask) vehicle.getVehicle().getSchedule().getCurrentTask();
-			needsDrivingModeSwitch = !driveTask.getTaskType().equals(DrtDriveTask.TYPE);
+			return !driveTask.getTaskType().equals(DrtDriveTask.TYPE);
 		}
+
+		return false;
 	}
 
 	/**
@@ -103,30 +133,29 @@ public class RouteTracker {
 	 * written directly into the stops along the sequence.
 	 */
 	public int update(List<AlonsoMoraStop> stops) {
-		while (departureTimes.size() > stops.size() - 1) {
-			departureTimes.removeLast();
-			arrivalTimes.removeLast();
-			occupancies.removeLast();
-		}
+		size = Math.min(size, Math.max(0, stops.size() - 1));
+		ensureCapacity(stops.size());
 
-		int partialIndex = departureTimes.size();
+		int partialIndex = size;
 
 		for (int i = partialIndex; i < stops.size(); i++) {
+			AlonsoMoraStop stop = stops.get(i);
+
 			Link fromLink = null;
 			double departureTime = Double.NaN;
 			DvrpLoad occupancy = null;
 
 			if (i == 0) {
-				fromLink = initialLink.orElseGet(stops.get(0)::getLink);
+				fromLink = initialLink.orElseGet(stop::getLink);
 				departureTime = initialDepartureTime;
 				occupancy = initialOccupancy;
 			} else {
 				fromLink = stops.get(i - 1).getLink();
-				departureTime = departureTimes.get(i - 1);
-				occupancy = occupancies.get(i - 1);
+				departureTime = departureTimes[i - 1];
+				occupancy = occupancies[i - 1];
 			}
 
-			Link toLink = stops.get(i).getLink();
+			Link toLink = stop.getLink();
 
 			/*
 			 * sehoerl, January 2014: Do we need this additional condition here for i == 0?
@@ -136,12 +165,10 @@ public class RouteTracker {
 			if (fromLink != toLink || i == 0) {
 				double arrivalTimeThreshold = Double.POSITIVE_INFINITY;
 
-				if (stops.get(i).getType().equals(StopType.Pickup)) {
-					arrivalTimeThreshold = requiredPickupTimes.getOrDefault(stops.get(i).getRequest(),
-							Double.POSITIVE_INFINITY);
+				if (stop.getType().equals(StopType.Pickup)) {
+					arrivalTimeThreshold = requiredPickupTimes.applyAsDouble(stop.getRequest());
 				} else {
-					arrivalTimeThreshold = requiredDropoffTimes.getOrDefault(stops.get(i).getRequest(),
-							Double.POSITIVE_INFINITY);
+					arrivalTimeThreshold = requiredDropoffTimes.applyAsDouble(stop.getRequest());
 				}
 
 				double arrivalTime = estimator.estimateTravelTime(fromLink, toLink, departureTime, arrivalTimeThreshold)
@@ -155,8 +182,6 @@ public class RouteTracker {
 					arrivalTime = correctArrivalTime(arrivalTime, fromLink != toLink);
 				}
 
-				AlonsoMoraStop stop = stops.get(i);
-
 				final double stopArrivalTime;
 				if (stop.getType().equals(StopType.Pickup)) {
 					// The following is only relevant for pre-booked requests
@@ -189,16 +214,15 @@ public class RouteTracker {
 					throw new IllegalStateException();
 				}
 
-				arrivalTimes.add(stopArrivalTime);
-				departureTimes.add(stopDepartureTime);
+				arrivalTimes[i] = stopArrivalTime;
+				departureTimes[i] = stopDepartureTime;
 			} else {
 				// We don't move.
 
-				final double stopArrivalTime = arrivalTimes.get(i - 1);
-				AlonsoMoraStop stop = stops.get(i);
+				final double stopArrivalTime = arrivalTimes[i - 1];
 
 				final double vehicleDepartureTime = stopArrivalTime + vehicleStopDuration;
-				double stopDepartureTime = Math.max(departureTimes.get(i - 1), vehicleDepartureTime);
+				double stopDepartureTime = Math.max(departureTimes[i - 1], vehicleDepartureTime);
 				
 				if (stop.getType().equals(StopType.Pickup)) {
 					double passengerDepartureTime = Math.max(stopArrivalTime,
@@ -220,25 +244,42 @@ public class RouteTracker {
 					throw new IllegalStateException();
 				}
 
-				arrivalTimes.add(stopArrivalTime);
-				departureTimes.add(stopDepartureTime);
+				arrivalTimes[i] = stopArrivalTime;
+				departureTimes[i] = stopDepartureTime;
 			}
 
-			if (stops.get(i).getType().equals(StopType.Relocation)) {
-				occupancies.add(occupancy);
-			} else if (stops.get(i).getType().equals(StopType.Pickup)) {
-				occupancies.add(occupancy.add(stops.get(i).getRequest().getDrtRequest().getLoad()));
+			if (stop.getType().equals(StopType.Relocation)) {
+				occupancies[i] = occupancy;
+			} else if (stop.getType().equals(StopType.Pickup)) {
+				occupancies[i] = occupancy.add(stop.getRequest().getDrtRequest().getLoad());
 			} else {
-				occupancies.add(occupancy.subtract(stops.get(i).getRequest().getDrtRequest().getLoad()));
+				occupancies[i] = occupancy.subtract(stop.getRequest().getDrtRequest().getLoad());
 			}
+
+			size = i + 1;
 		}
 
 		return partialIndex;
 	}
 
+	private void ensureCapacity(int capacity) {
+		if (departureTimes.length < capacity) {
+			int updatedCapacity = Math.max(capacity, 2 * departureTimes.length);
+
+			departureTimes = Arrays.copyOf(departureTimes, updatedCapacity);
+			arrivalTimes = Arrays.copyOf(arrivalTimes, updatedCapacity);
+			occupancies = Arrays.copyOf(occupancies, updatedCapacity);
+		}
+	}
+
 	private final static double DRIVE_TASK_SWITCH_OFFSET = 1.0; // One second to stop and depart again
 
 	private double correctArrivalTime(double arrivalTime, boolean needsMoving) {
+		return correctArrivalTime(arrivalTime, needsMoving, isCurrentlyDriving, needsDrivingModeSwitch);
+	}
+
+	static double correctArrivalTime(double arrivalTime, boolean needsMoving, boolean isCurrentlyDriving,
+			boolean needsDrivingModeSwitch) {
 		if (isCurrentlyDriving) {
 			if (needsMoving) {
 				// Vehicle is driving, but we are not on the final link and potentially going a
@@ -271,22 +312,22 @@ public class RouteTracker {
 	}
 
 	public double getDepartureTime(int index) {
-		return departureTimes.get(index);
+		return departureTimes[Objects.checkIndex(index, size)];
 	}
 
 	public double getArrivalTime(int index) {
-		return arrivalTimes.get(index);
+		return arrivalTimes[Objects.checkIndex(index, size)];
 	}
 
 	public DvrpLoad getOccupancyAfter(int index) {
-		return occupancies.get(index);
+		return occupancies[Objects.checkIndex(index, size)];
 	}
 
 	public DvrpLoad getOccupancyBefore(int index) {
 		if (index == 0) {
 			return initialOccupancy;
 		} else {
-			return occupancies.get(index - 1);
+			return occupancies[Objects.checkIndex(index - 1, size)];
 		}
 	}
 }
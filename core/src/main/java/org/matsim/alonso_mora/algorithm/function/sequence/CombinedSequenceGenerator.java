@@ -21,13 +21,30 @@ public class CombinedSequenceGenerator implements SequenceGenerator {
 
 	public CombinedSequenceGenerator(AlonsoMoraVehicle vehicle, Collection<AlonsoMoraRequest> onboardRequests,
 			Collection<AlonsoMoraRequest> requests, int insertionStartOccupancy) {
-		if (requests.size() + vehicle.getOnboardRequests().size() >= insertionStartOccupancy) {
+		this(vehicle, onboardRequests, requests, insertionStartOccupancy, false, 0.0);
+	}
+
+	/**
+	 * Creates a combined generator in which the extensive search optionally
+	 * proposes the closest stops first (see {@link ExtensiveSequenceGenerator}).
+	 */
+	public CombinedSequenceGenerator(AlonsoMoraVehicle vehicle, Collection<AlonsoMoraRequest> onboardRequests,
+			Collection<AlonsoMoraRequest> requests, int insertionStartOccupancy, boolean nearestFirst, double now) {
+		if (useInsertion(vehicle, requests, insertionStartOccupancy)) {
 			this.delegate = new InsertiveSequenceGenerator(vehicle, onboardRequests, requests);
+		} else if (nearestFirst) {
+			this.delegate = new ExtensiveSequenceGenerator(vehicle.getNextDiversion(now).link, onboardRequests,
+					requests);
 		} else {
 			this.delegate = new ExtensiveSequenceGenerator(onboardRequests, requests);
 		}
 	}
 
+	static private boolean useInsertion(AlonsoMoraVehicle vehicle, Collection<AlonsoMoraRequest> requests,
+			int insertionStartOccupancy) {
+		return requests.size() + vehicle.getOnboardRequests().size() >= insertionStartOccupancy;
+	}
+
 	@Override
 	public void advance() {
 		delegate.advance();
@@ -38,6 +55,11 @@ public class CombinedSequenceGenerator implements SequenceGenerator {
 		delegate.abort();
 	}
 
+	@Override
+	public boolean skip() {
+		return delegate.skip();
+	}
+
 	@Override
 	public boolean hasNext() {
 		return delegate.hasNext();
@@ -55,15 +77,34 @@ public class CombinedSequenceGenerator implements SequenceGenerator {
 
 	static public class Factory implements SequenceGeneratorFactory {
 		private final int insertionStartOccupancy;
+		private final boolean nearestFirst;
 
 		public Factory(int insertionStartOccupancy) {
+			this(insertionStartOccupancy, false);
+		}
+
+		public Factory(int insertionStartOccupancy, boolean nearestFirst) {
 			this.insertionStartOccupancy = insertionStartOccupancy;
+			this.nearestFirst = nearestFirst;
 		}
 
 		@Override
 		public SequenceGenerator createGenerator(AlonsoMoraVehicle vehicle,
 				Collection<AlonsoMoraRequest> onboardRequests, Collection<AlonsoMoraRequest> requests, double now) {
-			return new CombinedSequenceGenerator(vehicle, onboardRequests, requests, insertionStartOccupancy);
+			return new CombinedSequenceGenerator(vehicle, onboardRequests, requests, insertionStartOccupancy,
+					nearestFirst, now);
+		}
+
+		@Override
+		public boolean isExhaustive(AlonsoMoraVehicle vehicle, Collection<AlonsoMoraRequest> onboardRequests,
+				Collection<AlonsoMoraRequest> requests) {
+			return !nearestFirst && !useInsertion(vehicle, requests, insertionStartOccupancy);
+		}
+
+		@Override
+		public boolean isAbortLocal(AlonsoMoraVehicle vehicle, Collection<AlonsoMoraRequest> onboardRequests,
+				Collection<AlonsoMoraRequest> requests) {
+			return nearestFirst && !useInsertion(vehicle, requests, insertionStartOccupancy);
 		}
 	}
 }
@@ -0,0 +1,620 @@
+package org.matsim.alonso_mora.algorithm.function.sequence;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+import org.matsim.alonso_mora.algorithm.AlonsoMoraRequest;
+import org.matsim.alonso_mora.algorithm.AlonsoMoraStop;
+import org.matsim.alonso_mora.algorithm.AlonsoMoraStop.StopType;
+import org.matsim.alonso_mora.algorithm.AlonsoMoraVehicle;
+import org.matsim.alonso_mora.travel_time.TravelTimeEstimator;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.contrib.dvrp.load.DvrpLoad;
+import org.matsim.contrib.dvrp.load.DvrpLoadType;
+import org.matsim.contrib.dvrp.util.LinkTimePair;
+
+import com.google.common.base.Verify;
+
+/**
+ * Sequence generator for vehicles with a high capacity, which is not included
+ * in the paper by Alonso-Mora et al. For many stops, the extensive search is
+ * too slow, while the insertive search only considers the current order of the
+ * vehicle.
+ *
+ * Instead, the generator solves the ordering problem on a simplified model
+ * before proposing any sequence. Travel times between the stops are estimated
+ * once at the time at which the vehicle can be diverted, the vehicle waits for
+ * the earliest pickup time, and the stop duration is constant. The costs are
+ * the delays of the dropoffs as in the default objective. Stops that are not
+ * reachable in time are discarded for requests that are not assigned to the
+ * vehicle yet, and sequences that exceed the capacity of the vehicle are
+ * discarded for all requests.
+ *
+ * Up to a configurable number of stops, the model is solved by dynamic
+ * programming over the set of visited stops and the last stop (Held-Karp). For
+ * each state, only the label with the lowest cost is kept, so in the presence
+ * of time windows, the solution is not guaranteed to be optimal. Above the
+ * threshold, a beam search keeps the best partial sequences per number of
+ * visited stops.
+ *
+ * The resulting complete sequences are then proposed stop by stop in the order
+ * of their estimated cost, so the travel function evaluates them exactly. If a
+ * partial sequence is aborted, all candidates that start with it are skipped.
+ *
+ * @author sebhoerl
+ */
+public class DynamicProgrammingSequenceGenerator implements SequenceGenerator {
+	private final int numberOfStops;
+	private final AlonsoMoraStop[] stops;
+
+	private final List<int[]> candidates;
+	private final boolean[] isRejected;
+
+	private int candidateIndex = 0;
+	private int currentLength = 1;
+
+	private final List<AlonsoMoraStop> sequenceView = new SequenceView();
+
+	public DynamicProgrammingSequenceGenerator(AlonsoMoraVehicle vehicle,
+			Collection<AlonsoMoraRequest> onboardRequests, Collection<AlonsoMoraRequest> requests, double now,
+			TravelTimeEstimator estimator, DvrpLoadType loadType, double stopDuration, int maximumStops,
+			int beamWidth) {
+		Model model = new Model(vehicle, onboardRequests, requests, now, estimator, loadType, stopDuration);
+
+		this.numberOfStops = model.numberOfStops;
+		this.stops = model.stops;
+
+		if (numberOfStops == 0) {
+			this.candidates = new ArrayList<>();
+		} else if (numberOfStops <= maximumStops) {
+			this.candidates = model.solveDynamicProgramming();
+		} else {
+			this.candidates = model.solveBeamSearch(beamWidth);
+		}
+
+		this.isRejected = new boolean[candidates.size()];
+	}
+
+	@Override
+	public void advance() {
+		if (!hasNext()) {
+			return;
+		}
+
+		if (currentLength < numberOfStops) {
+			currentLength++;
+		} else {
+			next();
+		}
+	}
+
+	@Override
+	public void abort() {
+		if (!hasNext()) {
+			return;
+		}
+
+		int[] current = candidates.get(candidateIndex);
+
+		for (int index = candidateIndex + 1; index < candidates.size(); index++) {
+			if (getCommonLength(current, candidates.get(index)) >= currentLength) {
+				isRejected[index] = true;
+			}
+		}
+
+		next();
+	}
+
+	@Override
+	public boolean skip() {
+		abort();
+		return true;
+	}
+
+	/**
+	 * Continues with the next candidate that has not been rejected. Only the part
+	 * that differs from the current sequence is proposed, starting with the first
+	 * stop that is different.
+	 */
+	private void next() {
+		int[] current = candidates.get(candidateIndex);
+		candidateIndex++;
+
+		while (candidateIndex < candidates.size() && isRejected[candidateIndex]) {
+			candidateIndex++;
+		}
+
+		if (candidateIndex < candidates.size()) {
+			currentLength = Math.min(currentLength, getCommonLength(current, candidates.get(candidateIndex)) + 1);
+		}
+	}
+
+	static private int getCommonLength(int[] first, int[] second) {
+		int length = 0;
+
+		while (length < first.length && first[length] == second[length]) {
+			length++;
+		}
+
+		return length;
+	}
+
+	@Override
+	public boolean hasNext() {
+		return candidateIndex < candidates.size();
+	}
+
+	@Override
+	public boolean isComplete() {
+		return currentLength == numberOfStops;
+	}
+
+	/**
+	 * Returns the current sequence. The list is a view that changes with the state
+	 * of the generator, so it needs to be copied if it is used later on.
+	 */
+	@Override
+	public List<AlonsoMoraStop> get() {
+		return sequenceView;
+	}
+
+	private class SequenceView extends AbstractList<AlonsoMoraStop> implements RandomAccess {
+		@Override
+		public AlonsoMoraStop get(int index) {
+			if (index < 0 || index >= currentLength) {
+				throw new IndexOutOfBoundsException(index);
+			}
+
+			return stops[candidates.get(candidateIndex)[index]];
+		}
+
+		@Override
+		public int size() {
+			return currentLength;
+		}
+	}
+
+	/**
+	 * Simplified model of the vehicle and the stops, which is used to find the
+	 * candidate sequences.
+	 */
+	static private class Model {
+		final int numberOfStops;
+		final AlonsoMoraStop[] stops;
+
+		private final int[] pickupStops;
+		private final boolean[] isPickup;
+		private final double[] earliestTimes;
+		private final double[] latestTimes;
+		private final double[] directArrivalTimes;
+		private final int[] items;
+		private final DvrpLoad[] loads;
+
+		private final double[][] travelTimes;
+		private final boolean[][] isSameLink;
+
+		private final double startTime;
+		private final DvrpLoad startLoad;
+		private final DvrpLoad capacity;
+		private final double stopDuration;
+
+		Model(AlonsoMoraVehicle vehicle, Collection<AlonsoMoraRequest> onboardRequests,
+				Collection<AlonsoMoraRequest> requests, double now, TravelTimeEstimator estimator,
+				DvrpLoadType loadType, double stopDuration) {
+			this.numberOfStops = onboardRequests.size() + requests.size() * 2;
+			this.stops = new AlonsoMoraStop[numberOfStops];
+
+			this.pickupStops = new int[numberOfStops];
+			this.isPickup = new boolean[numberOfStops];
+			this.earliestTimes = new double[numberOfStops];
+			this.latestTimes = new double[numberOfStops];
+			this.directArrivalTimes = new double[numberOfStops];
+			this.items = new int[numberOfStops];
+			this.loads = new DvrpLoad[numberOfStops];
+
+			this.capacity = vehicle.getVehicle().getCapacity();
+			this.stopDuration = stopDuration;
+
+			DvrpLoad startLoad = loadType.getEmptyLoad();
+			int stopIndex = 0;
+
+			for (AlonsoMoraRequest request : onboardRequests) {
+				// If there are only dropoffs, they need to happen in any case
+				boolean isAssigned = requests.size() == 0 || request.getVehicle() == vehicle;
+
+				stops[stopIndex] = new AlonsoMoraStop(StopType.Dropoff, request.getDropoffLink(), request);
+				pickupStops[stopIndex] = -1;
+				addDropoff(stopIndex, request, isAssigned);
+				startLoad = startLoad.add(loads[stopIndex]);
+				stopIndex++;
+			}
+
+			this.startLoad = startLoad;
+
+			for (AlonsoMoraRequest request : requests) {
+				boolean isAssigned = request.getVehicle() == vehicle;
+
+				stops[stopIndex] = new AlonsoMoraStop(StopType.Pickup, request.getPickupLink(), request);
+				pickupStops[stopIndex] = -1;
+				isPickup[stopIndex] = true;
+				earliestTimes[stopIndex] = request.getEarliestPickupTime();
+				latestTimes[stopIndex] = isAssigned ? Double.POSITIVE_INFINITY : request.getPlannedPickupTime();
+				loads[stopIndex] = request.getDrtRequest().getLoad();
+				stopIndex++;
+
+				stops[stopIndex] = new AlonsoMoraStop(StopType.Dropoff, request.getDropoffLink(), request);
+				pickupStops[stopIndex] = stopIndex - 1;
+				addDropoff(stopIndex, request, isAssigned);
+				stopIndex++;
+			}
+
+			// Travel times between the stops, the last row is the start of the vehicle
+			LinkTimePair diversion = vehicle.getNextDiversion(now);
+			this.startTime = diversion.time;
+
+			this.travelTimes = new double[numberOfStops + 1][numberOfStops];
+			this.isSameLink = new boolean[numberOfStops + 1][numberOfStops];
+
+			for (int from = 0; from <= numberOfStops; from++) {
+				Link fromLink = from < numberOfStops ? stops[from].getLink() : diversion.link;
+
+				for (int to = 0; to < numberOfStops; to++) {
+					Link toLink = stops[to].getLink();
+
+					if (fromLink == toLink) {
+						isSameLink[from][to] = true;
+					} else if (from != to) {
+						travelTimes[from][to] = estimator.estimateTravelTime(fromLink, toLink, startTime,
+								Double.POSITIVE_INFINITY);
+					}
+				}
+			}
+		}
+
+		private void addDropoff(int stopIndex, AlonsoMoraRequest request, boolean isAssigned) {
+			earliestTimes[stopIndex] = Double.NEGATIVE_INFINITY;
+			latestTimes[stopIndex] = isAssigned ? Double.POSITIVE_INFINITY : request.getLatestDropoffTime();
+			directArrivalTimes[stopIndex] = request.getDirectArivalTime();
+			items[stopIndex] = request.getItems();
+			loads[stopIndex] = request.getDrtRequest().getLoad();
+		}
+
+		/**
+		 * Calculates the label after visiting a stop. The arrival, departure and cost
+		 * of the previous label are given, with the previous stop being equal to the
+		 * number of stops for the start of the vehicle. Returns false if the stop
+		 * cannot be reached in time.
+		 */
+		boolean visit(int previousStop, double previousArrival, double previousDeparture, double previousCost,
+				int stop, double[] label) {
+			boolean sameLink = isSameLink[previousStop][stop];
+
+			double arrival = sameLink ? previousArrival : previousDeparture + travelTimes[previousStop][stop];
+			double stopTime = Math.max(arrival, earliestTimes[stop]);
+
+			if (stopTime > latestTimes[stop]) {
+				return false;
+			}
+
+			double departure = stopTime + stopDuration;
+
+			if (sameLink) {
+				departure = Math.max(previousDeparture, departure);
+			}
+
+			double cost = previousCost;
+
+			if (!isPickup[stop]) {
+				cost += items[stop] * Math.max(0.0, stopTime - directArrivalTimes[stop]);
+			}
+
+			label[0] = arrival;
+			label[1] = departure;
+			label[2] = cost;
+
+			return true;
+		}
+
+		DvrpLoad updateLoad(DvrpLoad load, int stop) {
+			return isPickup[stop] ? load.add(loads[stop]) : load.subtract(loads[stop]);
+		}
+
+		boolean isReady(int stop, int mask) {
+			return pickupStops[stop] < 0 || (mask & (1 << pickupStops[stop])) != 0;
+		}
+
+		boolean isReady(int stop, BitSet visited) {
+			return pickupStops[stop] < 0 || visited.get(pickupStops[stop]);
+		}
+
+		/**
+		 * Dynamic programming over all subsets of visited stops and the last stop.
+		 * Returns the best complete sequence for each final stop, sorted by cost.
+		 */
+		List<int[]> solveDynamicProgramming() {
+			Verify.verify(numberOfStops < 31, "Too many stops for dynamic programming");
+
+			int numberOfMasks = 1 << numberOfStops;
+			int numberOfStates = numberOfMasks * numberOfStops;
+
+			DynamicProgrammingTables tables = DYNAMIC_PROGRAMMING_TABLES.get();
+			tables.prepare(numberOfMasks, numberOfStates);
+
+			double[] arrivals = tables.arrivals;
+			double[] departures = tables.departures;
+			double[] costs = tables.costs;
+			int[] predecessors = tables.predecessors;
+			DvrpLoad[] maskLoads = tables.maskLoads;
+
+			double[] label = new double[3];
+
+			for (int stop = 0; stop < numberOfStops; stop++) {
+				if (isReady(stop, 0) && visit(numberOfStops, startTime, startTime, 0.0, stop, label)) {
+					DvrpLoad load = updateLoad(startLoad, stop);
+
+					if (load.fitsIn(capacity)) {
+						int mask = 1 << stop;
+						int state = mask * numberOfStops + stop;
+
+						maskLoads[mask] = load;
+						arrivals[state] = label[0];
+						departures[state] = label[1];
+						costs[state] = label[2];
+						predecessors[state] = -1;
+					}
+				}
+			}
+
+			for (int mask = 1; mask < numberOfMasks; mask++) {
+				if (maskLoads[mask] == null) {
+					continue; // Not reachable
+				}
+
+				for (int last = 0; last < numberOfStops; last++) {
+					int state = mask * numberOfStops + last;
+
+					if (costs[state] == Double.POSITIVE_INFINITY) {
+						continue;
+					}
+
+					for (int stop = 0; stop < numberOfStops; stop++) {
+						int nextMask = mask | (1 << stop);
+
+						if (nextMask == mask || !isReady(stop, mask)) {
+							continue;
+						}
+
+						if (!visit(last, arrivals[state], departures[state], costs[state], stop, label)) {
+							continue;
+						}
+
+						DvrpLoad load = maskLoads[nextMask];
+
+						if (load == null) {
+							load = updateLoad(maskLoads[mask], stop);
+						}
+
+						if (!load.fitsIn(capacity)) {
+							continue;
+						}
+
+						maskLoads[nextMask] = load;
+						int nextState = nextMask * numberOfStops + stop;
+
+						if (label[2] < costs[nextState]
+								|| (label[2] == costs[nextState] && label[1] < departures[nextState])) {
+							arrivals[nextState] = label[0];
+							departures[nextState] = label[1];
+							costs[nextState] = label[2];
+							predecessors[nextState] = last;
+						}
+					}
+				}
+			}
+
+			int fullMask = numberOfMasks - 1;
+			List<Integer> finalStops = new ArrayList<>();
+
+			for (int last = 0; last < numberOfStops; last++) {
+				if (costs[fullMask * numberOfStops + last] < Double.POSITIVE_INFINITY) {
+					finalStops.add(last);
+				}
+			}
+
+			finalStops.sort(Comparator.comparingDouble(last -> costs[fullMask * numberOfStops + last]));
+
+			List<int[]> candidates = new ArrayList<>(finalStops.size());
+
+			for (int finalStop : finalStops) {
+				int[] sequence = new int[numberOfStops];
+				int mask = fullMask;
+				int stop = finalStop;
+
+				for (int index = numberOfStops - 1; index >= 0; index--) {
+					sequence[index] = stop;
+
+					int previous = predecessors[mask * numberOfStops + stop];
+					mask &= ~(1 << stop);
+					stop = previous;
+				}
+
+				candidates.add(sequence);
+			}
+
+			tables.clear(numberOfMasks);
+			return candidates;
+		}
+
+		/**
+		 * Beam search that extends the partial sequences stop by stop. Partial
+		 * sequences that visit the same stops and end at the same stop are merged as
+		 * in the dynamic programming, and only the best ones are kept.
+		 */
+		List<int[]> solveBeamSearch(int beamWidth) {
+			List<Node> beam = new ArrayList<>();
+			beam.add(new Node(null, numberOfStops, new BitSet(numberOfStops), startTime, startTime, 0.0, startLoad));
+
+			double[] label = new double[3];
+
+			for (int length = 0; length < numberOfStops && beam.size() > 0; length++) {
+				Map<BitSet, Node[]> states = new HashMap<>();
+
+				for (Node node : beam) {
+					for (int stop = node.visited.nextClearBit(0); stop < numberOfStops; stop = node.visited
+							.nextClearBit(stop + 1)) {
+						if (!isReady(stop, node.visited)) {
+							continue;
+						}
+
+						if (!visit(node.stop, node.arrival, node.departure, node.cost, stop, label)) {
+							continue;
+						}
+
+						DvrpLoad load = updateLoad(node.load, stop);
+
+						if (!load.fitsIn(capacity)) {
+							continue;
+						}
+
+						BitSet visited = (BitSet) node.visited.clone();
+						visited.set(stop);
+
+						Node[] nodes = states.computeIfAbsent(visited, v -> new Node[numberOfStops]);
+						Node existing = nodes[stop];
+
+						if (existing == null || label[2] < existing.cost
+								|| (label[2] == existing.cost && label[1] < existing.departure)) {
+							nodes[stop] = new Node(node, stop, visited, label[0], label[1], label[2], load);
+						}
+					}
+				}
+
+				List<Node> nextBeam = new ArrayList<>();
+
+				for (Node[] nodes : states.values()) {
+					for (Node node : nodes) {
+						if (node != null) {
+							nextBeam.add(node);
+						}
+					}
+				}
+
+				nextBeam.sort(NODE_COMPARATOR);
+				beam = nextBeam.size() > beamWidth ? nextBeam.subList(0, beamWidth) : nextBeam;
+			}
+
+			List<int[]> candidates = new ArrayList<>(beam.size());
+
+			for (Node node : beam) {
+				int[] sequence = new int[numberOfStops];
+
+				for (int index = numberOfStops - 1; index >= 0; index--) {
+					sequence[index] = node.stop;
+					node = node.parent;
+				}
+
+				candidates.add(sequence);
+			}
+
+			return candidates;
+		}
+	}
+
+	/**
+	 * Per-thread tables of the dynamic programming, indexed by the set of visited
+	 * stops and the last stop. They are only grown if a call needs more states
+	 * than any previous call of the thread, so that solving the model does not
+	 * allocate them again for every trip.
+	 */
+	static private class DynamicProgrammingTables {
+		double[] arrivals = new double[0];
+		double[] departures = new double[0];
+		double[] costs = new double[0];
+		int[] predecessors = new int[0];
+		DvrpLoad[] maskLoads = new DvrpLoad[0];
+
+		void prepare(int numberOfMasks, int numberOfStates) {
+			if (costs.length < numberOfStates) {
+				arrivals = new double[numberOfStates];
+				departures = new double[numberOfStates];
+				costs = new double[numberOfStates];
+				predecessors = new int[numberOfStates];
+			}
+
+			if (maskLoads.length < numberOfMasks) {
+				maskLoads = new DvrpLoad[numberOfMasks];
+			}
+
+			// Only the costs and loads mark reachable states, the other values are
+			// always written before they are read
+			Arrays.fill(costs, 0, numberOfStates, Double.POSITIVE_INFINITY);
+			Arrays.fill(maskLoads, 0, numberOfMasks, null);
+		}
+
+		/**
+		 * Releases the loads that have been used by the last call.
+		 */
+		void clear(int numberOfMasks) {
+			Arrays.fill(maskLoads, 0, numberOfMasks, null);
+		}
+	}
+
+	static private final ThreadLocal<DynamicProgrammingTables> DYNAMIC_PROGRAMMING_TABLES = ThreadLocal
+			.withInitial(DynamicProgrammingTables::new);
+
+	static private final Comparator<Node> NODE_COMPARATOR = Comparator.comparingDouble((Node node) -> node.cost)
+			.thenComparingDouble(node -> node.departure);
+
+	static private class Node {
+		final Node parent;
+		final int stop;
+		final BitSet visited;
+
+		final double arrival;
+		final double departure;
+		final double cost;
+		final DvrpLoad load;
+
+		Node(Node parent, int stop, BitSet visited, double arrival, double departure, double cost, DvrpLoad load) {
+			this.parent = parent;
+			this.stop = stop;
+			this.visited = visited;
+			this.arrival = arrival;
+			this.departure = departure;
+			this.cost = cost;
+			this.load = load;
+		}
+	}
+
+	static public class Factory implements SequenceGeneratorFactory {
+		private final TravelTimeEstimator estimator;
+		private final DvrpLoadType loadType;
+		private final double stopDuration;
+		private final int maximumStops;
+		private final int beamWidth;
+
+		public Factory(TravelTimeEstimator estimator, DvrpLoadType loadType, double stopDuration, int maximumStops,
+				int beamWidth) {
+			this.estimator = estimator;
+			this.loadType = loadType;
+			this.stopDuration = stopDuration;
+			this.maximumStops = maximumStops;
+			this.beamWidth = beamWidth;
+		}
+
+		@Override
+		public SequenceGenerator createGenerator(AlonsoMoraVehicle vehicle,
+				Collection<AlonsoMoraRequest> onboardRequests, Collection<AlonsoMoraRequest> requests, double now) {
+			return new DynamicProgrammingSequenceGenerator(vehicle, onboardRequests, requests, now, estimator,
+					loadType, stopDuration, maximumStops, beamWidth);
+		}
+	}
+}
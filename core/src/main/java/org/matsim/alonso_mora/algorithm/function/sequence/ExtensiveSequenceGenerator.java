@@ -1,11 +1,18 @@
 package org.matsim.alonso_mora.algorithm.function.sequence;
 
-import java.util.*;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.RandomAccess;
 
 import org.matsim.alonso_mora.algorithm.AlonsoMoraRequest;
 import org.matsim.alonso_mora.algorithm.AlonsoMoraStop;
 import org.matsim.alonso_mora.algorithm.AlonsoMoraStop.StopType;
 import org.matsim.alonso_mora.algorithm.AlonsoMoraVehicle;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.core.utils.geometry.CoordUtils;
 
 /**
  * The extensive sequence generator as described by Alonso-Mora et al.
@@ -13,187 +20,424 @@ import org.matsim.alonso_mora.algorithm.AlonsoMoraVehicle;
  * The generator loops through all possible combinations of pickup and dropoff
  * stops given the onboard and new requests for the vehicle.
  *
+ * The stops that are used by the current sequence and the requests that are
+ * picked up are tracked while stops are added and removed, so a proposed stop
+ * can be checked in constant time. Stops that cannot be appended to the
+ * current sequence, because they are already used or the request has not been
+ * picked up yet, are passed over without being proposed. The current sequence
+ * is returned as a view on the internal arrays.
+ *
+ * Optionally, the stops of some requests can be given an order (see
+ * {@link InsertiveSequenceGenerator}). Those stops are then only proposed in
+ * that order, while the other stops are inserted anywhere in between.
+ *
+ * If a start link is given, the alternatives at each position are not proposed
+ * in the order of the stop indices, but by increasing Euclidean distance from
+ * the previous stop, or from the start link for the first position. This way,
+ * good sequences are usually found early, so that worse sequences can be
+ * aborted earlier by the travel function. In this mode, aborting a sequence
+ * only skips the sequences that extend it (see {@link #skip()}), so no
+ * alternatives are lost and the search remains exhaustive.
+ *
  * @author sebhoerl
  */
 public class ExtensiveSequenceGenerator implements SequenceGenerator {
-    private int[] currentSequence;
-    private int currentIndex;
+	// Alternative that is proposed at each position and the corresponding stop
+	private final int[] currentSequence;
+	private final int[] currentStops;
+	private int currentIndex;
 
 	private final int sequenceLength;
 
-	private int[] requestIndices;
-	private boolean[] pickupIndices;
-
-    private final AlonsoMoraStop[] stops;
-    private Set<Integer> onboardIndices = new HashSet<>();
-
-    private boolean finished = false;
-
-    private final int numberOfRequests;
-
-    private boolean isStopsCacheValid = false;
-    private List<AlonsoMoraStop> stopsCache;
-
-
-    public ExtensiveSequenceGenerator(Collection<AlonsoMoraRequest> onboardRequests,
-                                      Collection<AlonsoMoraRequest> requests) {
-        this.sequenceLength = onboardRequests.size() + requests.size() * 2;
-
-        this.currentSequence = new int[this.sequenceLength];
-        this.currentIndex = 0;
-
-        this.requestIndices = new int[sequenceLength];
-        this.pickupIndices = new boolean[sequenceLength];
-
-        this.stops = new AlonsoMoraStop[this.sequenceLength];
-
-        int requestIndex = 0;
-        int stopIndex = 0;
-
-        for (AlonsoMoraRequest request : onboardRequests) {
-            onboardIndices.add(requestIndex);
-
-            requestIndices[stopIndex] = requestIndex;
-            pickupIndices[stopIndex] = false;
-            stops[stopIndex] = new AlonsoMoraStop(StopType.Dropoff, request.getDropoffLink(), request);
-            stopIndex++;
-
-            requestIndex++;
-        }
-
-        for (AlonsoMoraRequest request : requests) {
-            requestIndices[stopIndex] = requestIndex;
-            pickupIndices[stopIndex] = true;
-            stops[stopIndex] = new AlonsoMoraStop(StopType.Pickup, request.getPickupLink(), request);
-            stopIndex++;
-
-            requestIndices[stopIndex] = requestIndex;
-            pickupIndices[stopIndex] = false;
-            stops[stopIndex] = new AlonsoMoraStop(StopType.Dropoff, request.getDropoffLink(), request);
-            stopIndex++;
-
-            requestIndex++;
-        }
-        numberOfRequests = requestIndex;
-        internalAdvance(false);
-    }
-
-    private void invalidateStopsCache() {
-        this.isStopsCacheValid = false;
-    }
-
-    @Override
-    public void advance() {
-        internalAdvance(true);
-    }
-
-    @Override
-    public void abort() {
-        internalAbort();
-        internalAdvance(false);
-    }
-
-    void internalAdvance(boolean dropCurrent) {
-        Boolean isFeasibleValue = null; // to avoid calling isFeasible twice in the two lines below
-        while (!finished && (dropCurrent || !(isFeasibleValue = isFeasible()))) {
-            if(currentIndex < sequenceLength - 1 && isFeasibleValue == null) {
-                isFeasibleValue = isFeasible();
-            }
-            if (currentIndex < sequenceLength - 1 && isFeasibleValue) {
-                currentIndex++;
-                currentSequence[currentIndex] = 0;
-            } else if (currentSequence[currentIndex] < sequenceLength - 1) {
-                currentSequence[currentIndex]++;
-            } else {
-                internalAbort();
-            }
-
-            dropCurrent = false;
-        }
-        invalidateStopsCache();
-    }
-
-    void internalAbort() {
-        while (currentIndex > 0) {
-            currentIndex--;
-
-            if (currentSequence[currentIndex] < sequenceLength - 1) {
-                currentSequence[currentIndex]++;
-                invalidateStopsCache();
-                return;
-            }
-        }
-
-        if (currentSequence[0] < sequenceLength - 1) {
-            currentSequence[0]++;
-            invalidateStopsCache();
-            return;
-        }
-
-        finished = true;
-    }
-
-	boolean isFeasible() {
-        BitSet pickedUp = new BitSet(numberOfRequests);
-        for(int onboardIndex : onboardIndices) {
-            pickedUp.set(onboardIndex);
-        }
-        BitSet droppedOff = new BitSet(numberOfRequests);
-
-        for (int i = 0; i <= currentIndex; i++) {
-            int stopIndex = currentSequence[i];
-            int requestIndex = requestIndices[stopIndex];
-
-            if (pickupIndices[stopIndex]) {
-                if (pickedUp.get(requestIndex)) {
-                    return false;
-                } else {
-                    pickedUp.set(requestIndex);
-                }
-            } else {
-                if (droppedOff.get(requestIndex)) {
-                    return false;
-                } else if (pickedUp.get(requestIndex)) {
-                    droppedOff.set(requestIndex);
-                } else {
-                    return false;
-                }
-            }
-        }
-
-        return true;
-	}
-
-    @Override
-    public boolean hasNext() {
-        return !finished;
-    }
-
-    @Override
-    public boolean isComplete() {
-        return currentIndex == sequenceLength - 1;
-    }
-
-    @Override
-    public List<AlonsoMoraStop> get() {
-        if (!this.isStopsCacheValid) {
-            this.stopsCache = new LinkedList<>();
-            for(int i=0; i<currentSequence.length; i++) {
-                this.stopsCache.add(stops[currentSequence[i]]);
-                if (i==currentIndex) {
-                    break;
-                }
-            }
-            this.isStopsCacheValid = true;
-        }
-        return this.stopsCache;
-    }
-
-    static public class Factory implements SequenceGeneratorFactory {
-        @Override
-        public SequenceGenerator createGenerator(AlonsoMoraVehicle vehicle,
-                                                 Collection<AlonsoMoraRequest> onboardRequests, Collection<AlonsoMoraRequest> requests, double now) {
-            return new ExtensiveSequenceGenerator(onboardRequests, requests);
-        }
-    }
+	private final int[] requestIndices;
+	private final boolean[] pickupIndices;
+
+	private final AlonsoMoraStop[] stops;
+
+	// State of the stops before the current index
+	private final boolean[] isUsed;
+	private final boolean[] isPickedUp;
+
+	// Optional order of the stops, stops with a null value are not ordered
+	private final Integer[] stopOrder;
+	private final int[] sortedStopOrder;
+	private int numberOfOrderedStops = 0;
+
+	// Optional branching order by distance, the last row is for the start link
+	private final int[] branchingOrder;
+
+	private boolean finished = false;
+
+	private final List<AlonsoMoraStop> sequenceView = new SequenceView();
+
+	public ExtensiveSequenceGenerator(Collection<AlonsoMoraRequest> onboardRequests,
+			Collection<AlonsoMoraRequest> requests) {
+		this(onboardRequests, requests, null, null);
+	}
+
+	/**
+	 * Creates a generator that proposes the alternatives at each position by
+	 * increasing distance from the previous stop, starting at the given link.
+	 */
+	public ExtensiveSequenceGenerator(Link startLink, Collection<AlonsoMoraRequest> onboardRequests,
+			Collection<AlonsoMoraRequest> requests) {
+		this(onboardRequests, requests, null, startLink);
+	}
+
+	/**
+	 * Creates a generator in which the stops for which the index calculator
+	 * returns a value are kept in the order of the values. Stops with a negative
+	 * value are never proposed.
+	 */
+	ExtensiveSequenceGenerator(Collection<AlonsoMoraRequest> onboardRequests, Collection<AlonsoMoraRequest> requests,
+			InsertiveSequenceGenerator.IndexCalculator indexCalculator) {
+		this(onboardRequests, requests, indexCalculator, null);
+	}
+
+	private ExtensiveSequenceGenerator(Collection<AlonsoMoraRequest> onboardRequests,
+			Collection<AlonsoMoraRequest> requests, InsertiveSequenceGenerator.IndexCalculator indexCalculator,
+			Link startLink) {
+		this.sequenceLength = onboardRequests.size() + requests.size() * 2;
+
+		this.currentSequence = new int[this.sequenceLength];
+		this.currentStops = new int[this.sequenceLength];
+		this.currentIndex = 0;
+
+		this.requestIndices = new int[sequenceLength];
+		this.pickupIndices = new boolean[sequenceLength];
+
+		this.stops = new AlonsoMoraStop[this.sequenceLength];
+
+		this.isUsed = new boolean[sequenceLength];
+		this.isPickedUp = new boolean[onboardRequests.size() + requests.size()];
+
+		int requestIndex = 0;
+		int stopIndex = 0;
+
+		for (AlonsoMoraRequest request : onboardRequests) {
+			isPickedUp[requestIndex] = true;
+
+			requestIndices[stopIndex] = requestIndex;
+			pickupIndices[stopIndex] = false;
+			stops[stopIndex] = new AlonsoMoraStop(StopType.Dropoff, request.getDropoffLink(), request);
+			stopIndex++;
+
+			requestIndex++;
+		}
+
+		for (AlonsoMoraRequest request : requests) {
+			requestIndices[stopIndex] = requestIndex;
+			pickupIndices[stopIndex] = true;
+			stops[stopIndex] = new AlonsoMoraStop(StopType.Pickup, request.getPickupLink(), request);
+			stopIndex++;
+
+			requestIndices[stopIndex] = requestIndex;
+			pickupIndices[stopIndex] = false;
+			stops[stopIndex] = new AlonsoMoraStop(StopType.Dropoff, request.getDropoffLink(), request);
+			stopIndex++;
+
+			requestIndex++;
+		}
+
+		if (indexCalculator != null) {
+			this.stopOrder = new Integer[sequenceLength];
+			int numberOfOrderedStops = 0;
+
+			for (int index = 0; index < sequenceLength; index++) {
+				AlonsoMoraRequest request = stops[index].getRequest();
+
+				stopOrder[index] = pickupIndices[index] ? indexCalculator.getPickupIndex(request)
+						: indexCalculator.getDropoffIndex(request);
+
+				if (stopOrder[index] != null) {
+					numberOfOrderedStops++;
+				}
+			}
+
+			this.sortedStopOrder = new int[numberOfOrderedStops];
+			numberOfOrderedStops = 0;
+
+			for (Integer order : stopOrder) {
+				if (order != null) {
+					sortedStopOrder[numberOfOrderedStops++] = order;
+				}
+			}
+
+			Arrays.sort(sortedStopOrder);
+		} else {
+			this.stopOrder = null;
+			this.sortedStopOrder = null;
+		}
+
+		if (startLink != null) {
+			this.branchingOrder = createBranchingOrder(startLink);
+		} else {
+			this.branchingOrder = null;
+		}
+
+		if (sequenceLength == 0) {
+			finished = true;
+		} else {
+			findFeasible();
+		}
+	}
+
+	/**
+	 * Sorts the stops by distance from each stop and from the start link. Ties are
+	 * ordered by the stop index. The order from each stop is kept in one row of a
+	 * flat array, and the rows are sorted by insertion, which is fast for the
+	 * small number of stops of a vehicle. The distances are only needed while
+	 * sorting, so they are kept in an array per thread.
+	 */
+	private int[] createBranchingOrder(Link startLink) {
+		int[] order = new int[(sequenceLength + 1) * sequenceLength];
+		double[] distances = BRANCHING_DISTANCES.get();
+
+		if (distances.length < sequenceLength) {
+			distances = new double[sequenceLength];
+			BRANCHING_DISTANCES.set(distances);
+		}
+
+		for (int from = 0; from <= sequenceLength; from++) {
+			Coord fromCoord = from < sequenceLength ? stops[from].getLink().getCoord() : startLink.getCoord();
+			int offset = from * sequenceLength;
+
+			for (int to = 0; to < sequenceLength; to++) {
+				double distance = CoordUtils.calcEuclideanDistance(fromCoord, stops[to].getLink().getCoord());
+				int position = to;
+
+				while (position > 0 && distances[position - 1] > distance) {
+					distances[position] = distances[position - 1];
+					order[offset + position] = order[offset + position - 1];
+					position--;
+				}
+
+				distances[position] = distance;
+				order[offset + position] = to;
+			}
+		}
+
+		return order;
+	}
+
+	static private final ThreadLocal<double[]> BRANCHING_DISTANCES = ThreadLocal.withInitial(() -> new double[0]);
+
+	/**
+	 * Returns the stop that is proposed as the given alternative at the current
+	 * position.
+	 */
+	private int getStop(int alternative) {
+		if (branchingOrder == null) {
+			return alternative;
+		}
+
+		int previousStop = currentIndex > 0 ? currentStops[currentIndex - 1] : sequenceLength;
+		return branchingOrder[previousStop * sequenceLength + alternative];
+	}
+
+	@Override
+	public void advance() {
+		if (finished) {
+			return;
+		}
+
+		if (currentIndex < sequenceLength - 1) {
+			// Extend the current sequence
+			push();
+			currentSequence[currentIndex] = 0;
+		} else {
+			// Continue with the next alternative at the last position
+			currentSequence[currentIndex]++;
+		}
+
+		findFeasible();
+	}
+
+	/**
+	 * Aborts the current sequence. Note that, beyond the current position, this
+	 * also skips the remaining alternatives at the current position and continues
+	 * with the next alternative at the previous position. If the alternatives are
+	 * ordered by distance, only the sequences that extend the current one are
+	 * skipped.
+	 */
+	@Override
+	public void abort() {
+		if (finished) {
+			return;
+		}
+
+		if (branchingOrder != null) {
+			skip();
+			return;
+		}
+
+		if (currentIndex > 0) {
+			pop();
+		}
+
+		currentSequence[currentIndex]++;
+		findFeasible();
+	}
+
+	@Override
+	public boolean skip() {
+		if (!finished) {
+			// Continue with the next alternative at the current position
+			currentSequence[currentIndex]++;
+			findFeasible();
+		}
+
+		return true;
+	}
+
+	/**
+	 * Checks whether a stop can be appended to the stops before the current index.
+	 * An ordered stop can only be appended if no ordered stop with a lower value
+	 * is left.
+	 */
+	private boolean isFeasible(int stopIndex) {
+		if (isUsed[stopIndex] || !(pickupIndices[stopIndex] || isPickedUp[requestIndices[stopIndex]])) {
+			return false;
+		}
+
+		if (stopOrder != null && stopOrder[stopIndex] != null) {
+			int order = stopOrder[stopIndex];
+			return order >= 0 && order == sortedStopOrder[numberOfOrderedStops];
+		}
+
+		return true;
+	}
+
+	/**
+	 * Moves the current position to the next feasible stop, starting from the
+	 * current one. If no feasible stop is left at this position, the search
+	 * continues with the next alternative at the previous position.
+	 */
+	private void findFeasible() {
+		while (true) {
+			for (int alternative = currentSequence[currentIndex]; alternative < sequenceLength; alternative++) {
+				int stopIndex = getStop(alternative);
+
+				if (isFeasible(stopIndex)) {
+					currentSequence[currentIndex] = alternative;
+					currentStops[currentIndex] = stopIndex;
+					return;
+				}
+			}
+
+			if (currentIndex == 0) {
+				finished = true;
+				return;
+			}
+
+			pop();
+			currentSequence[currentIndex]++;
+		}
+	}
+
+	/**
+	 * Adds the stop at the current position to the state and moves to the next
+	 * position.
+	 */
+	private void push() {
+		int stopIndex = currentStops[currentIndex];
+		isUsed[stopIndex] = true;
+
+		if (pickupIndices[stopIndex]) {
+			isPickedUp[requestIndices[stopIndex]] = true;
+		}
+
+		if (stopOrder != null && stopOrder[stopIndex] != null) {
+			numberOfOrderedStops++;
+		}
+
+		currentIndex++;
+	}
+
+	/**
+	 * Moves to the previous position and removes its stop from the state.
+	 */
+	private void pop() {
+		currentIndex--;
+
+		int stopIndex = currentStops[currentIndex];
+		isUsed[stopIndex] = false;
+
+		if (pickupIndices[stopIndex]) {
+			isPickedUp[requestIndices[stopIndex]] = false;
+		}
+
+		if (stopOrder != null && stopOrder[stopIndex] != null) {
+			numberOfOrderedStops--;
+		}
+	}
+
+	@Override
+	public boolean hasNext() {
+		return !finished;
+	}
+
+	@Override
+	public boolean isComplete() {
+		return currentIndex == sequenceLength - 1;
+	}
+
+	/**
+	 * Returns the current sequence. The list is a view that changes with the state
+	 * of the generator, so it needs to be copied if it is used later on.
+	 */
+	@Override
+	public List<AlonsoMoraStop> get() {
+		return sequenceView;
+	}
+
+	private class SequenceView extends AbstractList<AlonsoMoraStop> implements RandomAccess {
+		@Override
+		public AlonsoMoraStop get(int index) {
+			if (index < 0 || index > currentIndex) {
+				throw new IndexOutOfBoundsException(index);
+			}
+
+			return stops[currentStops[index]];
+		}
+
+		@Override
+		public int size() {
+			return currentIndex + 1;
+		}
+	}
+
+	static public class Factory implements SequenceGeneratorFactory {
+		private final boolean nearestFirst;
+
+		public Factory() {
+			this(false);
+		}
+
+		public Factory(boolean nearestFirst) {
+			this.nearestFirst = nearestFirst;
+		}
+
+		@Override
+		public SequenceGenerator createGenerator(AlonsoMoraVehicle vehicle,
+				Collection<AlonsoMoraRequest> onboardRequests, Collection<AlonsoMoraRequest> requests, double now) {
+			if (nearestFirst) {
+				return new ExtensiveSequenceGenerator(vehicle.getNextDiversion(now).link, onboardRequests, requests);
+			}
+
+			return new ExtensiveSequenceGenerator(onboardRequests, requests);
+		}
+
+		@Override
+		public boolean isExhaustive(AlonsoMoraVehicle vehicle, Collection<AlonsoMoraRequest> onboardRequests,
+				Collection<AlonsoMoraRequest> requests) {
+			return !nearestFirst;
+		}
+
+		@Override
+		public boolean isAbortLocal(AlonsoMoraVehicle vehicle, Collection<AlonsoMoraRequest> onboardRequests,
+				Collection<AlonsoMoraRequest> requests) {
+			return nearestFirst;
+		}
+	}
 }
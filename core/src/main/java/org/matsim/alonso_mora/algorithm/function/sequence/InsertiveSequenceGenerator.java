@@ -3,14 +3,15 @@ package org.matsim.alonso_mora.algorithm.function.sequence;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 
 import org.matsim.alonso_mora.algorithm.AlonsoMoraRequest;
 import org.matsim.alonso_mora.algorithm.AlonsoMoraStop;
-import org.matsim.alonso_mora.algorithm.AlonsoMoraStop.StopType;
 import org.matsim.alonso_mora.algorithm.AlonsoMoraVehicle;
 import org.matsim.contrib.dvrp.schedule.Schedule;
+import org.matsim.contrib.dvrp.schedule.Task;
 
 /**
  * Insertive sequence generator as described by Alonso-Mora et al.
@@ -18,73 +19,39 @@ import org.matsim.contrib.dvrp.schedule.Schedule;
  * The generator keeps the order of requests that are already assigned to the
  * vehicle and inserts new pickup and dropoff stops into that ordering.
  * 
+ * The order is enforced while the sequences are built up (see
+ * {@link ExtensiveSequenceGenerator}), so only the insertions of the new stops
+ * into the current order of the vehicle are proposed, rather than filtering all
+ * sequences of the extensive search.
+ * 
  * @author sebhoerl
  */
 public class InsertiveSequenceGenerator implements SequenceGenerator {
 	private final ExtensiveSequenceGenerator generator;
-	private final IndexCalculator indexCalculator;
 
 	public InsertiveSequenceGenerator(AlonsoMoraVehicle vehicle, Collection<AlonsoMoraRequest> onboardRequests,
 			Collection<AlonsoMoraRequest> requests) {
-		this.generator = new ExtensiveSequenceGenerator(onboardRequests, requests);
-		this.indexCalculator = new DefaultIndexCalculator(vehicle, onboardRequests, requests);
-
-		skipInvalidSequences();
+		this(new DefaultIndexCalculator(vehicle, onboardRequests, requests), onboardRequests, requests);
 	}
 
 	InsertiveSequenceGenerator(IndexCalculator indexCalculator, Collection<AlonsoMoraRequest> onboardRequests,
 			Collection<AlonsoMoraRequest> requests) {
-		// Constructor for testing
-		this.generator = new ExtensiveSequenceGenerator(onboardRequests, requests);
-		this.indexCalculator = indexCalculator;
-	}
-
-	private boolean isValidSequence() {
-		int currentIndex = 0;
-
-		for (AlonsoMoraStop stop : generator.get()) {
-			if (stop.getType().equals(StopType.Pickup)) {
-				Integer pickupIndex = indexCalculator.getPickupIndex(stop.getRequest());
-
-				if (pickupIndex != null) {
-					if (pickupIndex < currentIndex) {
-						return false;
-					} else {
-						currentIndex = pickupIndex;
-					}
-				}
-			} else {
-				Integer dropoffIndex = indexCalculator.getDropoffIndex(stop.getRequest());
-
-				if (dropoffIndex != null) {
-					if (dropoffIndex < currentIndex) {
-						return false;
-					} else {
-						currentIndex = dropoffIndex;
-					}
-				}
-			}
-		}
-
-		return true;
-	}
-
-	private void skipInvalidSequences() {
-		while (generator.hasNext() && !isValidSequence()) {
-			generator.abort();
-		}
+		this.generator = new ExtensiveSequenceGenerator(onboardRequests, requests, indexCalculator);
 	}
 
 	@Override
 	public void advance() {
 		generator.advance();
-		skipInvalidSequences();
 	}
 
 	@Override
 	public void abort() {
 		generator.abort();
-		skipInvalidSequences();
+	}
+
+	@Override
+	public boolean skip() {
+		return generator.skip();
 	}
 
 	@Override
@@ -108,7 +75,13 @@ public class InsertiveSequenceGenerator implements SequenceGenerator {
 		Integer getDropoffIndex(AlonsoMoraRequest request);
 	}
 
-	class DefaultIndexCalculator implements IndexCalculator {
+	/**
+	 * Obtains the position of the stop tasks of the requests that are assigned to
+	 * the vehicle in its schedule. The tasks are indexed in one pass over the
+	 * schedule. Stops whose task is not found in the schedule obtain a negative
+	 * index.
+	 */
+	static class DefaultIndexCalculator implements IndexCalculator {
 		private final Map<AlonsoMoraRequest, Integer> pickupSequence = new HashMap<>();
 		private final Map<AlonsoMoraRequest, Integer> dropoffSequence = new HashMap<>();
 
@@ -120,9 +93,19 @@ public class InsertiveSequenceGenerator implements SequenceGenerator {
 			vehicleRequests.addAll(onboardRequests);
 			requests.stream().filter(r -> r.getVehicle() == vehicle).forEach(vehicleRequests::add);
 
-			for (AlonsoMoraRequest request : vehicleRequests) {
-				pickupSequence.put(request, schedule.getTasks().indexOf(request.getPickupTask()));
-				dropoffSequence.put(request, schedule.getTasks().indexOf(request.getDropoffTask()));
+			if (vehicleRequests.size() > 0) {
+				Map<Task, Integer> taskIndices = new IdentityHashMap<>();
+				List<? extends Task> tasks = schedule.getTasks();
+
+				for (int index = tasks.size() - 1; index >= 0; index--) {
+					// Reverse order to keep the first index as indexOf would
+					taskIndices.put(tasks.get(index), index);
+				}
+
+				for (AlonsoMoraRequest request : vehicleRequests) {
+					pickupSequence.put(request, taskIndices.getOrDefault(request.getPickupTask(), -1));
+					dropoffSequence.put(request, taskIndices.getOrDefault(request.getDropoffTask(), -1));
+				}
 			}
 		}
 
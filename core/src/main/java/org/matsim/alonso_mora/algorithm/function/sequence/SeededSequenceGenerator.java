@@ -0,0 +1,174 @@
+package org.matsim.alonso_mora.algorithm.function.sequence;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.matsim.alonso_mora.algorithm.AlonsoMoraStop;
+
+/**
+ * Sequence generator that proposes a seed before the sequences of another
+ * generator. The seed consists of all insertions of the pickup and dropoff
+ * stop of one request into a given sequence, which usually is the best
+ * sequence found for a trip with one request less. The best of these
+ * sequences is a good initial solution, which allows the following search to
+ * discard worse sequences early.
+ *
+ * The insertions are proposed stop by stop, like in the other generators, so
+ * they can be evaluated incrementally. Other than in the
+ * {@link ExtensiveSequenceGenerator}, aborting a sequence only skips the
+ * sequences that extend it.
+ *
+ * @author sebhoerl
+ */
+public class SeededSequenceGenerator implements SequenceGenerator {
+	static private final int BASE = 0;
+	static private final int PICKUP = 1;
+	static private final int DROPOFF = 2;
+
+	private final List<AlonsoMoraStop> baseStops;
+	private final AlonsoMoraStop pickupStop;
+	private final AlonsoMoraStop dropoffStop;
+
+	private final SequenceGenerator delegate;
+
+	private final List<AlonsoMoraStop> stops = new ArrayList<>();
+	private final int[] choices;
+	private final int sequenceLength;
+
+	private int numberOfBaseStops = 0;
+	private boolean isPickedUp = false;
+	private boolean isDroppedOff = false;
+
+	private boolean isSeeding = true;
+
+	public SeededSequenceGenerator(List<AlonsoMoraStop> baseStops, AlonsoMoraStop pickupStop,
+			AlonsoMoraStop dropoffStop, SequenceGenerator delegate) {
+		this.baseStops = baseStops;
+		this.pickupStop = pickupStop;
+		this.dropoffStop = dropoffStop;
+		this.delegate = delegate;
+
+		this.sequenceLength = baseStops.size() + 2;
+		this.choices = new int[sequenceLength];
+
+		push(BASE);
+	}
+
+	/**
+	 * Returns the first choice that can be appended to the current sequence,
+	 * starting from the given one, or -1 if none is left.
+	 */
+	private int findChoice(int choice) {
+		for (; choice <= DROPOFF; choice++) {
+			if (choice == BASE && numberOfBaseStops < baseStops.size()) {
+				return choice;
+			} else if (choice == PICKUP && !isPickedUp) {
+				return choice;
+			} else if (choice == DROPOFF && isPickedUp && !isDroppedOff) {
+				return choice;
+			}
+		}
+
+		return -1;
+	}
+
+	private void push(int startChoice) {
+		int choice = findChoice(startChoice);
+		choices[stops.size()] = choice;
+
+		switch (choice) {
+			case BASE:
+				stops.add(baseStops.get(numberOfBaseStops++));
+				break;
+			case PICKUP:
+				stops.add(pickupStop);
+				isPickedUp = true;
+				break;
+			case DROPOFF:
+				stops.add(dropoffStop);
+				isDroppedOff = true;
+				break;
+			default:
+				throw new IllegalStateException();
+		}
+	}
+
+	private int pop() {
+		int choice = choices[stops.size() - 1];
+		stops.remove(stops.size() - 1);
+
+		switch (choice) {
+			case BASE:
+				numberOfBaseStops--;
+				break;
+			case PICKUP:
+				isPickedUp = false;
+				break;
+			case DROPOFF:
+				isDroppedOff = false;
+				break;
+			default:
+				throw new IllegalStateException();
+		}
+
+		return choice;
+	}
+
+	private void next() {
+		while (stops.size() > 0) {
+			int choice = pop();
+
+			if (findChoice(choice + 1) >= 0) {
+				push(choice + 1);
+				return;
+			}
+		}
+
+		isSeeding = false;
+	}
+
+	@Override
+	public void advance() {
+		if (!isSeeding) {
+			delegate.advance();
+		} else if (stops.size() < sequenceLength) {
+			push(BASE);
+		} else {
+			next();
+		}
+	}
+
+	@Override
+	public void abort() {
+		if (isSeeding) {
+			next();
+		} else {
+			delegate.abort();
+		}
+	}
+
+	@Override
+	public boolean skip() {
+		if (isSeeding) {
+			next();
+			return true;
+		} else {
+			return delegate.skip();
+		}
+	}
+
+	@Override
+	public boolean hasNext() {
+		return isSeeding || delegate.hasNext();
+	}
+
+	@Override
+	public List<AlonsoMoraStop> get() {
+		return isSeeding ? stops : delegate.get();
+	}
+
+	@Override
+	public boolean isComplete() {
+		return isSeeding ? stops.size() == sequenceLength : delegate.isComplete();
+	}
+}
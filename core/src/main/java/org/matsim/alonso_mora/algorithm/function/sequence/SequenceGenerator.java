@@ -22,4 +22,16 @@ public interface SequenceGenerator {
 	List<AlonsoMoraStop> get();
 
 	boolean isComplete();
+
+	/**
+	 * Skips all sequences that extend the current one and continues with the
+	 * sequence that would have been proposed after all of them had been explored
+	 * and accepted. In contrast to {@link #abort()}, which may also skip
+	 * alternatives to the current sequence, this allows to prune sequences without
+	 * changing the outcome of the search. Returns false if this is not supported by
+	 * the generator, in which case the state is not changed.
+	 */
+	default boolean skip() {
+		return false;
+	}
 }
@@ -13,4 +13,26 @@ import org.matsim.alonso_mora.algorithm.AlonsoMoraVehicle;
 public interface SequenceGeneratorFactory {
 	SequenceGenerator createGenerator(AlonsoMoraVehicle vehicle, Collection<AlonsoMoraRequest> onboardRequests,
 			Collection<AlonsoMoraRequest> requests, double now);
+
+	/**
+	 * Indicates whether the generator that would be created for the given input
+	 * proposes all orderings of the stops in the same order as the
+	 * {#link ExtensiveSequenceGenerator}. In that case, the generator may be
+	 * replaced by specialised code for small trips.
+	 */
+	default boolean isExhaustive(AlonsoMoraVehicle vehicle, Collection<AlonsoMoraRequest> onboardRequests,
+			Collection<AlonsoMoraRequest> requests) {
+		return false;
+	}
+
+	/**
+	 * Indicates whether aborting a sequence in the generator that would be created
+	 * for the given input only discards the sequences that extend it, like
+	 * {@link SequenceGenerator#skip()}. In that case, the search finds the same
+	 * route no matter how tight the bound is by which sequences are aborted.
+	 */
+	default boolean isAbortLocal(AlonsoMoraVehicle vehicle, Collection<AlonsoMoraRequest> onboardRequests,
+			Collection<AlonsoMoraRequest> requests) {
+		return false;
+	}
 }
@@ -1,58 +1,420 @@
 package org.matsim.alonso_mora.algorithm.graphs;
 
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import org.matsim.alonso_mora.algorithm.AlonsoMoraRequest;
 import org.matsim.alonso_mora.algorithm.function.AlonsoMoraFunction;
+import org.matsim.alonso_mora.travel_time.TravelTimeLowerBound;
 
 import com.google.common.base.Verify;
 
 /**
  * Default implementation for the shareability graph.
- * 
+ *
+ * The graph is kept alive over multiple dispatching steps. New requests are
+ * only checked against the requests that are already in the graph and
+ * requests leaving the system are removed together with their edges. Since
+ * shareability can only decrease while time advances, the remaining edges only
+ * need to be revalidated (see {@link #revalidate(double)}) rather than
+ * recomputing the whole graph.
+ *
+ * New requests are only checked in detail against requests that pass the
+ * spatio-temporal prefilter of the {@link RequestGraphIndex}.
+ *
+ * Internally, each request occupies a dense slot index. Edges are kept as a
+ * flat list of packed slot pairs, which is filled without locking from the
+ * results of the parallel checks (see {@link #addRequests(Collection, double)}). Before the graph is read, the edge list is
+ * converted into a compressed adjacency structure (offsets and neighbors per
+ * slot) and the shareable requests are returned as a view on that structure.
+ * Such a view is only valid until the graph is modified again.
+ *
  * @author sebhoerl
  */
 public class DefaultRequestGraph implements RequestGraph {
+	static private final double INDEX_CELL_SIZE = 1000.0; // m
+	static private final int INITIAL_CAPACITY = 128;
+	static private final int PAIR_CHUNK_SIZE = 64;
+
 	private final AlonsoMoraFunction function;
 	private final ForkJoinPool pool;
 
-	private final Map<AlonsoMoraRequest, Set<AlonsoMoraRequest>> edges = new HashMap<>();
-	private final Set<AlonsoMoraRequest> requests = new HashSet<>();
+	private final RequestGraphIndex index;
+
+	// Slots
+	private final Map<AlonsoMoraRequest, Integer> slots = new HashMap<>();
+	private AlonsoMoraRequest[] slotRequests = new AlonsoMoraRequest[INITIAL_CAPACITY];
+	private double[] slotPlannedPickupTimes = new double[INITIAL_CAPACITY];
+	private int numberOfSlots = 0;
+
+	private int[] freeSlots = new int[INITIAL_CAPACITY];
+	private int numberOfFreeSlots = 0;
+
+	private final BitSet removedSlots = new BitSet();
+
+	// Edges
+	private long[] edges = new long[INITIAL_CAPACITY];
+	private int numberOfEdges = 0;
+
+	// Adjacency
+	private volatile boolean adjacencyOutdated = false;
+	private int[] offsets = new int[1];
+	private int[] neighbors = new int[0];
+	private int size = 0;
 
 	public DefaultRequestGraph(AlonsoMoraFunction function, ForkJoinPool pool) {
+		this(function, pool, TravelTimeLowerBound.disabled());
+	}
+
+	public DefaultRequestGraph(AlonsoMoraFunction function, ForkJoinPool pool, TravelTimeLowerBound bound) {
 		this.function = function;
 		this.pool = pool;
+		this.index = new RequestGraphIndex(bound, INDEX_CELL_SIZE);
 	}
 
 	@Override
 	public void addRequest(AlonsoMoraRequest request, double now) {
-		Verify.verify(requests.add(request), "Request is already in graph");
+		addRequests(Collections.singleton(request), now);
+	}
+
+	/**
+	 * Adds a batch of requests in one parallel pass. First, the candidates of all
+	 * new requests are obtained from the index in parallel. Each pair is kept once:
+	 * either with an existing request or with a new request that comes earlier in
+	 * the batch. The pairs are then laid out in flat arrays and checked in chunks
+	 * of fixed size so that the work is balanced over the threads of the pool.
+	 */
+	@Override
+	public void addRequests(Collection<AlonsoMoraRequest> requests, double now) {
+		if (requests.size() == 0) {
+			return;
+		}
+
+		AlonsoMoraRequest[] batch = requests.toArray(new AlonsoMoraRequest[requests.size()]);
+		Map<AlonsoMoraRequest, Integer> positions = new HashMap<>();
+
+		for (int k = 0; k < batch.length; k++) {
+			Verify.verify(!slots.containsKey(batch[k]), "Request is already in graph");
+			Verify.verify(positions.put(batch[k], k) == null, "Request is added twice");
+		}
+
+		@SuppressWarnings("unchecked")
+		List<AlonsoMoraRequest>[] candidates = new List[batch.length];
+
+		for (int k = 0; k < batch.length; k++) {
+			allocateSlot(batch[k]);
+			index.addRequest(batch[k]);
+		}
 
 		pool.submit(() -> {
-			requests.parallelStream().forEach(existingRequest -> {
-				if (existingRequest != request && function.checkShareability(existingRequest, request, now)) {
-					synchronized (edges) {
-						edges.computeIfAbsent(request, r -> new HashSet<>()).add(existingRequest);
-						edges.computeIfAbsent(existingRequest, r -> new HashSet<>()).add(request);
-					}
+			IntStream.range(0, batch.length).parallel().forEach(k -> {
+				candidates[k] = index.getCandidates(batch[k], now);
+				candidates[k].removeIf(other -> positions.getOrDefault(other, -1) >= k);
+			});
+		}).join();
+
+		// Lay out all pairs in flat arrays
+		int[] pairOffsets = new int[batch.length + 1];
+
+		for (int k = 0; k < batch.length; k++) {
+			pairOffsets[k + 1] = pairOffsets[k] + candidates[k].size();
+		}
+
+		int numberOfPairs = pairOffsets[batch.length];
+		int[] newSlots = new int[numberOfPairs];
+		int[] otherSlots = new int[numberOfPairs];
+
+		for (int k = 0; k < batch.length; k++) {
+			int newSlot = slots.get(batch[k]);
+			int offset = pairOffsets[k];
+
+			for (AlonsoMoraRequest other : candidates[k]) {
+				newSlots[offset] = newSlot;
+				otherSlots[offset] = slots.get(other);
+				offset++;
+			}
+		}
+
+		// Check pairs in fixed-size chunks
+		boolean[] shareable = new boolean[numberOfPairs];
+		int numberOfChunks = (numberOfPairs + PAIR_CHUNK_SIZE - 1) / PAIR_CHUNK_SIZE;
+
+		pool.submit(() -> {
+			IntStream.range(0, numberOfChunks).parallel().forEach(chunk -> {
+				int end = Math.min(numberOfPairs, (chunk + 1) * PAIR_CHUNK_SIZE);
+
+				for (int i = chunk * PAIR_CHUNK_SIZE; i < end; i++) {
+					shareable[i] = function.checkShareability(slotRequests[otherSlots[i]], slotRequests[newSlots[i]],
+							now);
 				}
 			});
 		}).join();
+
+		int numberOfNewEdges = 0;
+
+		for (int i = 0; i < numberOfPairs; i++) {
+			if (shareable[i]) {
+				numberOfNewEdges++;
+			}
+		}
+
+		long[] newEdges = new long[numberOfNewEdges];
+		numberOfNewEdges = 0;
+
+		for (int i = 0; i < numberOfPairs; i++) {
+			if (shareable[i]) {
+				newEdges[numberOfNewEdges++] = pack(otherSlots[i], newSlots[i]);
+			}
+		}
+
+		appendEdges(newEdges);
+	}
+
+	@Override
+	public void removeRequest(AlonsoMoraRequest request) {
+		Integer slot = slots.remove(request);
+		Verify.verifyNotNull(slot, "Request is not in graph");
+
+		index.removeRequest(request);
+
+		// Edges are removed lazily, see purgeRemovedSlots
+		slotRequests[slot] = null;
+		removedSlots.set(slot);
+		adjacencyOutdated = true;
+	}
+
+	/**
+	 * Revalidates the edges of the graph. Two cases are distinguished. (1) The
+	 * planned pickup time of a request may have changed since it was added (for
+	 * instance, because it has been accepted). In that case, the request is
+	 * removed and added again to find all its edges. (2) All other edges are
+	 * checked again for the current time. No new edges can appear between
+	 * existing requests, so only the existing edges need to be considered.
+	 */
+	@Override
+	public void revalidate(double now) {
+		List<AlonsoMoraRequest> updatedRequests = slots.entrySet().stream() //
+				.filter(entry -> entry.getKey().getPlannedPickupTime() != slotPlannedPickupTimes[entry.getValue()]) //
+				.map(Map.Entry::getKey) //
+				.collect(Collectors.toList());
+
+		updatedRequests.forEach(this::removeRequest);
+		purgeRemovedSlots();
+
+		final long[] currentEdges = edges;
+
+		boolean[] obsolete = new boolean[numberOfEdges];
+
+		pool.submit(() -> {
+			IntStream.range(0, numberOfEdges).parallel().forEach(i -> {
+				AlonsoMoraRequest firstRequest = slotRequests[getFirst(currentEdges[i])];
+				AlonsoMoraRequest secondRequest = slotRequests[getSecond(currentEdges[i])];
+				obsolete[i] = !function.checkShareability(firstRequest, secondRequest, now);
+			});
+		}).join();
+
+		int remaining = 0;
+
+		for (int i = 0; i < numberOfEdges; i++) {
+			if (!obsolete[i]) {
+				edges[remaining++] = edges[i];
+			}
+		}
+
+		numberOfEdges = remaining;
+		adjacencyOutdated = true;
+
+		addRequests(updatedRequests, now);
+	}
+
+	@Override
+	public boolean containsRequest(AlonsoMoraRequest request) {
+		return slots.containsKey(request);
+	}
+
+	@Override
+	public Collection<AlonsoMoraRequest> getRequests() {
+		return Collections.unmodifiableCollection(slots.keySet());
 	}
 
 	@Override
 	public Collection<AlonsoMoraRequest> getShareableRequests(AlonsoMoraRequest request) {
-		return Collections.unmodifiableCollection(edges.getOrDefault(request, Collections.emptySet()));
+		updateAdjacency();
+
+		Integer slot = slots.get(request);
+
+		if (slot == null) {
+			return Collections.emptyList();
+		}
+
+		return new NeighborView(slotRequests, neighbors, offsets[slot], offsets[slot + 1]);
 	}
 
 	@Override
 	public int getSize() {
-		return edges.size();
+		updateAdjacency();
+		return size;
+	}
+
+	private int allocateSlot(AlonsoMoraRequest request) {
+		int slot;
+
+		if (numberOfFreeSlots > 0) {
+			slot = freeSlots[--numberOfFreeSlots];
+		} else {
+			slot = numberOfSlots++;
+
+			if (slot == slotRequests.length) {
+				slotRequests = Arrays.copyOf(slotRequests, 2 * slot);
+				slotPlannedPickupTimes = Arrays.copyOf(slotPlannedPickupTimes, 2 * slot);
+			}
+		}
+
+		slots.put(request, slot);
+		slotRequests[slot] = request;
+		slotPlannedPickupTimes[slot] = request.getPlannedPickupTime();
+		adjacencyOutdated = true;
+
+		return slot;
+	}
+
+	private void appendEdges(long[] newEdges) {
+		if (numberOfEdges + newEdges.length > edges.length) {
+			edges = Arrays.copyOf(edges, Math.max(2 * edges.length, numberOfEdges + newEdges.length));
+		}
+
+		System.arraycopy(newEdges, 0, edges, numberOfEdges, newEdges.length);
+		numberOfEdges += newEdges.length;
+		adjacencyOutdated = true;
+	}
+
+	/**
+	 * Removes all edges of removed requests and makes their slots available again.
+	 */
+	private void purgeRemovedSlots() {
+		if (removedSlots.isEmpty()) {
+			return;
+		}
+
+		int remaining = 0;
+
+		for (int i = 0; i < numberOfEdges; i++) {
+			long edge = edges[i];
+
+			if (!removedSlots.get(getFirst(edge)) && !removedSlots.get(getSecond(edge))) {
+				edges[remaining++] = edge;
+			}
+		}
+
+		numberOfEdges = remaining;
+
+		for (int slot = removedSlots.nextSetBit(0); slot >= 0; slot = removedSlots.nextSetBit(slot + 1)) {
+			if (numberOfFreeSlots == freeSlots.length) {
+				freeSlots = Arrays.copyOf(freeSlots, 2 * freeSlots.length);
+			}
+
+			freeSlots[numberOfFreeSlots++] = slot;
+		}
+
+		removedSlots.clear();
+	}
+
+	private void updateAdjacency() {
+		if (adjacencyOutdated) {
+			synchronized (this) {
+				if (adjacencyOutdated) {
+					buildAdjacency();
+					adjacencyOutdated = false;
+				}
+			}
+		}
+	}
+
+	private void buildAdjacency() {
+		purgeRemovedSlots();
+
+		int[] updatedOffsets = new int[numberOfSlots + 1];
+
+		for (int i = 0; i < numberOfEdges; i++) {
+			updatedOffsets[getFirst(edges[i]) + 1]++;
+			updatedOffsets[getSecond(edges[i]) + 1]++;
+		}
+
+		int updatedSize = 0;
+
+		for (int slot = 0; slot < numberOfSlots; slot++) {
+			if (updatedOffsets[slot + 1] > 0) {
+				updatedSize++;
+			}
+
+			updatedOffsets[slot + 1] += updatedOffsets[slot];
+		}
+
+		int[] updatedNeighbors = new int[2 * numberOfEdges];
+		int[] position = Arrays.copyOf(updatedOffsets, numberOfSlots);
+
+		for (int i = 0; i < numberOfEdges; i++) {
+			int first = getFirst(edges[i]);
+			int second = getSecond(edges[i]);
+
+			updatedNeighbors[position[first]++] = second;
+			updatedNeighbors[position[second]++] = first;
+		}
+
+		offsets = updatedOffsets;
+		neighbors = updatedNeighbors;
+		size = updatedSize;
+	}
+
+	static private long pack(int first, int second) {
+		return (((long) first) << 32) | (second & 0xFFFFFFFFL);
+	}
+
+	static private int getFirst(long edge) {
+		return (int) (edge >>> 32);
+	}
+
+	static private int getSecond(long edge) {
+		return (int) edge;
+	}
+
+	/**
+	 * Read-only view on the neighbors of one request in the adjacency structure.
+	 */
+	static private class NeighborView extends AbstractList<AlonsoMoraRequest> {
+		private final AlonsoMoraRequest[] slotRequests;
+		private final int[] neighbors;
+		private final int start;
+		private final int end;
+
+		NeighborView(AlonsoMoraRequest[] slotRequests, int[] neighbors, int start, int end) {
+			this.slotRequests = slotRequests;
+			this.neighbors = neighbors;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		public AlonsoMoraRequest get(int index) {
+			if (index < 0 || index >= end - start) {
+				throw new IndexOutOfBoundsException(index);
+			}
+
+			return slotRequests[neighbors[start + index]];
+		}
+
+		@Override
+		public int size() {
+			return end - start;
+		}
 	}
 }
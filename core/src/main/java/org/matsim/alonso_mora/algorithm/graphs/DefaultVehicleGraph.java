@@ -2,13 +2,14 @@ package org.matsim.alonso_mora.algorithm.graphs;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import org.matsim.alonso_mora.algorithm.AlonsoMoraRequest;
@@ -32,30 +33,54 @@ public class DefaultVehicleGraph implements VehicleGraph {
 	private final AlonsoMoraVehicle vehicle;
 
 	private final List<List<AlonsoMoraTrip>> trips = new ArrayList<>();
+	private final List<Set<TripKey>> tripKeys = new ArrayList<>();
 	private final Set<AlonsoMoraRequest> requests = new HashSet<>();
 
 	private final int tripLimitPerVehicle;
 	private final int tripLimitPerSequenceLength;
+	private final int parallelThreshold;
 
 	private int numberOfTrips = 0;
 
 	public DefaultVehicleGraph(AlonsoMoraFunction function, RequestGraph requestGraph, AlonsoMoraVehicle vehicle,
 			int tripLimitPerVehicle, int tripLimitPerSequenceLength) {
+		this(function, requestGraph, vehicle, tripLimitPerVehicle, tripLimitPerSequenceLength, 0);
+	}
+
+	/**
+	 * @param parallelThreshold If more than the given number of combinations need
+	 *                          to be evaluated on one level, the routes are
+	 *                          calculated in parallel. Zero disables the parallel
+	 *                          evaluation.
+	 */
+	public DefaultVehicleGraph(AlonsoMoraFunction function, RequestGraph requestGraph, AlonsoMoraVehicle vehicle,
+			int tripLimitPerVehicle, int tripLimitPerSequenceLength, int parallelThreshold) {
 		this.vehicle = vehicle;
 		this.requestGraph = requestGraph;
 		this.function = function;
 		this.tripLimitPerVehicle = tripLimitPerVehicle;
 		this.tripLimitPerSequenceLength = tripLimitPerSequenceLength;
+		this.parallelThreshold = parallelThreshold;
 
 		ensureTripListSize(vehicle.getItemCapacity() * 2);
 	}
 
 	private void ensureTripListSize(int numberOfPassengers) {
 		while (trips.size() < numberOfPassengers) {
-			trips.add(new LinkedList<>());
+			trips.add(new ArrayList<>());
+			tripKeys.add(new HashSet<>());
 		}
 	}
 
+	/**
+	 * Adds a trip to the given level and registers it in the index that is used to
+	 * look up trips by their requests.
+	 */
+	private void addTrip(int level, AlonsoMoraTrip trip) {
+		trips.get(level).add(trip);
+		Verify.verify(tripKeys.get(level).add(TripKey.of(trip.getRequests())), "Trip is already registered");
+	}
+
 	@Override
 	public void addRequest(AlonsoMoraRequest request, double now) {
 		Optional<AlonsoMoraFunction.Result> unpooledResult = function.calculateRoute(Arrays.asList(request), vehicle,
@@ -76,10 +101,10 @@ public class DefaultVehicleGraph implements VehicleGraph {
 
 		if (!(tripLimitPerSequenceLength > 0 && trips.get(0).size() >= tripLimitPerSequenceLength)) {
 			// Limit has not been reached
-			trips.get(0).add(new AlonsoMoraTrip(vehicle, Arrays.asList(request), unpooledResult));
+			addTrip(0, new AlonsoMoraTrip(vehicle, Arrays.asList(request), unpooledResult));
 		}
 
-		List<AlonsoMoraTrip> currentLevelTrips = new LinkedList<>();
+		List<AlonsoMoraTrip> currentLevelTrips = new ArrayList<>();
 
 		for (AlonsoMoraRequest pairableRequest : requestGraph.getShareableRequests(request)) {
 			if (tripLimitPerSequenceLength > 0 && trips.get(1).size() >= tripLimitPerSequenceLength) {
@@ -93,7 +118,7 @@ public class DefaultVehicleGraph implements VehicleGraph {
 				if (pairedResult.isPresent()) {
 					AlonsoMoraTrip trip = new AlonsoMoraTrip(vehicle, Arrays.asList(request, pairableRequest),
 							pairedResult.get());
-					trips.get(1).add(trip);
+					addTrip(1, trip);
 					currentLevelTrips.add(trip);
 				}
 			}
@@ -107,68 +132,71 @@ public class DefaultVehicleGraph implements VehicleGraph {
 	private void constructTrips(List<AlonsoMoraTrip> previousLevelTrips, int level, double now) {
 		ensureTripListSize(level + 1);
 		Collections.sort(previousLevelTrips);
-		List<AlonsoMoraTrip> currentLevelTrips = new ArrayList<>();
+
+		// First, find the combinations for which all sub-trips exist. For each
+		// combination, the result of one sub-trip is kept as a hint for the search.
+		List<List<AlonsoMoraRequest>> combinations = new ArrayList<>();
+		List<AlonsoMoraFunction.Result> hints = new ArrayList<>();
+
+		// Combinations that have already been evaluated on this level, including
+		// infeasible ones, which are not calculated again
+		Set<TripKey> checkedKeys = new HashSet<>();
 
 		for (int i = 0; i < previousLevelTrips.size(); i++) {
 			for (int j = i + 1; j < previousLevelTrips.size(); j++) {
-				if (tripLimitPerSequenceLength > 0 && trips.get(level).size() >= tripLimitPerSequenceLength) {
-					break; // Limit has been reached
-				}
-
 				AlonsoMoraTrip firstTrip = previousLevelTrips.get(i);
 				AlonsoMoraTrip secondTrip = previousLevelTrips.get(j);
 
-				Set<AlonsoMoraRequest> requests = new HashSet<>();
-				requests.addAll(firstTrip.getRequests());
-				requests.addAll(secondTrip.getRequests());
+				List<AlonsoMoraRequest> requestList = mergeRequests(firstTrip.getRequests(),
+						secondTrip.getRequests());
 
-				if (requests.size() == firstTrip.getRequests().size() + 1) {
+				if (requestList != null) {
 					// One more requests on a trip
 
-					boolean allSubtripsExist = true;
-					List<AlonsoMoraRequest> requestList = new ArrayList<>(requests);
-					Collections.sort(requestList);
+					TripKey key = TripKey.of(requestList);
 
-					boolean alreadyExists = false;
+					if (!tripKeys.get(level).contains(key) && checkedKeys.add(key)) {
+						boolean allSubtripsExist = true;
 
-					for (int k = 0; k < currentLevelTrips.size() && !alreadyExists; k++) {
-						if (checkSame(requestList, currentLevelTrips.get(k).getRequests())) {
-							alreadyExists = true;
-							break;
+						for (int k = 0; k < requestList.size() && allSubtripsExist; k++) {
+							allSubtripsExist = tripKeys.get(level - 1).contains(key.without(k));
+						}
+
+						if (allSubtripsExist) {
+							combinations.add(requestList);
+							hints.add(firstTrip.getResult());
 						}
 					}
+				}
+			}
+		}
 
-					if (!alreadyExists) {
-						for (int k = 0; k < requests.size() && allSubtripsExist; k++) {
-							List<AlonsoMoraRequest> reducedList = new ArrayList<>(requestList);
-							reducedList.remove(k);
+		// Second, calculate the routes. Large levels are split up into parallel tasks
+		// if the number of trips is not limited.
+		List<Optional<AlonsoMoraFunction.Result>> results = null;
 
-							boolean foundSubtrip = false;
+		if (parallelThreshold > 0 && tripLimitPerSequenceLength == 0 && combinations.size() > parallelThreshold) {
+			results = IntStream.range(0, combinations.size()).parallel() //
+					.mapToObj(k -> function.calculateRoute(combinations.get(k), vehicle, now, hints.get(k))) //
+					.collect(Collectors.toList());
+		}
 
-							for (AlonsoMoraTrip trip : trips.get(level - 1)) {
-								if (checkSame(reducedList, trip.getRequests())) {
-									foundSubtrip = true;
-									break;
-								}
-							}
+		List<AlonsoMoraTrip> currentLevelTrips = new ArrayList<>();
 
-							if (!foundSubtrip) {
-								allSubtripsExist = false;
-							}
-						}
+		for (int k = 0; k < combinations.size(); k++) {
+			if (tripLimitPerSequenceLength > 0 && trips.get(level).size() >= tripLimitPerSequenceLength) {
+				break; // Limit has been reached
+			}
 
-						if (allSubtripsExist) {
-							Optional<AlonsoMoraFunction.Result> result = function.calculateRoute(requestList, vehicle,
-									now);
-
-							if (result.isPresent()) {
-								AlonsoMoraTrip trip = new AlonsoMoraTrip(vehicle, requestList, result.get());
-								trips.get(level).add(trip);
-								currentLevelTrips.add(trip);
-							}
-						}
-					}
-				}
+			List<AlonsoMoraRequest> requestList = combinations.get(k);
+
+			Optional<AlonsoMoraFunction.Result> result = results != null ? results.get(k)
+					: function.calculateRoute(requestList, vehicle, now, hints.get(k));
+
+			if (result.isPresent()) {
+				AlonsoMoraTrip trip = new AlonsoMoraTrip(vehicle, requestList, result.get());
+				addTrip(level, trip);
+				currentLevelTrips.add(trip);
 			}
 		}
 
@@ -178,16 +206,62 @@ public class DefaultVehicleGraph implements VehicleGraph {
 	}
 
 	/**
-	 * This assumes that the lists are already ordered!
+	 * Merges the sorted requests of two trips of the same length if they differ in
+	 * exactly one request. Otherwise, null is returned, so no intermediate
+	 * collections are created for pairs of trips that cannot be combined.
 	 */
-	private boolean checkSame(List<AlonsoMoraRequest> first, List<AlonsoMoraRequest> second) {
-		for (int u = 0; u < first.size(); u++) {
-			if (first.get(u) != second.get(u)) {
-				return false;
+	static private List<AlonsoMoraRequest> mergeRequests(List<AlonsoMoraRequest> first,
+			List<AlonsoMoraRequest> second) {
+		int i = 0;
+		int j = 0;
+
+		// Number of requests of the first trip that are not part of the second one
+		int missing = 0;
+
+		while (i < first.size() && j < second.size() && missing < 2) {
+			int comparison = first.get(i).compareTo(second.get(j));
+
+			if (comparison == 0) {
+				i++;
+				j++;
+			} else if (comparison < 0) {
+				missing++;
+				i++;
+			} else {
+				j++;
+			}
+		}
+
+		missing += first.size() - i;
+
+		if (missing != 1 || first.size() != second.size()) {
+			return null;
+		}
+
+		List<AlonsoMoraRequest> merged = new ArrayList<>(first.size() + 1);
+		i = 0;
+		j = 0;
+
+		while (i < first.size() || j < second.size()) {
+			if (j == second.size()) {
+				merged.add(first.get(i++));
+			} else if (i == first.size()) {
+				merged.add(second.get(j++));
+			} else {
+				int comparison = first.get(i).compareTo(second.get(j));
+
+				if (comparison == 0) {
+					merged.add(first.get(i++));
+					j++;
+				} else if (comparison < 0) {
+					merged.add(first.get(i++));
+				} else {
+					merged.add(second.get(j++));
+				}
 			}
 		}
 
-		return true;
+		return merged;
 	}
 
 	@Override
@@ -202,10 +276,8 @@ public class DefaultVehicleGraph implements VehicleGraph {
 		Collections.sort(assignedRequests);
 
 		if (assignedRequests.size() > 0) {
-			for (AlonsoMoraTrip candidate : trips.get(assignedRequests.size() - 1)) {
-				if (checkSame(candidate.getRequests(), assignedRequests)) {
-					return; // Sequence is already included in the optimization set.
-				}
+			if (tripKeys.get(assignedRequests.size() - 1).contains(TripKey.of(assignedRequests))) {
+				return; // Sequence is already included in the optimization set.
 			}
 
 			// Sequence does not exist anymore, so add it manually if feasible.
@@ -213,9 +285,92 @@ public class DefaultVehicleGraph implements VehicleGraph {
 
 			if (result.isPresent()) {
 				AlonsoMoraTrip trip = new AlonsoMoraTrip(vehicle, assignedRequests, result.get());
-				trips.get(assignedRequests.size() - 1).add(trip);
+				addTrip(assignedRequests.size() - 1, trip);
+			}
+		}
+	}
+
+	@Override
+	public void removeRequest(AlonsoMoraRequest request) {
+		Verify.verify(requests.remove(request), "Request is not registered");
+
+		for (int level = 0; level < trips.size(); level++) {
+			Set<TripKey> levelKeys = tripKeys.get(level);
+
+			trips.get(level).removeIf(trip -> {
+				if (containsRequest(trip, request)) {
+					levelKeys.remove(TripKey.of(trip.getRequests()));
+					return true;
+				}
+
+				return false;
+			});
+		}
+	}
+
+	private boolean containsRequest(AlonsoMoraTrip trip, AlonsoMoraRequest request) {
+		for (AlonsoMoraRequest tripRequest : trip.getRequests()) {
+			if (tripRequest == request) {
+				return true;
 			}
 		}
+
+		return false;
+	}
+
+	/**
+	 * Revalidates the trips level by level, so the same conditions as during
+	 * construction apply: a trip is only kept if all its sub-trips have been kept,
+	 * pairs need to be shareable in the request graph, and the route needs to be
+	 * feasible at the current time. Requests whose single trip is not feasible
+	 * anymore are unregistered, so they are evaluated again when they are added.
+	 */
+	@Override
+	public void revalidate(double now) {
+		for (int level = 0; level < trips.size(); level++) {
+			int currentLevel = level;
+
+			trips.get(level).removeIf(trip -> {
+				TripKey key = TripKey.of(trip.getRequests());
+
+				boolean isValid = true;
+
+				for (int k = 0; k < trip.getLength() && isValid && currentLevel > 0; k++) {
+					isValid = tripKeys.get(currentLevel - 1).contains(key.without(k));
+				}
+
+				if (isValid && currentLevel == 1) {
+					isValid = requestGraph.getShareableRequests(trip.getRequests().get(0))
+							.contains(trip.getRequests().get(1));
+				}
+
+				if (isValid) {
+					Optional<AlonsoMoraFunction.Result> result = function.calculateRoute(trip.getRequests(), vehicle,
+							now);
+
+					if (result.isPresent()) {
+						trip.setResult(result.get());
+					} else {
+						isValid = false;
+					}
+				}
+
+				if (!isValid) {
+					tripKeys.get(currentLevel).remove(key);
+
+					if (currentLevel == 0) {
+						requests.remove(trip.getRequests().get(0));
+					}
+				}
+
+				return !isValid;
+			});
+		}
+	}
+
+	@Override
+	public Collection<AlonsoMoraRequest> getRequests() {
+		return Collections.unmodifiableSet(requests);
 	}
 
 	@Override
@@ -5,16 +5,37 @@ import java.util.Collection;
 import org.matsim.alonso_mora.algorithm.AlonsoMoraRequest;
 
 /**
- * Represents a shareability graph between requests
- * 
+ * Represents a shareability graph between requests. The graph is maintained
+ * across dispatching steps: requests are added when they enter the system and
+ * removed once they are not assignable anymore. In between, existing edges are
+ * revalidated as time advances.
+ *
  * @author sebhoerl
  */
 public interface RequestGraph {
 
 	void addRequest(AlonsoMoraRequest request, double now);
 
+	/**
+	 * Adds multiple requests at once. The result is the same as adding them one by
+	 * one, but all pairs of requests can be checked in one pass.
+	 */
+	void addRequests(Collection<AlonsoMoraRequest> requests, double now);
+
+	void removeRequest(AlonsoMoraRequest request);
+
+	/**
+	 * Re-checks the existing edges of the graph for the current time and removes
+	 * those that are not shareable anymore.
+	 */
+	void revalidate(double now);
+
+	boolean containsRequest(AlonsoMoraRequest request);
+
+	Collection<AlonsoMoraRequest> getRequests();
+
 	Collection<AlonsoMoraRequest> getShareableRequests(AlonsoMoraRequest request);
 
 	int getSize();
 
-}
\ No newline at end of file
+}
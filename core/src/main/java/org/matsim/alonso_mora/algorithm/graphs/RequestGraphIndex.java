@@ -0,0 +1,182 @@
+package org.matsim.alonso_mora.algorithm.graphs;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.matsim.alonso_mora.algorithm.AlonsoMoraRequest;
+import org.matsim.alonso_mora.travel_time.TravelTimeLowerBound;
+import org.matsim.api.core.v01.network.Link;
+
+import com.google.common.base.Verify;
+
+/**
+ * Spatio-temporal index over the requests in the shareability graph. It is used
+ * to find the requests that may be shareable with a new request without
+ * checking all existing requests in detail.
+ *
+ * Two requests can only be shared if the request that is picked up first
+ * leaves its pickup location early enough such that the other pickup can be
+ * reached before its planned pickup time. Otherwise, not even the pickups of
+ * both requests can be served. This necessary condition is checked using the
+ * pickup time windows of the requests and a {@link TravelTimeLowerBound}. If
+ * the bound is enabled, requests are kept in a grid over their pickup
+ * locations, and only grid cells in reach of the new request are scanned.
+ *
+ * @author sebhoerl
+ */
+class RequestGraphIndex {
+	private final TravelTimeLowerBound bound;
+	private final double cellSize;
+
+	private final Map<AlonsoMoraRequest, Entry> entries = new HashMap<>();
+	private final Map<Long, List<Entry>> cells = new HashMap<>();
+
+	private double maximumRadius = 0.0;
+	private double maximumPlannedPickupTime = Double.NEGATIVE_INFINITY;
+
+	RequestGraphIndex(TravelTimeLowerBound bound, double cellSize) {
+		this.bound = bound;
+		this.cellSize = cellSize;
+	}
+
+	void addRequest(AlonsoMoraRequest request) {
+		Entry entry = new Entry(request);
+		Verify.verify(entries.put(request, entry) == null);
+
+		maximumPlannedPickupTime = Math.max(maximumPlannedPickupTime, entry.plannedPickupTime);
+
+		if (bound.isEnabled()) {
+			cells.computeIfAbsent(entry.cell, c -> new ArrayList<>()).add(entry);
+			maximumRadius = Math.max(maximumRadius, entry.radius);
+		}
+	}
+
+	void removeRequest(AlonsoMoraRequest request) {
+		Entry entry = entries.remove(request);
+		Verify.verifyNotNull(entry);
+
+		if (bound.isEnabled()) {
+			List<Entry> cell = cells.get(entry.cell);
+			cell.remove(entry);
+
+			if (cell.size() == 0) {
+				cells.remove(entry.cell);
+			}
+		}
+	}
+
+	/**
+	 * Returns all requests in the index that fulfill the necessary condition for
+	 * being shareable with the given request at the given time.
+	 */
+	List<AlonsoMoraRequest> getCandidates(AlonsoMoraRequest request, double now) {
+		Entry entry = new Entry(request);
+		List<AlonsoMoraRequest> candidates = new ArrayList<>();
+
+		double startTime = Math.max(now, entry.earliestPickupTime);
+
+		if (startTime > entry.plannedPickupTime) {
+			return candidates; // request itself cannot be picked up anymore
+		}
+
+		if (!bound.isEnabled()) {
+			collect(entries.values(), entry, now, candidates);
+			return candidates;
+		}
+
+		// Any candidate needs to be reachable within the time windows
+		double maximumTime = Math.max(entry.plannedPickupTime - now, maximumPlannedPickupTime - startTime);
+		double maximumDistance = bound.getMaximumDistance(maximumTime) + entry.radius + maximumRadius;
+		double cellRange = Math.floor(maximumDistance / cellSize) + 1.0;
+
+		int centerX = getCellX(entry.cell);
+		int centerY = getCellY(entry.cell);
+
+		if ((2.0 * cellRange + 1.0) * (2.0 * cellRange + 1.0) <= cells.size()) {
+			int range = (int) cellRange;
+
+			for (int x = centerX - range; x <= centerX + range; x++) {
+				for (int y = centerY - range; y <= centerY + range; y++) {
+					List<Entry> cell = cells.get(getCell(x, y));
+
+					if (cell != null) {
+						collect(cell, entry, now, candidates);
+					}
+				}
+			}
+		} else {
+			for (Map.Entry<Long, List<Entry>> cell : cells.entrySet()) {
+				if (Math.abs((double) getCellX(cell.getKey()) - centerX) <= cellRange
+						&& Math.abs((double) getCellY(cell.getKey()) - centerY) <= cellRange) {
+					collect(cell.getValue(), entry, now, candidates);
+				}
+			}
+		}
+
+		return candidates;
+	}
+
+	private void collect(Collection<Entry> entries, Entry entry, double now, List<AlonsoMoraRequest> candidates) {
+		for (Entry other : entries) {
+			if (other.request != entry.request && isCandidate(entry, other, now)) {
+				candidates.add(other.request);
+			}
+		}
+	}
+
+	private boolean isCandidate(Entry first, Entry second, double now) {
+		double firstStartTime = Math.max(now, first.earliestPickupTime);
+		double secondStartTime = Math.max(now, second.earliestPickupTime);
+
+		if (firstStartTime > first.plannedPickupTime || secondStartTime > second.plannedPickupTime) {
+			return false;
+		}
+
+		double travelTime = bound.getTravelTime(first.link, second.link);
+
+		return firstStartTime + travelTime <= second.plannedPickupTime
+				|| secondStartTime + travelTime <= first.plannedPickupTime;
+	}
+
+	private long getCell(int x, int y) {
+		return (((long) x) << 32) | (y & 0xFFFFFFFFL);
+	}
+
+	private int getCellX(long cell) {
+		return (int) (cell >> 32);
+	}
+
+	private int getCellY(long cell) {
+		return (int) cell;
+	}
+
+	private class Entry {
+		final AlonsoMoraRequest request;
+		final Link link;
+
+		final double earliestPickupTime;
+		final double plannedPickupTime;
+
+		final double radius;
+		final long cell;
+
+		Entry(AlonsoMoraRequest request) {
+			this.request = request;
+			this.link = request.getPickupLink();
+			this.earliestPickupTime = request.getEarliestPickupTime();
+			this.plannedPickupTime = request.getPlannedPickupTime();
+
+			if (bound.isEnabled()) {
+				this.radius = TravelTimeLowerBound.getRadius(link);
+				this.cell = getCell((int) Math.floor(link.getCoord().getX() / cellSize),
+						(int) Math.floor(link.getCoord().getY() / cellSize));
+			} else {
+				this.radius = 0.0;
+				this.cell = 0;
+			}
+		}
+	}
+}
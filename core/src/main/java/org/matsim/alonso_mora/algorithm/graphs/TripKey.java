@@ -0,0 +1,98 @@
+package org.matsim.alonso_mora.algorithm.graphs;
+
+import java.util.List;
+
+import org.matsim.alonso_mora.algorithm.AlonsoMoraRequest;
+
+import com.google.common.base.Verify;
+
+/**
+ * Identifies a trip in the vehicle graph by its sorted list of requests. The
+ * hash is a signature obtained by summing up a hashed value per request, which
+ * does not depend on the order of the requests. This way, the key of a sub-trip
+ * with one request less can be derived from the key of the trip in constant
+ * time without copying the list of requests (see {@link #without(int)}).
+ *
+ * Equality is checked by comparing the requests one by one on identity, so
+ * colliding signatures do not lead to wrong results.
+ *
+ * @author sebhoerl
+ */
+final class TripKey {
+	private final List<AlonsoMoraRequest> requests;
+	private final int excludedIndex;
+	private final long signature;
+
+	private TripKey(List<AlonsoMoraRequest> requests, int excludedIndex, long signature) {
+		this.requests = requests;
+		this.excludedIndex = excludedIndex;
+		this.signature = signature;
+	}
+
+	/**
+	 * Creates a key for a list of requests. The list must be sorted and must not
+	 * be modified while the key is in use.
+	 */
+	static TripKey of(List<AlonsoMoraRequest> sortedRequests) {
+		long signature = 0;
+
+		for (AlonsoMoraRequest request : sortedRequests) {
+			signature += hash(request);
+		}
+
+		return new TripKey(sortedRequests, -1, signature);
+	}
+
+	/**
+	 * Returns the key of the trip that is obtained by removing the request at the
+	 * given index.
+	 */
+	TripKey without(int index) {
+		Verify.verify(excludedIndex == -1, "Can only remove one request from a key");
+		return new TripKey(requests, index, signature - hash(requests.get(index)));
+	}
+
+	int size() {
+		return excludedIndex == -1 ? requests.size() : requests.size() - 1;
+	}
+
+	private AlonsoMoraRequest get(int index) {
+		return excludedIndex != -1 && index >= excludedIndex ? requests.get(index + 1) : requests.get(index);
+	}
+
+	@Override
+	public boolean equals(Object otherObject) {
+		if (!(otherObject instanceof TripKey)) {
+			return false;
+		}
+
+		TripKey other = (TripKey) otherObject;
+
+		if (signature != other.signature || size() != other.size()) {
+			return false;
+		}
+
+		for (int i = 0; i < size(); i++) {
+			if (get(i) != other.get(i)) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	@Override
+	public int hashCode() {
+		return Long.hashCode(signature);
+	}
+
+	/**
+	 * Spreads the hash code of a request over 64 bits (SplitMix64 finalizer).
+	 */
+	static private long hash(AlonsoMoraRequest request) {
+		long value = request.hashCode() + 0x9E3779B97F4A7C15L;
+		value = (value ^ (value >>> 30)) * 0xBF58476D1CE4E5B9L;
+		value = (value ^ (value >>> 27)) * 0x94D049BB133111EBL;
+		return value ^ (value >>> 31);
+	}
+}
@@ -1,5 +1,6 @@
 package org.matsim.alonso_mora.algorithm.graphs;
 
+import java.util.Collection;
 import java.util.stream.Stream;
 
 import org.matsim.alonso_mora.algorithm.AlonsoMoraRequest;
@@ -7,7 +8,9 @@ import org.matsim.alonso_mora.algorithm.AlonsoMoraTrip;
 import org.matsim.alonso_mora.algorithm.function.AlonsoMoraFunction;
 
 /**
- * Represents a trip-vehicle graph
+ * Represents a trip-vehicle graph. The graph can be kept across dispatching
+ * steps: requests that are not relevant anymore are removed, the existing trips
+ * are revalidated for the current time, and new requests are added.
  * 
  * @author sebhoerl
  */
@@ -17,6 +20,20 @@ public interface VehicleGraph {
 
 	void addRequest(AlonsoMoraRequest request, double now, AlonsoMoraFunction.Result result);
 
+	/**
+	 * Removes a request and all trips that contain it.
+	 */
+	void removeRequest(AlonsoMoraRequest request);
+
+	/**
+	 * Recalculates the routes of all trips for the current time. Trips that are
+	 * not feasible anymore are removed, as well as trips that cannot be constructed
+	 * anymore from the remaining trips.
+	 */
+	void revalidate(double now);
+
+	Collection<AlonsoMoraRequest> getRequests();
+
 	Stream<AlonsoMoraTrip> stream();
 
 	int getSize();
@@ -1,7 +1,6 @@
 package org.matsim.alonso_mora.travel_time;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
 import org.matsim.api.core.v01.network.Link;
@@ -31,14 +30,14 @@ import org.matsim.core.router.util.TravelTime;
 public class LazyMatrixTravelTimeEstimator implements TravelTimeEstimator {
 	static public final String TYPE = "LazyMatrix";
 	
-	private final List<Integer> id2matrix;
+	private final int[] id2matrix;
 	private final double[][] matrix;
 
 	private final TravelTime travelTime;
 	private final LeastCostPathCalculator router;
 	private final double matrixDepartureTime;
 
-	LazyMatrixTravelTimeEstimator(List<Integer> id2matrix, double[][] matrix, TravelTime travelTime,
+	LazyMatrixTravelTimeEstimator(int[] id2matrix, double[][] matrix, TravelTime travelTime,
 			LeastCostPathCalculator router, double matrixDepartureTime) {
 		this.matrix = matrix;
 		this.id2matrix = id2matrix;
@@ -53,8 +52,8 @@ public class LazyMatrixTravelTimeEstimator implements TravelTimeEstimator {
 			return 0.0;
 		}
 
-		int originIndex = id2matrix.get(fromLink.getToNode().getId().index());
-		int destinationIndex = id2matrix.get(toLink.getFromNode().getId().index());
+		int originIndex = id2matrix[fromLink.getToNode().getId().index()];
+		int destinationIndex = id2matrix[toLink.getFromNode().getId().index()];
 
 		double computedTravelTime = matrix[originIndex][destinationIndex];
 
@@ -85,16 +84,7 @@ public class LazyMatrixTravelTimeEstimator implements TravelTimeEstimator {
 			LeastCostPathCalculatorFactory routerFactory, double departureTime) {
 		List<Node> nodes = new ArrayList<>(network.getNodes().values());
 
-		/*
-		 * Create index matrix for rapid look-up
-		 */
-
-		int maximumIndex = nodes.stream().mapToInt(n -> n.getId().index()).max().getAsInt();
-		List<Integer> id2matrix = new ArrayList<>(Collections.nCopies(maximumIndex + 1, -1));
-
-		for (int index = 0; index < nodes.size(); index++) {
-			id2matrix.set(nodes.get(index).getId().index(), index);
-		}
+		int[] id2matrix = MatrixTravelTimeEstimator.createIndex(nodes);
 
 		/*
 		 * Perform calculation of travel time
@@ -0,0 +1,44 @@
+package org.matsim.alonso_mora.travel_time;
+
+/**
+ * Defines how the node-to-node travel times of the
+ * {@link MatrixTravelTimeEstimator} are stored, both on the heap and in the
+ * files of the {@link MatrixTravelTimeCache}.
+ *
+ * <ul>
+ * <li>Double: Eight bytes per value, travel times are exact.</li>
+ * <li>Float: Four bytes per value, travel times are rounded to the nearest
+ * float. The relative error is at most 2^-24, which is below 6 ms for travel
+ * times of up to a day.</li>
+ * <li>Seconds: Two bytes per value, travel times are rounded to the nearest
+ * full second, so the absolute error is at most 0.5 s. Travel times that cannot
+ * be represented this way, i.e. negative ones and those of 65535 s (about 18
+ * hours) and more, are marked and kept exactly in a separate table.</li>
+ * </ul>
+ *
+ * @author sebhoerl
+ */
+public enum MatrixEncoding {
+	Double(8), Float(4), Seconds(2);
+
+	final int valueBytes;
+
+	MatrixEncoding(int valueBytes) {
+		this.valueBytes = valueBytes;
+	}
+
+	/**
+	 * Marks travel times that are kept separately in the Seconds encoding.
+	 */
+	static final char SECONDS_OVERFLOW = Character.MAX_VALUE;
+
+	static char encodeSeconds(double travelTime) {
+		double roundedTravelTime = Math.rint(travelTime);
+
+		if (roundedTravelTime >= 0.0 && roundedTravelTime < SECONDS_OVERFLOW) {
+			return (char) roundedTravelTime;
+		}
+
+		return SECONDS_OVERFLOW;
+	}
+}
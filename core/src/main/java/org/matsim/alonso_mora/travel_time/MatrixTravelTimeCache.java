@@ -0,0 +1,479 @@
+package org.matsim.alonso_mora.travel_time;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.router.util.TravelTime;
+
+/**
+ * Stores the node-to-node travel times of the {@link MatrixTravelTimeEstimator}
+ * in a directory, so that the matrix only needs to be calculated once. In later
+ * runs, the file is memory-mapped instead of calculating the matrix and keeping
+ * it on the heap. This way, the matrix is available after a few seconds and
+ * concurrent runs share the same pages of the operating system.
+ *
+ * Files are identified by a hash of the network, the departure time and a hash
+ * of the travel time source. The latter covers the implementation of the
+ * {@link TravelTime} and the travel times of all links at the departure time.
+ * If any of them changes, a new file is calculated. The file starts with a
+ * header that repeats these values together with a version of the format and
+ * the {@link MatrixEncoding}, followed by the node identifiers in matrix order,
+ * the travel times row by row and the travel times that are kept separately by
+ * the encoding. Files are written to a temporary file first and then moved into place,
+ * so concurrent runs never see incomplete files.
+ *
+ * The cache therefore only helps if the travel times are the same across runs
+ * or iterations, for instance if they are based on the free speed. Once a new
+ * matrix has been written, the files of the same network, departure time and
+ * encoding with other travel times are deleted, so that re-estimated travel
+ * times do not fill up the directory with a full matrix per iteration.
+ *
+ * @author sebhoerl
+ */
+public class MatrixTravelTimeCache {
+	private final static Logger logger = LogManager.getLogger(MatrixTravelTimeCache.class);
+
+	static final int MAGIC = 0x414d5454; // AMTT
+	static final int VERSION = 2;
+
+	private final File directory;
+	private final MatrixEncoding encoding;
+
+	public MatrixTravelTimeCache(File directory) {
+		this(directory, MatrixEncoding.Double);
+	}
+
+	public MatrixTravelTimeCache(File directory, MatrixEncoding encoding) {
+		this.directory = directory;
+		this.encoding = encoding;
+	}
+
+	/**
+	 * Maps the travel time matrix of the network from the directory. If no
+	 * matching file exists, the matrix is calculated and written first.
+	 */
+	public MatrixTravelTimeEstimator createEstimator(Network network, TravelTime travelTime, double departureTime) {
+		return createEstimator(network, travelTime, departureTime, null);
+	}
+
+	/**
+	 * Maps the travel time matrix of the network from the directory. If no
+	 * matching file exists, the matrix is calculated, in parallel if a pool is
+	 * given, and written first.
+	 */
+	public MatrixTravelTimeEstimator createEstimator(Network network, TravelTime travelTime, double departureTime,
+			ForkJoinPool pool) {
+		// Sort the nodes so that the matrix order does not depend on the loading order
+		List<Node> nodes = new ArrayList<>(network.getNodes().values());
+		nodes.sort(Comparator.comparing(node -> node.getId().toString()));
+
+		List<Link> links = new ArrayList<>(network.getLinks().values());
+		links.sort(Comparator.comparing(link -> link.getId().toString()));
+
+		Header header = new Header(calculateNetworkHash(nodes, links),
+				calculateSourceHash(links, travelTime, departureTime), departureTime, nodes.size(), encoding);
+
+		File file = new File(directory, String.format("travel_times_%016x_%016x_%d_%s.bin", header.networkHash,
+				header.sourceHash, (long) departureTime, encoding.name().toLowerCase()));
+
+		try {
+			if (file.exists()) {
+				Optional<MatrixTravelTimeEstimator> estimator = read(file, header, network, travelTime);
+
+				if (estimator.isPresent()) {
+					logger.info("Using travel time matrix from " + file);
+					return estimator.get();
+				}
+
+				logger.warn("Travel time matrix in " + file + " does not match the network, recalculating");
+			}
+
+			int[] id2matrix = MatrixTravelTimeEstimator.createIndex(nodes);
+
+			write(file, header, nodes, consumer -> {
+				MatrixTravelTimeEstimator.calculateRows(network, nodes, id2matrix, travelTime, departureTime, pool,
+						consumer);
+			});
+
+			logger.info("Travel time matrix written to " + file);
+			deleteSupersededFiles(file, header);
+
+			return read(file, header, network, travelTime).orElseThrow(
+					() -> new IllegalStateException("Travel time matrix could not be read from " + file));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Deletes the matrices of the same network, departure time and encoding that
+	 * have been calculated from other travel times. Each of them is as large as the
+	 * new one, and they are only used again if the travel times change back.
+	 * Files that are still mapped by other runs stay readable for them on most
+	 * systems, otherwise they are kept.
+	 */
+	private void deleteSupersededFiles(File file, Header header) {
+		String prefix = String.format("travel_times_%016x_", header.networkHash);
+		String suffix = String.format("_%d_%s.bin", (long) header.departureTime, encoding.name().toLowerCase());
+
+		File[] files = file.getAbsoluteFile().getParentFile().listFiles();
+
+		if (files == null) {
+			return;
+		}
+
+		for (File other : files) {
+			String name = other.getName();
+
+			if (name.startsWith(prefix) && name.endsWith(suffix) && !name.equals(file.getName())) {
+				if (other.delete()) {
+					logger.info("Deleted superseded travel time matrix " + other);
+				} else {
+					logger.warn("Could not delete superseded travel time matrix " + other);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Values that identify a travel time matrix.
+	 */
+	static class Header {
+		final long networkHash;
+		final long sourceHash;
+		final double departureTime;
+		final int numberOfNodes;
+		final MatrixEncoding encoding;
+
+		Header(long networkHash, long sourceHash, double departureTime, int numberOfNodes, MatrixEncoding encoding) {
+			this.networkHash = networkHash;
+			this.sourceHash = sourceHash;
+			this.departureTime = departureTime;
+			this.numberOfNodes = numberOfNodes;
+			this.encoding = encoding;
+		}
+	}
+
+	interface RowSource {
+		void calculateRows(MatrixTravelTimeEstimator.RowConsumer consumer);
+	}
+
+	/**
+	 * Writes the header and the travel times provided by the row source. Rows are
+	 * written at their position in the file, so they may be provided in any
+	 * order and from multiple threads. Travel times that are kept separately in
+	 * the Seconds encoding are appended after the rows, ordered by their position
+	 * in the matrix.
+	 */
+	static void write(File file, Header header, List<Node> nodes, RowSource source) throws IOException {
+		ByteArrayOutputStream identifiers = new ByteArrayOutputStream();
+
+		try (DataOutputStream outputStream = new DataOutputStream(identifiers)) {
+			for (Node node : nodes) {
+				outputStream.writeUTF(node.getId().toString());
+			}
+		}
+
+		// Magic, version, hashes, departure time, encoding, nodes and data offset
+		int headerSize = 4 + 4 + 8 + 8 + 8 + 4 + 4 + 8;
+		long dataOffset = headerSize + identifiers.size();
+
+		ByteArrayOutputStream prefix = new ByteArrayOutputStream();
+
+		try (DataOutputStream outputStream = new DataOutputStream(prefix)) {
+			outputStream.writeInt(MAGIC);
+			outputStream.writeInt(VERSION);
+			outputStream.writeLong(header.networkHash);
+			outputStream.writeLong(header.sourceHash);
+			outputStream.writeDouble(header.departureTime);
+			outputStream.writeInt(header.encoding.ordinal());
+			outputStream.writeInt(header.numberOfNodes);
+			outputStream.writeLong(dataOffset);
+			identifiers.writeTo(outputStream);
+		}
+
+		File parent = file.getAbsoluteFile().getParentFile();
+		parent.mkdirs();
+
+		Path temporaryPath = Files.createTempFile(parent.toPath(), file.getName(), ".tmp");
+
+		try {
+			try (FileChannel channel = FileChannel.open(temporaryPath, StandardOpenOption.WRITE)) {
+				writeFully(channel, ByteBuffer.wrap(prefix.toByteArray()), 0);
+
+				int numberOfNodes = header.numberOfNodes;
+				long rowSize = (long) numberOfNodes * header.encoding.valueBytes;
+
+				Map<Long, Double> overflow = new ConcurrentHashMap<>();
+
+				source.calculateRows((originIndex, row) -> {
+					ByteBuffer buffer = ByteBuffer.allocate((int) rowSize);
+
+					for (int destinationIndex = 0; destinationIndex < numberOfNodes; destinationIndex++) {
+						double travelTime = row[destinationIndex];
+
+						switch (header.encoding) {
+							case Double:
+								buffer.putDouble(travelTime);
+								break;
+							case Float:
+								buffer.putFloat((float) travelTime);
+								break;
+							case Seconds:
+								char value = MatrixEncoding.encodeSeconds(travelTime);
+								buffer.putChar(value);
+
+								if (value == MatrixEncoding.SECONDS_OVERFLOW) {
+									overflow.put((long) originIndex * numberOfNodes + destinationIndex, travelTime);
+								}
+
+								break;
+							default:
+								throw new IllegalStateException();
+						}
+					}
+
+					buffer.flip();
+
+					try {
+						writeFully(channel, buffer, dataOffset + originIndex * rowSize);
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				});
+
+				ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES + overflow.size() * (Long.BYTES + Double.BYTES));
+				buffer.putInt(overflow.size());
+
+				for (var entry : new TreeMap<>(overflow).entrySet()) {
+					buffer.putLong(entry.getKey());
+					buffer.putDouble(entry.getValue());
+				}
+
+				buffer.flip();
+				writeFully(channel, buffer, dataOffset + numberOfNodes * rowSize);
+
+				channel.force(false);
+			}
+
+			Files.move(temporaryPath, file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temporaryPath);
+		}
+	}
+
+	static private void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+	}
+
+	/**
+	 * Maps the travel times from the file if its header matches the expected
+	 * values and all nodes can be found in the network.
+	 */
+	static Optional<MatrixTravelTimeEstimator> read(File file, Header header, Network network, TravelTime travelTime)
+			throws IOException {
+		List<Node> nodes = new ArrayList<>(header.numberOfNodes);
+		long dataOffset;
+
+		try (DataInputStream inputStream = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(file)))) {
+			if (inputStream.readInt() != MAGIC || inputStream.readInt() != VERSION
+					|| inputStream.readLong() != header.networkHash || inputStream.readLong() != header.sourceHash
+					|| inputStream.readDouble() != header.departureTime
+					|| inputStream.readInt() != header.encoding.ordinal()
+					|| inputStream.readInt() != header.numberOfNodes) {
+				return Optional.empty();
+			}
+
+			dataOffset = inputStream.readLong();
+
+			for (int index = 0; index < header.numberOfNodes; index++) {
+				Node node = network.getNodes().get(Id.create(inputStream.readUTF(), Node.class));
+
+				if (node == null) {
+					return Optional.empty();
+				}
+
+				nodes.add(node);
+			}
+		}
+
+		long rowSize = (long) header.numberOfNodes * header.encoding.valueBytes;
+		long overflowOffset = dataOffset + rowSize * header.numberOfNodes;
+
+		if (file.length() < overflowOffset + Integer.BYTES) {
+			return Optional.empty();
+		}
+
+		// A single buffer can only cover 2 GB, so the rows are mapped in blocks
+		int rowsPerBlock = (int) Math.max(1, Integer.MAX_VALUE / Math.max(1, rowSize));
+		int numberOfBlocks = (header.numberOfNodes + rowsPerBlock - 1) / rowsPerBlock;
+		ByteBuffer[] blocks = new ByteBuffer[numberOfBlocks];
+
+		Map<Long, Double> overflow = new HashMap<>();
+
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer overflowBuffer = channel.map(MapMode.READ_ONLY, overflowOffset,
+					channel.size() - overflowOffset);
+			int numberOfOverflows = overflowBuffer.getInt();
+
+			if (overflowBuffer.remaining() != (long) numberOfOverflows * (Long.BYTES + Double.BYTES)) {
+				return Optional.empty();
+			}
+
+			for (int k = 0; k < numberOfOverflows; k++) {
+				overflow.put(overflowBuffer.getLong(), overflowBuffer.getDouble());
+			}
+
+			for (int block = 0; block < numberOfBlocks; block++) {
+				int numberOfRows = Math.min(rowsPerBlock, header.numberOfNodes - block * rowsPerBlock);
+				blocks[block] = channel.map(MapMode.READ_ONLY, dataOffset + block * rowsPerBlock * rowSize,
+						numberOfRows * rowSize);
+			}
+		}
+
+		MappedStorage storage = new MappedStorage(blocks, rowsPerBlock, header.numberOfNodes, header.encoding,
+				overflow);
+		return Optional.of(
+				new MatrixTravelTimeEstimator(MatrixTravelTimeEstimator.createIndex(nodes), storage, travelTime));
+	}
+
+	/**
+	 * Travel times that are read from memory-mapped blocks of rows.
+	 */
+	static class MappedStorage implements MatrixTravelTimeEstimator.Storage {
+		private final ByteBuffer[] blocks;
+		private final int rowsPerBlock;
+		private final int numberOfNodes;
+
+		private final MatrixEncoding encoding;
+		private final Map<Long, Double> overflow;
+
+		MappedStorage(ByteBuffer[] blocks, int rowsPerBlock, int numberOfNodes, MatrixEncoding encoding,
+				Map<Long, Double> overflow) {
+			this.blocks = blocks;
+			this.rowsPerBlock = rowsPerBlock;
+			this.numberOfNodes = numberOfNodes;
+			this.encoding = encoding;
+			this.overflow = overflow;
+		}
+
+		@Override
+		public double getTravelTime(int originIndex, int destinationIndex) {
+			ByteBuffer block = blocks[originIndex / rowsPerBlock];
+			int offset = ((originIndex % rowsPerBlock) * numberOfNodes + destinationIndex) * encoding.valueBytes;
+
+			switch (encoding) {
+				case Double:
+					return block.getDouble(offset);
+				case Float:
+					return block.getFloat(offset);
+				case Seconds:
+					char value = block.getChar(offset);
+
+					if (value == MatrixEncoding.SECONDS_OVERFLOW) {
+						return overflow.get((long) originIndex * numberOfNodes + destinationIndex);
+					}
+
+					return value;
+				default:
+					throw new IllegalStateException();
+			}
+		}
+	}
+
+	/**
+	 * Covers the identifiers and the topology of the network, as well as the
+	 * properties of the links that are used for routing.
+	 */
+	static long calculateNetworkHash(List<Node> nodes, List<Link> links) {
+		return calculateHash(outputStream -> {
+			outputStream.writeInt(nodes.size());
+
+			for (Node node : nodes) {
+				outputStream.writeUTF(node.getId().toString());
+			}
+
+			outputStream.writeInt(links.size());
+
+			for (Link link : links) {
+				outputStream.writeUTF(link.getId().toString());
+				outputStream.writeUTF(link.getFromNode().getId().toString());
+				outputStream.writeUTF(link.getToNode().getId().toString());
+				outputStream.writeDouble(link.getLength());
+				outputStream.writeDouble(link.getFreespeed());
+			}
+		});
+	}
+
+	/**
+	 * Covers the implementation of the travel time and the link travel times at
+	 * the departure time.
+	 */
+	static long calculateSourceHash(List<Link> links, TravelTime travelTime, double departureTime) {
+		return calculateHash(outputStream -> {
+			outputStream.writeUTF(travelTime.getClass().getName());
+			outputStream.writeDouble(departureTime);
+
+			for (Link link : links) {
+				outputStream.writeDouble(travelTime.getLinkTravelTime(link, departureTime, null, null));
+			}
+		});
+	}
+
+	private interface HashWriter {
+		void write(DataOutputStream outputStream) throws IOException;
+	}
+
+	static private long calculateHash(HashWriter writer) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+
+			try (DataOutputStream outputStream = new DataOutputStream(
+					new DigestOutputStream(OutputStream.nullOutputStream(), digest))) {
+				writer.write(outputStream);
+			}
+
+			return ByteBuffer.wrap(digest.digest()).getLong();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
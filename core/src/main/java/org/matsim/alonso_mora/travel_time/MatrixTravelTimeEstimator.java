@@ -1,8 +1,13 @@
 package org.matsim.alonso_mora.travel_time;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
 
 import org.matsim.api.core.v01.network.Link;
 import org.matsim.api.core.v01.network.Network;
@@ -20,17 +25,22 @@ import org.matsim.utils.leastcostpathtree.LeastCostPathTree;
  * If the network is not time-varying and no congestion is simulated, this means
  * that the exact travel time is reproduced.
  * 
+ * The node-to-node travel times are either kept on the heap or they are
+ * memory-mapped from a file (see {@link MatrixTravelTimeCache}). In both cases,
+ * they may be stored in a compact way at the cost of a bounded error (see
+ * {@link MatrixEncoding}).
+ * 
  * @author sebhoerl
  */
 public class MatrixTravelTimeEstimator implements TravelTimeEstimator {
 	static public final String TYPE = "Matrix";
 	
-	private final List<Integer> id2matrix;
-	private final double[][] matrix;
+	private final int[] id2matrix;
+	private final Storage matrix;
 
 	private final TravelTime travelTime;
 
-	MatrixTravelTimeEstimator(List<Integer> id2matrix, double[][] matrix, TravelTime travelTime) {
+	MatrixTravelTimeEstimator(int[] id2matrix, Storage matrix, TravelTime travelTime) {
 		this.matrix = matrix;
 		this.id2matrix = id2matrix;
 		this.travelTime = travelTime;
@@ -44,10 +54,10 @@ public class MatrixTravelTimeEstimator implements TravelTimeEstimator {
 
 		// Travel time is calculated from "to node" of the origin link and to the "from
 		// node" of the destination link
-		int originIndex = id2matrix.get(fromLink.getToNode().getId().index());
-		int destinationIndex = id2matrix.get(toLink.getFromNode().getId().index());
+		int originIndex = id2matrix[fromLink.getToNode().getId().index()];
+		int destinationIndex = id2matrix[toLink.getFromNode().getId().index()];
 
-		double computedTravelTime = matrix[originIndex][destinationIndex];
+		double computedTravelTime = matrix.getTravelTime(originIndex, destinationIndex);
 
 		// We need to add a delay for entering the first link on the route
 		computedTravelTime += VrpPaths.FIRST_LINK_TT;
@@ -65,45 +75,221 @@ public class MatrixTravelTimeEstimator implements TravelTimeEstimator {
 	}
 
 	static public MatrixTravelTimeEstimator create(Network network, TravelTime travelTime, double departureTime) {
+		return create(network, travelTime, departureTime, null, MatrixEncoding.Double);
+	}
+
+	/**
+	 * Calculates the matrix, using the given pool to calculate the rows in
+	 * parallel. If no pool is given, the rows are calculated sequentially.
+	 */
+	static public MatrixTravelTimeEstimator create(Network network, TravelTime travelTime, double departureTime,
+			ForkJoinPool pool, MatrixEncoding encoding) {
 		List<Node> nodes = new ArrayList<>(network.getNodes().values());
+		int[] id2matrix = createIndex(nodes);
 
 		/*
-		 * Create index matrix for rapid look-up
+		 * Perform calculation of travel time
 		 */
 
+		RowStorage storage = createStorage(nodes.size(), encoding);
+		calculateRows(network, nodes, id2matrix, travelTime, departureTime, pool, storage);
+
+		return new MatrixTravelTimeEstimator(id2matrix, storage, travelTime);
+	}
+
+	/**
+	 * Creates index matrix for rapid look-up
+	 */
+	static int[] createIndex(List<Node> nodes) {
 		int maximumIndex = nodes.stream().mapToInt(n -> n.getId().index()).max().getAsInt();
-		List<Integer> id2matrix = new ArrayList<>(Collections.nCopies(maximumIndex + 1, -1));
+
+		int[] id2matrix = new int[maximumIndex + 1];
+		Arrays.fill(id2matrix, -1);
 
 		for (int index = 0; index < nodes.size(); index++) {
-			id2matrix.set(nodes.get(index).getId().index(), index);
+			id2matrix[nodes.get(index).getId().index()] = index;
 		}
 
-		/*
-		 * Perform calculation of travel time
-		 */
-
-		double[][] travelTimes = new double[nodes.size()][nodes.size()];
+		return id2matrix;
+	}
 
+	/**
+	 * Calculates the travel times from each node to all other nodes and passes
+	 * them on row by row. Nodes that cannot be reached obtain a travel time of
+	 * zero.
+	 * 
+	 * If a pool is given, the rows are calculated in parallel. Each thread then
+	 * uses its own tree, and each row is calculated independently of the others,
+	 * so the values are identical to the sequential calculation. The consumer is
+	 * called concurrently for different rows.
+	 */
+	static void calculateRows(Network network, List<Node> nodes, int[] id2matrix, TravelTime travelTime,
+			double departureTime, ForkJoinPool pool, RowConsumer consumer) {
 		Counter counter = new Counter("Calculating travel time matrix ", " of " + nodes.size());
 
-		for (Node originNode : nodes) {
-			LeastCostPathTree tree = new LeastCostPathTree(travelTime,
-					new OnlyTimeDependentTravelDisutility(travelTime));
+		ThreadLocal<LeastCostPathTree> trees = ThreadLocal.withInitial(
+				() -> new LeastCostPathTree(travelTime, new OnlyTimeDependentTravelDisutility(travelTime)));
+
+		IntConsumer calculator = index -> {
+			Node originNode = nodes.get(index);
+
+			LeastCostPathTree tree = trees.get();
 			tree.calculate(network, originNode, departureTime);
 
+			double[] row = new double[nodes.size()];
+
 			for (var entry : tree.getTree().entrySet()) {
 				double calculatedTravelTime = entry.getValue().getTime() - departureTime;
 				Node destinationNode = network.getNodes().get(entry.getKey());
 
-				int originIndex = id2matrix.get(originNode.getId().index());
-				int destinationIndex = id2matrix.get(destinationNode.getId().index());
-
-				travelTimes[originIndex][destinationIndex] = calculatedTravelTime;
+				int destinationIndex = id2matrix[destinationNode.getId().index()];
+				row[destinationIndex] = calculatedTravelTime;
 			}
 
+			consumer.accept(id2matrix[originNode.getId().index()], row);
 			counter.incCounter();
+		};
+
+		if (pool == null) {
+			IntStream.range(0, nodes.size()).forEach(calculator);
+		} else {
+			pool.submit(() -> IntStream.range(0, nodes.size()).parallel().forEach(calculator)).join();
+		}
+	}
+
+	interface RowConsumer {
+		void accept(int originIndex, double[] row);
+	}
+
+	/**
+	 * Provides the node-to-node travel times by their matrix indices.
+	 */
+	interface Storage {
+		double getTravelTime(int originIndex, int destinationIndex);
+	}
+
+	/**
+	 * Storage that is filled row by row. Rows may be added concurrently.
+	 */
+	interface RowStorage extends Storage, RowConsumer {
+	}
+
+	static RowStorage createStorage(int numberOfNodes, MatrixEncoding encoding) {
+		switch (encoding) {
+			case Double:
+				return new ArrayStorage(numberOfNodes);
+			case Float:
+				return new FloatStorage(numberOfNodes);
+			case Seconds:
+				return new SecondsStorage(numberOfNodes);
+			default:
+				throw new IllegalStateException();
+		}
+	}
+
+	/**
+	 * Compact storages keep the matrix in one flat array, which is only split into
+	 * blocks of rows if it exceeds the maximum size.
+	 */
+	static final int MAXIMUM_BLOCK_SIZE = 1 << 30;
+
+	static int getRowsPerBlock(int numberOfNodes) {
+		return Math.max(1, MAXIMUM_BLOCK_SIZE / Math.max(1, numberOfNodes));
+	}
+
+	static class ArrayStorage implements RowStorage {
+		private final double[][] travelTimes;
+
+		ArrayStorage(int numberOfNodes) {
+			this.travelTimes = new double[numberOfNodes][];
+		}
+
+		@Override
+		public void accept(int originIndex, double[] row) {
+			travelTimes[originIndex] = row;
 		}
 
-		return new MatrixTravelTimeEstimator(id2matrix, travelTimes, travelTime);
+		@Override
+		public double getTravelTime(int originIndex, int destinationIndex) {
+			return travelTimes[originIndex][destinationIndex];
+		}
+	}
+
+	static class FloatStorage implements RowStorage {
+		private final float[][] blocks;
+		private final int rowsPerBlock;
+		private final int numberOfNodes;
+
+		FloatStorage(int numberOfNodes) {
+			this.numberOfNodes = numberOfNodes;
+			this.rowsPerBlock = getRowsPerBlock(numberOfNodes);
+			this.blocks = new float[(numberOfNodes + rowsPerBlock - 1) / rowsPerBlock][];
+
+			for (int block = 0; block < blocks.length; block++) {
+				int numberOfRows = Math.min(rowsPerBlock, numberOfNodes - block * rowsPerBlock);
+				blocks[block] = new float[numberOfRows * numberOfNodes];
+			}
+		}
+
+		@Override
+		public void accept(int originIndex, double[] row) {
+			float[] block = blocks[originIndex / rowsPerBlock];
+			int offset = (originIndex % rowsPerBlock) * numberOfNodes;
+
+			for (int destinationIndex = 0; destinationIndex < numberOfNodes; destinationIndex++) {
+				block[offset + destinationIndex] = (float) row[destinationIndex];
+			}
+		}
+
+		@Override
+		public double getTravelTime(int originIndex, int destinationIndex) {
+			return blocks[originIndex / rowsPerBlock][(originIndex % rowsPerBlock) * numberOfNodes + destinationIndex];
+		}
+	}
+
+	static class SecondsStorage implements RowStorage {
+		private final char[][] blocks;
+		private final int rowsPerBlock;
+		private final int numberOfNodes;
+
+		private final Map<Long, Double> overflow = new ConcurrentHashMap<>();
+
+		SecondsStorage(int numberOfNodes) {
+			this.numberOfNodes = numberOfNodes;
+			this.rowsPerBlock = getRowsPerBlock(numberOfNodes);
+			this.blocks = new char[(numberOfNodes + rowsPerBlock - 1) / rowsPerBlock][];
+
+			for (int block = 0; block < blocks.length; block++) {
+				int numberOfRows = Math.min(rowsPerBlock, numberOfNodes - block * rowsPerBlock);
+				blocks[block] = new char[numberOfRows * numberOfNodes];
+			}
+		}
+
+		@Override
+		public void accept(int originIndex, double[] row) {
+			char[] block = blocks[originIndex / rowsPerBlock];
+			int offset = (originIndex % rowsPerBlock) * numberOfNodes;
+
+			for (int destinationIndex = 0; destinationIndex < numberOfNodes; destinationIndex++) {
+				char value = MatrixEncoding.encodeSeconds(row[destinationIndex]);
+				block[offset + destinationIndex] = value;
+
+				if (value == MatrixEncoding.SECONDS_OVERFLOW) {
+					overflow.put((long) originIndex * numberOfNodes + destinationIndex, row[destinationIndex]);
+				}
+			}
+		}
+
+		@Override
+		public double getTravelTime(int originIndex, int destinationIndex) {
+			char value = blocks[originIndex / rowsPerBlock][(originIndex % rowsPerBlock) * numberOfNodes
+					+ destinationIndex];
+
+			if (value == MatrixEncoding.SECONDS_OVERFLOW) {
+				return overflow.get((long) originIndex * numberOfNodes + destinationIndex);
+			}
+
+			return value;
+		}
 	}
 }
@@ -0,0 +1,86 @@
+package org.matsim.alonso_mora.travel_time;
+
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.core.utils.geometry.CoordUtils;
+
+/**
+ * Provides an optimistic lower bound for the travel time between two links,
+ * based on the Euclidean distance and an upper bound for the speed in the
+ * network. The bound is used to quickly discard combinations of requests and
+ * vehicles before the actual travel time estimator is called.
+ *
+ * The distance between two links is bounded by the distance between their
+ * centers minus half of their (Euclidean) lengths. This way, the bound stays
+ * below the distance between the nodes of the links as well as the distance
+ * between the link centers. The bound is only admissible if the speed is not
+ * lower than the highest speed that can be obtained from the used
+ * {@link TravelTimeEstimator}, which is the responsibility of the user.
+ *
+ * @author sebhoerl
+ */
+public class TravelTimeLowerBound {
+	private final double maximumSpeed; // m/s
+
+	/**
+	 * @param maximumSpeed Given in m/s, infinity disables the bound
+	 */
+	public TravelTimeLowerBound(double maximumSpeed) {
+		this.maximumSpeed = maximumSpeed;
+	}
+
+	/**
+	 * Creates a bound that never discards anything (all lower bounds are zero).
+	 */
+	static public TravelTimeLowerBound disabled() {
+		return new TravelTimeLowerBound(Double.POSITIVE_INFINITY);
+	}
+
+	public boolean isEnabled() {
+		return Double.isFinite(maximumSpeed);
+	}
+
+	public double getMaximumSpeed() {
+		return maximumSpeed;
+	}
+
+	/**
+	 * Returns the lower bound for the travel time between two links in [s].
+	 */
+	public double getTravelTime(Link fromLink, Link toLink) {
+		if (!isEnabled()) {
+			return 0.0;
+		}
+
+		return getDistance(fromLink, toLink) / maximumSpeed;
+	}
+
+	/**
+	 * Returns the lower bound for the distance between two links in [m].
+	 */
+	public double getDistance(Link fromLink, Link toLink) {
+		if (fromLink == toLink) {
+			return 0.0;
+		}
+
+		double centerDistance = CoordUtils.calcEuclideanDistance(fromLink.getCoord(), toLink.getCoord());
+		return Math.max(0.0, centerDistance - getRadius(fromLink) - getRadius(toLink));
+	}
+
+	/**
+	 * Returns the maximum distance in [m] that can be covered in the given time.
+	 */
+	public double getMaximumDistance(double travelTime) {
+		if (!isEnabled()) {
+			return Double.POSITIVE_INFINITY;
+		}
+
+		return maximumSpeed * travelTime;
+	}
+
+	/**
+	 * Returns half of the Euclidean distance between the nodes of a link.
+	 */
+	static public double getRadius(Link link) {
+		return 0.5 * CoordUtils.calcEuclideanDistance(link.getFromNode().getCoord(), link.getToNode().getCoord());
+	}
+}
@@ -0,0 +1,64 @@
+package org.matsim.alonso_mora.algorithm;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+import org.matsim.alonso_mora.algorithm.function.AlonsoMoraFunction.Result;
+import org.mockito.Mockito;
+
+public class TopCandidatesTest {
+	@Test
+	public void testSameAsSortedSelection() {
+		Random random = new Random(0);
+
+		for (int k = 0; k < 500; k++) {
+			int limit = random.nextInt(6);
+			int numberOfVehicles = random.nextInt(20);
+
+			List<AlonsoMoraVehicle> vehicles = new ArrayList<>();
+			List<Result> results = new ArrayList<>();
+
+			TopCandidates selection = new TopCandidates(limit);
+
+			for (int i = 0; i < numberOfVehicles; i++) {
+				// Few distinct costs to test ties
+				Result result = new Result(random.nextInt(5), Collections.emptyList());
+				AlonsoMoraVehicle vehicle = Mockito.mock(AlonsoMoraVehicle.class);
+
+				vehicles.add(vehicle);
+				results.add(result);
+				selection.offer(vehicle, result);
+			}
+
+			// Reference: stable sort by cost and take the first elements
+			List<Integer> indices = new ArrayList<>();
+
+			for (int i = 0; i < numberOfVehicles; i++) {
+				indices.add(i);
+			}
+
+			Set<AlonsoMoraVehicle> expected = indices.stream() //
+					.sorted((a, b) -> Double.compare(results.get(a).getCost(), results.get(b).getCost())) //
+					.limit(limit) //
+					.map(vehicles::get) //
+					.collect(Collectors.toSet());
+
+			Set<AlonsoMoraVehicle> actual = new HashSet<>();
+
+			for (int i = 0; i < selection.size(); i++) {
+				actual.add(selection.getVehicle(i));
+				assertEquals(results.get(vehicles.indexOf(selection.getVehicle(i))), selection.getResult(i));
+			}
+
+			assertEquals(expected, actual);
+		}
+	}
+}
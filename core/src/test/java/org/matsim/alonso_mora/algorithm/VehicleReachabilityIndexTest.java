@@ -0,0 +1,78 @@
+package org.matsim.alonso_mora.algorithm;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.matsim.alonso_mora.travel_time.TravelTimeLowerBound;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.contrib.dvrp.util.LinkTimePair;
+import org.mockito.Mockito;
+
+public class VehicleReachabilityIndexTest {
+	@Test
+	public void testReachableVehicles() {
+		// 10 m/s
+		TravelTimeLowerBound bound = new TravelTimeLowerBound(10.0);
+
+		AlonsoMoraVehicle vehicle1 = createVehicle(0.0, 0.0, 0.0); // 0s to pickup
+		AlonsoMoraVehicle vehicle2 = createVehicle(900.0, 0.0, 0.0); // 90s to pickup
+		AlonsoMoraVehicle vehicle3 = createVehicle(5000.0, 0.0, 0.0); // 500s to pickup
+		AlonsoMoraVehicle vehicle4 = createVehicle(900.0, 0.0, 50.0); // busy until 50s, arrives at 140s
+
+		VehicleReachabilityIndex index = new VehicleReachabilityIndex(bound, 1000.0,
+				Arrays.asList(vehicle1, vehicle2, vehicle3, vehicle4), 0.0);
+
+		AlonsoMoraRequest request = createRequest(0.0, 0.0, 100.0, null);
+		List<AlonsoMoraVehicle> candidates = index.getCandidates(request);
+
+		assertEquals(2, candidates.size());
+		assertTrue(candidates.contains(vehicle1));
+		assertTrue(candidates.contains(vehicle2));
+
+		// The assigned vehicle is always a candidate
+		AlonsoMoraRequest assignedRequest = createRequest(0.0, 0.0, 100.0, vehicle3);
+		candidates = index.getCandidates(assignedRequest);
+
+		assertEquals(3, candidates.size());
+		assertTrue(candidates.contains(vehicle3));
+
+		// Without bound, all vehicles are candidates
+		index = new VehicleReachabilityIndex(TravelTimeLowerBound.disabled(), 1000.0,
+				Arrays.asList(vehicle1, vehicle2, vehicle3, vehicle4), 0.0);
+		assertEquals(4, index.getCandidates(request).size());
+	}
+
+	private static Link createLink(double x, double y) {
+		Node node = Mockito.mock(Node.class);
+		Mockito.when(node.getCoord()).thenReturn(new Coord(x, y));
+
+		Link link = Mockito.mock(Link.class);
+		Mockito.when(link.getCoord()).thenReturn(new Coord(x, y));
+		Mockito.when(link.getFromNode()).thenReturn(node);
+		Mockito.when(link.getToNode()).thenReturn(node);
+
+		return link;
+	}
+
+	private static AlonsoMoraVehicle createVehicle(double x, double y, double diversionTime) {
+		AlonsoMoraVehicle vehicle = Mockito.mock(AlonsoMoraVehicle.class);
+		Mockito.when(vehicle.getNextDiversion(Mockito.anyDouble()))
+				.thenReturn(new LinkTimePair(createLink(x, y), diversionTime));
+		return vehicle;
+	}
+
+	private static AlonsoMoraRequest createRequest(double x, double y, double plannedPickupTime,
+			AlonsoMoraVehicle vehicle) {
+		AlonsoMoraRequest request = Mockito.mock(AlonsoMoraRequest.class);
+		Mockito.when(request.getPickupLink()).thenReturn(createLink(x, y));
+		Mockito.when(request.getPlannedPickupTime()).thenReturn(plannedPickupTime);
+		Mockito.when(request.getVehicle()).thenReturn(vehicle);
+		return request;
+	}
+}
@@ -0,0 +1,87 @@
+package org.matsim.alonso_mora.algorithm.function;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+
+import org.matsim.alonso_mora.algorithm.AlonsoMoraRequest;
+import org.matsim.alonso_mora.algorithm.AlonsoMoraVehicle;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.contrib.drt.passenger.DrtRequest;
+import org.matsim.contrib.dvrp.fleet.DvrpVehicle;
+import org.matsim.contrib.dvrp.load.DvrpLoadType;
+import org.matsim.contrib.dvrp.load.IntegerLoad;
+import org.matsim.contrib.dvrp.schedule.Schedule;
+import org.matsim.contrib.dvrp.util.LinkTimePair;
+import org.mockito.Mockito;
+
+/**
+ * Mocked links, requests and vehicles for the tests of the travel function and
+ * the sequence generators.
+ *
+ * @author sebhoerl
+ */
+public class AlonsoMoraMocks {
+	private AlonsoMoraMocks() {
+	}
+
+	static public DvrpLoadType mockLoadType() {
+		DvrpLoadType loadType = Mockito.mock(DvrpLoadType.class);
+		Mockito.when(loadType.getEmptyLoad()).thenReturn(IntegerLoad.fromValue(0));
+		return loadType;
+	}
+
+	/**
+	 * Creates a link whose nodes are at the same coordinate as the link itself.
+	 */
+	static public Link mockLink(double x, double y) {
+		Node node = Mockito.mock(Node.class);
+		Mockito.when(node.getCoord()).thenReturn(new Coord(x, y));
+
+		Link link = Mockito.mock(Link.class);
+		Mockito.when(link.getCoord()).thenReturn(new Coord(x, y));
+		Mockito.when(link.getFromNode()).thenReturn(node);
+		Mockito.when(link.getToNode()).thenReturn(node);
+		return link;
+	}
+
+	static public AlonsoMoraRequest mockRequest(Link pickupLink, Link dropoffLink, double earliestPickupTime,
+			double plannedPickupTime, double latestDropoffTime, double directArrivalTime, int items) {
+		DrtRequest drtRequest = Mockito.mock(DrtRequest.class);
+		Mockito.when(drtRequest.getLoad()).thenReturn(IntegerLoad.fromValue(items));
+
+		AlonsoMoraRequest request = Mockito.mock(AlonsoMoraRequest.class);
+		Mockito.when(request.getDrtRequest()).thenReturn(drtRequest);
+		Mockito.when(request.getPickupLink()).thenReturn(pickupLink);
+		Mockito.when(request.getDropoffLink()).thenReturn(dropoffLink);
+		Mockito.when(request.getEarliestPickupTime()).thenReturn(earliestPickupTime);
+		Mockito.when(request.getPlannedPickupTime()).thenReturn(plannedPickupTime);
+		Mockito.when(request.getLatestDropoffTime()).thenReturn(latestDropoffTime);
+		Mockito.when(request.getDirectArivalTime()).thenReturn(directArrivalTime);
+		Mockito.when(request.getItems()).thenReturn(items);
+		return request;
+	}
+
+	/**
+	 * Creates a vehicle that can be diverted at the given link and time and has no
+	 * stops planned yet.
+	 */
+	static public AlonsoMoraVehicle mockVehicle(Link link, double time, int capacity, double serviceEndTime,
+			Collection<AlonsoMoraRequest> onboardRequests) {
+		Schedule schedule = Mockito.mock(Schedule.class);
+
+		DvrpVehicle dvrpVehicle = Mockito.mock(DvrpVehicle.class);
+		Mockito.when(dvrpVehicle.getSchedule()).thenReturn(schedule);
+		Mockito.when(dvrpVehicle.getCapacity()).thenReturn(IntegerLoad.fromValue(capacity));
+		Mockito.when(dvrpVehicle.getServiceEndTime()).thenReturn(serviceEndTime);
+
+		AlonsoMoraVehicle vehicle = Mockito.mock(AlonsoMoraVehicle.class);
+		Mockito.when(vehicle.getVehicle()).thenReturn(dvrpVehicle);
+		Mockito.when(vehicle.getNextDiversion(Mockito.anyDouble())).thenReturn(new LinkTimePair(link, time));
+		Mockito.when(vehicle.getOnboardRequests()).thenReturn(new HashSet<>(onboardRequests));
+		Mockito.when(vehicle.getRoute()).thenReturn(Collections.emptyList());
+		return vehicle;
+	}
+}
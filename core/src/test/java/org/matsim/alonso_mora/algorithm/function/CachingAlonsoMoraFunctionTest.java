@@ -0,0 +1,96 @@
+package org.matsim.alonso_mora.algorithm.function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Optional;
+
+import org.junit.jupiter.api.Test;
+import org.matsim.alonso_mora.algorithm.AlonsoMoraRequest;
+import org.matsim.alonso_mora.algorithm.AlonsoMoraVehicle;
+import org.matsim.api.core.v01.network.Link;
+import org.mockito.Mockito;
+
+public class CachingAlonsoMoraFunctionTest {
+	private class CountingFunction implements AlonsoMoraFunction {
+		int numberOfCalls = 0;
+
+		@Override
+		public boolean checkShareability(AlonsoMoraRequest firstRequest, AlonsoMoraRequest secondRequest,
+				double now) {
+			return true;
+		}
+
+		@Override
+		public Optional<Result> calculateRoute(Collection<AlonsoMoraRequest> requests, AlonsoMoraVehicle vehicle,
+				double now) {
+			numberOfCalls++;
+
+			if (requests.size() > 2) {
+				return Optional.empty();
+			}
+
+			return Optional.of(new Result(numberOfCalls, Collections.emptyList()));
+		}
+
+		@Override
+		public Optional<Double> checkRelocation(AlonsoMoraVehicle vehicle, Link destination, double now) {
+			return Optional.empty();
+		}
+	}
+
+	@Test
+	public void testCache() {
+		CountingFunction delegate = new CountingFunction();
+		CachingAlonsoMoraFunction function = new CachingAlonsoMoraFunction(delegate);
+
+		AlonsoMoraVehicle vehicleA = Mockito.mock(AlonsoMoraVehicle.class);
+		AlonsoMoraVehicle vehicleB = Mockito.mock(AlonsoMoraVehicle.class);
+
+		AlonsoMoraRequest request1 = Mockito.mock(AlonsoMoraRequest.class);
+		AlonsoMoraRequest request2 = Mockito.mock(AlonsoMoraRequest.class);
+		AlonsoMoraRequest request3 = Mockito.mock(AlonsoMoraRequest.class);
+
+		Optional<AlonsoMoraFunction.Result> first = function.calculateRoute(Arrays.asList(request1, request2),
+				vehicleA, 0.0);
+		assertEquals(1, delegate.numberOfCalls);
+
+		// Same vehicle and requests
+		assertSame(first.get(), function.calculateRoute(Arrays.asList(request1, request2), vehicleA, 0.0).get());
+		assertEquals(1, delegate.numberOfCalls);
+
+		// Hints do not change the result
+		assertSame(first.get(),
+				function.calculateRoute(Arrays.asList(request1, request2), vehicleA, 0.0, first.get()).get());
+		assertEquals(1, delegate.numberOfCalls);
+
+		// Other vehicle
+		function.calculateRoute(Arrays.asList(request1, request2), vehicleB, 0.0);
+		assertEquals(2, delegate.numberOfCalls);
+
+		// Other requests
+		function.calculateRoute(Arrays.asList(request1), vehicleA, 0.0);
+		function.calculateRoute(Collections.emptySet(), vehicleA, 0.0);
+		function.calculateRoute(Collections.emptySet(), vehicleA, 0.0);
+		assertEquals(4, delegate.numberOfCalls);
+
+		// Infeasible results are cached as well
+		assertFalse(function.calculateRoute(Arrays.asList(request1, request2, request3), vehicleA, 0.0).isPresent());
+		assertFalse(function.calculateRoute(Arrays.asList(request1, request2, request3), vehicleA, 0.0).isPresent());
+		assertEquals(5, delegate.numberOfCalls);
+
+		assertEquals(9, function.getNumberOfLookups());
+		assertEquals(4, function.getNumberOfHits());
+
+		// Results are calculated again after clearing
+		function.clear();
+		assertEquals(0, function.getNumberOfLookups());
+
+		function.calculateRoute(Arrays.asList(request1, request2), vehicleA, 0.0);
+		assertEquals(6, delegate.numberOfCalls);
+	}
+}
@@ -0,0 +1,423 @@
+package org.matsim.alonso_mora.algorithm.function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.matsim.alonso_mora.algorithm.function.AlonsoMoraMocks.mockLink;
+import static org.matsim.alonso_mora.algorithm.function.AlonsoMoraMocks.mockLoadType;
+import static org.matsim.alonso_mora.algorithm.function.AlonsoMoraMocks.mockRequest;
+import static org.matsim.alonso_mora.algorithm.function.AlonsoMoraMocks.mockVehicle;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.Test;
+import org.matsim.alonso_mora.algorithm.AlonsoMoraRequest;
+import org.matsim.alonso_mora.algorithm.AlonsoMoraStop;
+import org.matsim.alonso_mora.algorithm.AlonsoMoraStop.StopType;
+import org.matsim.alonso_mora.algorithm.AlonsoMoraVehicle;
+import org.matsim.alonso_mora.algorithm.function.AlonsoMoraFunction.Result;
+import org.matsim.alonso_mora.algorithm.function.DefaultAlonsoMoraFunction.MinimumDelay;
+import org.matsim.alonso_mora.algorithm.function.DefaultAlonsoMoraFunction.NoopConstraint;
+import org.matsim.alonso_mora.algorithm.function.sequence.ExtensiveSequenceGenerator;
+import org.matsim.alonso_mora.algorithm.function.sequence.SequenceGenerator;
+import org.matsim.alonso_mora.algorithm.function.sequence.SequenceGeneratorFactory;
+import org.matsim.alonso_mora.travel_time.TravelTimeEstimator;
+import org.matsim.alonso_mora.travel_time.TravelTimeLowerBound;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.contrib.drt.stops.StaticPassengerStopDurationProvider;
+import org.mockito.Mockito;
+
+public class DefaultAlonsoMoraFunctionTest {
+	private DefaultAlonsoMoraFunction createFunction(TravelTimeEstimator estimator, DefaultAlonsoMoraFunction.Objective objective) {
+		return createFunction(estimator, objective, TravelTimeLowerBound.disabled());
+	}
+
+	private DefaultAlonsoMoraFunction createFunction(TravelTimeEstimator estimator,
+			DefaultAlonsoMoraFunction.Objective objective, TravelTimeLowerBound bound) {
+		return createFunction(estimator, objective, bound, new ExtensiveSequenceGenerator.Factory());
+	}
+
+	private DefaultAlonsoMoraFunction createFunction(TravelTimeEstimator estimator,
+			DefaultAlonsoMoraFunction.Objective objective, TravelTimeLowerBound bound,
+			SequenceGeneratorFactory generatorFactory) {
+		return createFunction(estimator, objective, bound, generatorFactory, 0);
+	}
+
+	private DefaultAlonsoMoraFunction createFunction(TravelTimeEstimator estimator,
+			DefaultAlonsoMoraFunction.Objective objective, TravelTimeLowerBound bound,
+			SequenceGeneratorFactory generatorFactory, long parallelSearchThreshold) {
+		return new DefaultAlonsoMoraFunction(estimator, generatorFactory,
+				StaticPassengerStopDurationProvider.of(30.0, 15.0), 60.0, false, false, false, objective,
+				new NoopConstraint(), 60.0, 1000.0, false, mockLoadType(), bound, parallelSearchThreshold);
+	}
+
+	private void assertSameResult(Optional<Result> expected, Optional<Result> actual) {
+		assertEquals(expected.isPresent(), actual.isPresent());
+
+		if (expected.isPresent()) {
+			assertEquals(expected.get().getCost(), actual.get().getCost(), 0.0);
+
+			List<AlonsoMoraStop> expectedStops = expected.get().getStops();
+			List<AlonsoMoraStop> actualStops = actual.get().getStops();
+			assertEquals(expectedStops.size(), actualStops.size());
+
+			for (int i = 0; i < expectedStops.size(); i++) {
+				assertEquals(expectedStops.get(i).getType(), actualStops.get(i).getType());
+				assertSame(expectedStops.get(i).getLink(), actualStops.get(i).getLink());
+				assertSame(expectedStops.get(i).getRequest(), actualStops.get(i).getRequest());
+				assertEquals(expectedStops.get(i).getTime(), actualStops.get(i).getTime(), 0.0);
+			}
+		}
+	}
+
+	@Test
+	public void testSmallTripsMatchGenericPath() {
+		Random random = new Random(0);
+
+		Link[] links = { Mockito.mock(Link.class), Mockito.mock(Link.class), Mockito.mock(Link.class) };
+		double[][] travelTimes = new double[links.length][links.length];
+
+		TravelTimeEstimator estimator = (fromLink, toLink, departureTime,
+				threshold) -> travelTimes[Arrays.asList(links).indexOf(fromLink)][Arrays.asList(links).indexOf(toLink)];
+
+		DefaultAlonsoMoraFunction specialised = createFunction(estimator, new MinimumDelay());
+		DefaultAlonsoMoraFunction generic = createFunction(estimator, new MinimumDelay() {
+			// Subclass to force the generic path
+		});
+
+		for (int k = 0; k < 2000; k++) {
+			for (int i = 0; i < links.length; i++) {
+				for (int j = 0; j < links.length; j++) {
+					travelTimes[i][j] = random.nextDouble() * 300.0;
+				}
+			}
+
+			List<AlonsoMoraRequest> requests = new ArrayList<>();
+
+			for (int r = 0; r < 1 + k % 2; r++) {
+				double earliestPickupTime = random.nextInt(400);
+				double plannedPickupTime = earliestPickupTime + random.nextInt(600);
+				double latestDropoffTime = plannedPickupTime + random.nextInt(800);
+
+				requests.add(mockRequest(links[random.nextInt(links.length)], links[random.nextInt(links.length)],
+						earliestPickupTime, plannedPickupTime, latestDropoffTime,
+						earliestPickupTime + random.nextInt(500), 1 + random.nextInt(2)));
+			}
+
+			AlonsoMoraVehicle vehicle = mockVehicle(links[random.nextInt(links.length)], random.nextInt(300),
+					1 + random.nextInt(3), 500.0 + random.nextInt(3000), Collections.emptySet());
+
+			assertSameResult(generic.calculateRoute(requests, vehicle, 0.0),
+					specialised.calculateRoute(requests, vehicle, 0.0));
+		}
+	}
+
+	/**
+	 * Random route searches on six links. The travel times are at least the
+	 * Euclidean distance at 10 m/s, so they respect the lower bound of the
+	 * scenario, and the estimator counts how often it is called.
+	 */
+	private class RandomScenario {
+		final Random random = new Random(0);
+		final Link[] links = new Link[6];
+		final double[][] travelTimes = new double[links.length][links.length];
+
+		final TravelTimeLowerBound bound = new TravelTimeLowerBound(10.0);
+		final TravelTimeEstimator estimator;
+		int estimatorCalls = 0;
+
+		RandomScenario() {
+			for (int i = 0; i < links.length; i++) {
+				links[i] = mockLink(random.nextDouble() * 3000.0, random.nextDouble() * 3000.0);
+			}
+
+			List<Link> linkList = Arrays.asList(links);
+
+			this.estimator = (fromLink, toLink, departureTime, threshold) -> {
+				estimatorCalls++;
+				return travelTimes[linkList.indexOf(fromLink)][linkList.indexOf(toLink)];
+			};
+		}
+
+		/**
+		 * Draws new travel times and a vehicle with a capacity of four. Of the given
+		 * number of requests, the first ones are on board of the vehicle and the
+		 * others are returned as new requests.
+		 */
+		Instance next(int numberOfRequests, int numberOfOnboardRequests) {
+			for (int i = 0; i < links.length; i++) {
+				for (int j = 0; j < links.length; j++) {
+					travelTimes[i][j] = bound.getTravelTime(links[i], links[j]) * (1.0 + random.nextDouble());
+				}
+			}
+
+			List<AlonsoMoraRequest> onboardRequests = new ArrayList<>();
+			List<AlonsoMoraRequest> requests = new ArrayList<>();
+
+			for (int r = 0; r < numberOfRequests; r++) {
+				double earliestPickupTime = random.nextInt(200);
+				double plannedPickupTime = earliestPickupTime + 300 + random.nextInt(900);
+				double latestDropoffTime = plannedPickupTime + 600 + random.nextInt(1200);
+
+				AlonsoMoraRequest request = mockRequest(links[random.nextInt(links.length)],
+						links[random.nextInt(links.length)], earliestPickupTime, plannedPickupTime, latestDropoffTime,
+						earliestPickupTime + random.nextInt(500), 1);
+
+				if (r < numberOfOnboardRequests) {
+					onboardRequests.add(request);
+				} else {
+					requests.add(request);
+				}
+			}
+
+			AlonsoMoraVehicle vehicle = mockVehicle(links[random.nextInt(links.length)], random.nextInt(300), 4,
+					100000.0, onboardRequests);
+
+			return new Instance(vehicle, requests);
+		}
+	}
+
+	static private class Instance {
+		final AlonsoMoraVehicle vehicle;
+		final List<AlonsoMoraRequest> requests;
+
+		Instance(AlonsoMoraVehicle vehicle, List<AlonsoMoraRequest> requests) {
+			this.vehicle = vehicle;
+			this.requests = requests;
+		}
+	}
+
+	@Test
+	public void testCompletionBoundKeepsOptimum() {
+		RandomScenario scenario = new RandomScenario();
+
+		DefaultAlonsoMoraFunction bounded = createFunction(scenario.estimator, new MinimumDelay(), scenario.bound);
+		DefaultAlonsoMoraFunction unbounded = createFunction(scenario.estimator, new MinimumDelay() {
+			// Subclass to disable the bound
+		}, scenario.bound);
+
+		int boundedCalls = 0;
+		int unboundedCalls = 0;
+
+		for (int k = 0; k < 300; k++) {
+			Instance instance = scenario.next(4, k % 2);
+
+			scenario.estimatorCalls = 0;
+			Optional<Result> expected = unbounded.calculateRoute(instance.requests, instance.vehicle, 0.0);
+			unboundedCalls += scenario.estimatorCalls;
+
+			scenario.estimatorCalls = 0;
+			Optional<Result> actual = bounded.calculateRoute(instance.requests, instance.vehicle, 0.0);
+			boundedCalls += scenario.estimatorCalls;
+
+			assertSameResult(expected, actual);
+		}
+
+		assertTrue(boundedCalls < unboundedCalls);
+	}
+
+	@Test
+	public void testSeededSearchKeepsResult() {
+		RandomScenario scenario = new RandomScenario();
+
+		// Seeding requires a generator that only skips the extensions of aborted
+		// sequences
+		DefaultAlonsoMoraFunction function = createFunction(scenario.estimator, new MinimumDelay(), scenario.bound,
+				new ExtensiveSequenceGenerator.Factory(true));
+
+		int seededCalls = 0;
+		int unseededCalls = 0;
+
+		for (int k = 0; k < 300; k++) {
+			Instance instance = scenario.next(5, k % 2);
+			List<AlonsoMoraRequest> requests = instance.requests;
+
+			// The hint is the result for the trip without the last request
+			Optional<Result> hint = function.calculateRoute(requests.subList(0, requests.size() - 1),
+					instance.vehicle, 0.0);
+
+			if (hint.isPresent()) {
+				scenario.estimatorCalls = 0;
+				Optional<Result> expected = function.calculateRoute(requests, instance.vehicle, 0.0);
+				unseededCalls += scenario.estimatorCalls;
+
+				scenario.estimatorCalls = 0;
+				Optional<Result> actual = function.calculateRoute(requests, instance.vehicle, 0.0, hint.get());
+				seededCalls += scenario.estimatorCalls;
+
+				assertSameResult(expected, actual);
+			}
+		}
+
+		assertTrue(seededCalls < unseededCalls);
+	}
+
+	/**
+	 * Extensive search in which aborting a sequence only skips the sequences that
+	 * extend it, so it finds the optimal route.
+	 */
+	static private class ExactSequenceGenerator implements SequenceGenerator {
+		private final ExtensiveSequenceGenerator delegate;
+
+		ExactSequenceGenerator(Collection<AlonsoMoraRequest> onboardRequests, Collection<AlonsoMoraRequest> requests) {
+			this.delegate = new ExtensiveSequenceGenerator(onboardRequests, requests);
+		}
+
+		@Override
+		public void advance() {
+			delegate.advance();
+		}
+
+		@Override
+		public void abort() {
+			delegate.skip();
+		}
+
+		@Override
+		public boolean skip() {
+			return delegate.skip();
+		}
+
+		@Override
+		public boolean hasNext() {
+			return delegate.hasNext();
+		}
+
+		@Override
+		public List<AlonsoMoraStop> get() {
+			return delegate.get();
+		}
+
+		@Override
+		public boolean isComplete() {
+			return delegate.isComplete();
+		}
+	}
+
+	@Test
+	public void testNearestFirstKeepsOptimum() {
+		RandomScenario scenario = new RandomScenario();
+
+		DefaultAlonsoMoraFunction exact = createFunction(scenario.estimator, new MinimumDelay(), scenario.bound,
+				(vehicle, onboardRequests, requests, now) -> new ExactSequenceGenerator(onboardRequests, requests));
+		DefaultAlonsoMoraFunction nearestFirst = createFunction(scenario.estimator, new MinimumDelay(),
+				scenario.bound, new ExtensiveSequenceGenerator.Factory(true));
+
+		int exactCalls = 0;
+		int nearestFirstCalls = 0;
+
+		for (int k = 0; k < 300; k++) {
+			Instance instance = scenario.next(5, k % 2);
+
+			scenario.estimatorCalls = 0;
+			Optional<Result> expected = exact.calculateRoute(instance.requests, instance.vehicle, 0.0);
+			exactCalls += scenario.estimatorCalls;
+
+			scenario.estimatorCalls = 0;
+			Optional<Result> actual = nearestFirst.calculateRoute(instance.requests, instance.vehicle, 0.0);
+			nearestFirstCalls += scenario.estimatorCalls;
+
+			// Equally good routes may be found in a different order
+			assertEquals(expected.isPresent(), actual.isPresent());
+
+			if (expected.isPresent()) {
+				assertEquals(expected.get().getCost(), actual.get().getCost(), 1e-6);
+			}
+		}
+
+		assertTrue(nearestFirstCalls < exactCalls);
+	}
+
+	@Test
+	public void testParallelSearchKeepsResult() throws Exception {
+		RandomScenario scenario = new RandomScenario();
+
+		DefaultAlonsoMoraFunction sequential = createFunction(scenario.estimator, new MinimumDelay(), scenario.bound,
+				new ExtensiveSequenceGenerator.Factory(true));
+		DefaultAlonsoMoraFunction parallel = createFunction(scenario.estimator, new MinimumDelay(), scenario.bound,
+				new ExtensiveSequenceGenerator.Factory(true), 1);
+
+		ForkJoinPool pool = new ForkJoinPool(4);
+
+		try {
+			for (int k = 0; k < 100; k++) {
+				Instance instance = scenario.next(4, k % 2);
+				List<AlonsoMoraRequest> requests = instance.requests;
+
+				// A twin of the last request leads to equally good routes in different branches
+				AlonsoMoraRequest lastRequest = requests.get(requests.size() - 1);
+				requests.add(mockRequest(lastRequest.getPickupLink(), lastRequest.getDropoffLink(),
+						lastRequest.getEarliestPickupTime(), lastRequest.getPlannedPickupTime(),
+						lastRequest.getLatestDropoffTime(), lastRequest.getDirectArivalTime(), 1));
+
+				Optional<Result> expected = sequential.calculateRoute(requests, instance.vehicle, 0.0);
+				Optional<Result> actual = pool.submit(() -> parallel.calculateRoute(requests, instance.vehicle, 0.0))
+						.get();
+
+				assertSameResult(expected, actual);
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void testCompactResult() {
+		Link linkA = Mockito.mock(Link.class);
+		Link linkB = Mockito.mock(Link.class);
+
+		AlonsoMoraRequest request = mockRequest(linkA, linkB, 0.0, 100.0, 400.0, 200.0, 1);
+
+		Result result = Result.compact(5.0, Arrays.asList( //
+				new AlonsoMoraStop(StopType.Pickup, linkA, request, 10.0), //
+				new AlonsoMoraStop(StopType.Dropoff, linkB, request, 20.0)));
+
+		assertEquals(5.0, result.getCost(), 0.0);
+
+		List<AlonsoMoraStop> stops = result.getStops();
+		assertEquals(2, stops.size());
+
+		assertEquals(StopType.Pickup, stops.get(0).getType());
+		assertSame(linkA, stops.get(0).getLink());
+		assertSame(request, stops.get(0).getRequest());
+		assertEquals(10.0, stops.get(0).getTime(), 0.0);
+
+		assertEquals(StopType.Dropoff, stops.get(1).getType());
+		assertSame(linkB, stops.get(1).getLink());
+		assertSame(request, stops.get(1).getRequest());
+		assertEquals(20.0, stops.get(1).getTime(), 0.0);
+
+		// Stops are only created once
+		assertSame(stops, result.getStops());
+	}
+
+	@Test
+	public void testShareability() {
+		Link linkA = Mockito.mock(Link.class);
+		Link linkB = Mockito.mock(Link.class);
+
+		TravelTimeEstimator estimator = (fromLink, toLink, departureTime,
+				threshold) -> fromLink == toLink ? 0.0 : 100.0;
+
+		DefaultAlonsoMoraFunction function = createFunction(estimator, new MinimumDelay());
+
+		AlonsoMoraRequest firstRequest = mockRequest(linkA, linkB, 0.0, 100.0, 400.0, 200.0, 1);
+		AlonsoMoraRequest secondRequest = mockRequest(linkA, linkB, 0.0, 100.0, 400.0, 200.0, 1);
+		AlonsoMoraRequest lateRequest = mockRequest(linkB, linkA, 0.0, 50.0, 400.0, 200.0, 1);
+
+		// Both picked up at A, then driving to B
+		assertTrue(function.checkShareability(firstRequest, secondRequest, 0.0));
+
+		// Pickup at B is only possible before the first pickup, but then the first
+		// request cannot be picked up in time anymore
+		assertFalse(function.checkShareability(firstRequest, lateRequest, 0.0));
+	}
+}
@@ -1,11 +1,14 @@
 package org.matsim.alonso_mora.algorithm.function.graphs;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Optional;
 import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
@@ -14,10 +17,14 @@ import org.matsim.alonso_mora.algorithm.AlonsoMoraVehicle;
 import org.matsim.alonso_mora.algorithm.function.AlonsoMoraFunction;
 import org.matsim.alonso_mora.algorithm.graphs.DefaultRequestGraph;
 import org.matsim.alonso_mora.algorithm.graphs.RequestGraph;
+import org.matsim.alonso_mora.travel_time.TravelTimeLowerBound;
+import org.matsim.api.core.v01.Coord;
 import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Node;
 import org.matsim.contrib.drt.passenger.AcceptedDrtRequest;
 import org.matsim.contrib.drt.passenger.DrtRequest;
 import org.matsim.contrib.drt.schedule.DrtStopTask;
+import org.mockito.Mockito;
 
 import com.google.common.base.VerifyException;
 
@@ -85,6 +92,148 @@ public class DefaultRequestGraphTest {
 		assertTrue(graph.getShareableRequests(request8).contains(request1));
 	}
 
+	@Test
+	public void testRemoveRequest() {
+		MockRequest request1 = new MockRequest(1);
+		MockRequest request2 = new MockRequest(2);
+		MockRequest request3 = new MockRequest(3);
+
+		AlonsoMoraFunction function = new MockFunction();
+		RequestGraph graph = new DefaultRequestGraph(function, new ForkJoinPool(1));
+
+		graph.addRequest(request1, 0.0);
+		graph.addRequest(request2, 0.0);
+		graph.addRequest(request3, 0.0);
+
+		assertEquals(3, graph.getSize());
+
+		graph.removeRequest(request2);
+
+		assertFalse(graph.containsRequest(request2));
+		assertEquals(2, graph.getRequests().size());
+		assertEquals(2, graph.getSize());
+
+		assertEquals(1, graph.getShareableRequests(request1).size());
+		assertEquals(1, graph.getShareableRequests(request3).size());
+		assertEquals(0, graph.getShareableRequests(request2).size());
+
+		Assertions.assertThrows(VerifyException.class, () -> {
+			graph.removeRequest(request2);
+		});
+	}
+
+	@Test
+	public void testRevalidate() {
+		MockRequest request1 = new MockRequest(1);
+		MockRequest request3 = new MockRequest(3);
+		MockRequest request5 = new MockRequest(5);
+
+		// Sharing becomes harder with time (id sum + time < 10)
+
+		AlonsoMoraFunction function = new MockFunction();
+		RequestGraph graph = new DefaultRequestGraph(function, new ForkJoinPool(1));
+
+		graph.addRequest(request1, 0.0);
+		graph.addRequest(request3, 0.0);
+		graph.addRequest(request5, 0.0);
+
+		assertEquals(2, graph.getShareableRequests(request1).size());
+		assertEquals(2, graph.getShareableRequests(request5).size());
+
+		graph.revalidate(3.0);
+
+		// 1 and 3 as well as 1 and 5 can still be matched, 3 and 5 not anymore
+		assertEquals(2, graph.getShareableRequests(request1).size());
+		assertEquals(1, graph.getShareableRequests(request3).size());
+		assertEquals(1, graph.getShareableRequests(request5).size());
+
+		graph.revalidate(5.0);
+
+		// only 1 and 3 can still be matched
+		assertEquals(1, graph.getShareableRequests(request1).size());
+		assertTrue(graph.getShareableRequests(request1).contains(request3));
+		assertEquals(0, graph.getShareableRequests(request5).size());
+		assertEquals(2, graph.getSize());
+	}
+
+	@Test
+	public void testBulkMatching() {
+		MockRequest request1 = new MockRequest(1);
+		MockRequest request2 = new MockRequest(2);
+		MockRequest request7 = new MockRequest(7);
+		MockRequest request8 = new MockRequest(8);
+
+		AlonsoMoraFunction function = new MockFunction();
+		RequestGraph graph = new DefaultRequestGraph(function, new ForkJoinPool(2));
+
+		graph.addRequest(request1, 0.0);
+		graph.addRequests(Arrays.asList(request2, request7, request8), 0.0);
+
+		assertEquals(3, graph.getShareableRequests(request1).size());
+		assertEquals(2, graph.getShareableRequests(request2).size());
+		assertEquals(2, graph.getShareableRequests(request7).size());
+		assertEquals(1, graph.getShareableRequests(request8).size());
+
+		assertTrue(graph.getShareableRequests(request2).contains(request7));
+		assertTrue(graph.getShareableRequests(request7).contains(request2));
+		assertFalse(graph.getShareableRequests(request7).contains(request8));
+
+		Assertions.assertThrows(VerifyException.class, () -> {
+			graph.addRequests(Arrays.asList(request1), 0.0);
+		});
+	}
+
+	@Test
+	public void testSpatialPrefilter() {
+		AlonsoMoraRequest request1 = createSpatialRequest(0.0, 0.0, 60.0);
+		AlonsoMoraRequest request2 = createSpatialRequest(100.0, 0.0, 60.0);
+		AlonsoMoraRequest request3 = createSpatialRequest(100000.0, 0.0, 60.0);
+		AlonsoMoraRequest request4 = createSpatialRequest(0.0, 100.0, -10.0);
+
+		AtomicInteger checks = new AtomicInteger(0);
+
+		AlonsoMoraFunction function = new MockFunction() {
+			@Override
+			public boolean checkShareability(AlonsoMoraRequest firstRequest, AlonsoMoraRequest secondRequest,
+					double now) {
+				checks.incrementAndGet();
+				return true;
+			}
+		};
+
+		RequestGraph graph = new DefaultRequestGraph(function, new ForkJoinPool(1), new TravelTimeLowerBound(10.0));
+
+		graph.addRequest(request1, 0.0);
+		graph.addRequest(request2, 0.0);
+		graph.addRequest(request3, 0.0);
+		graph.addRequest(request4, 0.0);
+
+		// 1 and 2 can reach each other in time, 3 is too far away, 4 is in the past
+		assertEquals(1, checks.get());
+
+		assertEquals(1, graph.getShareableRequests(request1).size());
+		assertTrue(graph.getShareableRequests(request1).contains(request2));
+		assertEquals(0, graph.getShareableRequests(request3).size());
+		assertEquals(0, graph.getShareableRequests(request4).size());
+	}
+
+	private static AlonsoMoraRequest createSpatialRequest(double x, double y, double plannedPickupTime) {
+		Node node = Mockito.mock(Node.class);
+		Mockito.when(node.getCoord()).thenReturn(new Coord(x, y));
+
+		Link link = Mockito.mock(Link.class);
+		Mockito.when(link.getCoord()).thenReturn(new Coord(x, y));
+		Mockito.when(link.getFromNode()).thenReturn(node);
+		Mockito.when(link.getToNode()).thenReturn(node);
+
+		AlonsoMoraRequest request = Mockito.mock(AlonsoMoraRequest.class);
+		Mockito.when(request.getPickupLink()).thenReturn(link);
+		Mockito.when(request.getEarliestPickupTime()).thenReturn(0.0);
+		Mockito.when(request.getPlannedPickupTime()).thenReturn(plannedPickupTime);
+
+		return request;
+	}
+
 	private static class MockRequest implements AlonsoMoraRequest {
 		private final int id;
 
@@ -237,7 +386,7 @@ public class DefaultRequestGraphTest {
 	private static class MockFunction implements AlonsoMoraFunction {
 		@Override
 		public boolean checkShareability(AlonsoMoraRequest firstRequest, AlonsoMoraRequest secondRequest, double now) {
-			return ((MockRequest) firstRequest).id + ((MockRequest) secondRequest).id < 10;
+			return ((MockRequest) firstRequest).id + ((MockRequest) secondRequest).id + now < 10;
 		}
 
 		@Override
@@ -1,12 +1,15 @@
 package org.matsim.alonso_mora.algorithm.function.graphs;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -248,21 +251,124 @@ public class DefaultVehicleGraphTest {
 		assertEquals(1, trips.stream().filter(t -> t.getLength() == 4).count());
 	}
 
+	/**
+	 * Adds five requests, which are all connected in the request graph, to a new
+	 * vehicle graph. The requests are added to the given list.
+	 */
+	private VehicleGraph createConnectedGraph(MockFunction function, List<MockRequest> requests,
+			int parallelThreshold) {
+		MockRequestGraph requestGraph = new MockRequestGraph();
+
+		for (int i = 0; i < 5; i++) {
+			MockRequest request = new MockRequest(10.0 + 0.1 * i);
+
+			for (MockRequest other : requests) {
+				requestGraph.add(request, other);
+			}
+
+			requests.add(request);
+		}
+
+		VehicleGraph graph = new DefaultVehicleGraph(function, requestGraph, mockVehicle(), 0, 0, parallelThreshold);
+
+		for (MockRequest request : requests) {
+			graph.addRequest(request, 0.0);
+		}
+
+		return graph;
+	}
+
+	@Test
+	public void testInfeasibleTripsAreCalculatedOnce() {
+		/*-
+		 * 
+		 * All five requests are connected, trips of three requests are feasible, but
+		 * trips of four requests are not. The levels are evaluated sequentially and
+		 * in parallel.
+		 * 
+		 */
+
+		for (int parallelThreshold : new int[] { 0, 1 }) {
+			MockFunction mockFunction = new MockFunction(35.0);
+			VehicleGraph graph = createConnectedGraph(mockFunction, new LinkedList<>(), parallelThreshold);
+
+			List<AlonsoMoraTrip> trips = graph.stream().collect(Collectors.toList());
+
+			assertEquals(5, trips.stream().filter(t -> t.getLength() == 1).count());
+			assertEquals(10, trips.stream().filter(t -> t.getLength() == 2).count());
+			assertEquals(10, trips.stream().filter(t -> t.getLength() == 3).count());
+			assertEquals(0, trips.stream().filter(t -> t.getLength() == 4).count());
+
+			// Each of the five combinations of four requests is only evaluated once
+			assertEquals(5, mockFunction.getNumberOfCalls(4));
+		}
+	}
+
+	@Test
+	public void testRemoveAndRevalidate() {
+		/*-
+		 * 
+		 * The graph of five connected requests is reused: one request is removed and
+		 * afterwards, the trips of three requests become infeasible.
+		 * 
+		 */
+
+		MockFunction mockFunction = new MockFunction(35.0);
+
+		List<MockRequest> requests = new LinkedList<>();
+		VehicleGraph graph = createConnectedGraph(mockFunction, requests, 0);
+
+		graph.removeRequest(requests.get(0));
+
+		List<AlonsoMoraTrip> trips = graph.stream().collect(Collectors.toList());
+		assertEquals(4, graph.getRequests().size());
+		assertEquals(4, trips.stream().filter(t -> t.getLength() == 1).count());
+		assertEquals(6, trips.stream().filter(t -> t.getLength() == 2).count());
+		assertEquals(4, trips.stream().filter(t -> t.getLength() == 3).count());
+		assertTrue(trips.stream().noneMatch(t -> t.getRequests().contains(requests.get(0))));
+
+		mockFunction.setMaximumWeight(25.0);
+		graph.revalidate(10.0);
+
+		trips = graph.stream().collect(Collectors.toList());
+		assertEquals(4, trips.stream().filter(t -> t.getLength() == 1).count());
+		assertEquals(6, trips.stream().filter(t -> t.getLength() == 2).count());
+		assertEquals(0, trips.stream().filter(t -> t.getLength() == 3).count());
+
+		// The removed request can be added again
+		graph.addRequest(requests.get(0), 10.0);
+
+		trips = graph.stream().collect(Collectors.toList());
+		assertEquals(5, trips.stream().filter(t -> t.getLength() == 1).count());
+		assertEquals(10, trips.stream().filter(t -> t.getLength() == 2).count());
+		assertEquals(0, trips.stream().filter(t -> t.getLength() == 3).count());
+	}
+
 	static private class MockFunction implements AlonsoMoraFunction {
-		private final double maximumWeight;
+		private double maximumWeight;
+		private final Map<Integer, Integer> numberOfCalls = new HashMap<>();
 
 		MockFunction(double maximumWeight) {
 			this.maximumWeight = maximumWeight;
 		}
 
+		void setMaximumWeight(double maximumWeight) {
+			this.maximumWeight = maximumWeight;
+		}
+
+		synchronized int getNumberOfCalls(int numberOfRequests) {
+			return numberOfCalls.getOrDefault(numberOfRequests, 0);
+		}
+
 		@Override
 		public boolean checkShareability(AlonsoMoraRequest firstRequest, AlonsoMoraRequest secondRequest, double now) {
 			throw new IllegalStateException();
 		}
 
 		@Override
-		public Optional<Result> calculateRoute(Collection<AlonsoMoraRequest> requests, AlonsoMoraVehicle vehicle,
-				double now) {
+		public synchronized Optional<Result> calculateRoute(Collection<AlonsoMoraRequest> requests,
+				AlonsoMoraVehicle vehicle, double now) {
+			numberOfCalls.merge(requests.size(), 1, Integer::sum);
 			int sum = 0;
 
 			for (AlonsoMoraRequest request : requests) {
@@ -295,6 +401,31 @@ public class DefaultVehicleGraphTest {
 			throw new IllegalStateException();
 		}
 
+		@Override
+		public void addRequests(Collection<AlonsoMoraRequest> requests, double now) {
+			throw new IllegalStateException();
+		}
+
+		@Override
+		public void removeRequest(AlonsoMoraRequest request) {
+			throw new IllegalStateException();
+		}
+
+		@Override
+		public void revalidate(double now) {
+			throw new IllegalStateException();
+		}
+
+		@Override
+		public boolean containsRequest(AlonsoMoraRequest request) {
+			throw new IllegalStateException();
+		}
+
+		@Override
+		public Collection<AlonsoMoraRequest> getRequests() {
+			throw new IllegalStateException();
+		}
+
 		@Override
 		public Collection<AlonsoMoraRequest> getShareableRequests(AlonsoMoraRequest request) {
 			Set<AlonsoMoraRequest> result = new HashSet<>();
@@ -0,0 +1,330 @@
+package org.matsim.alonso_mora.algorithm.function.sequence;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.matsim.alonso_mora.algorithm.function.AlonsoMoraMocks.mockLink;
+import static org.matsim.alonso_mora.algorithm.function.AlonsoMoraMocks.mockLoadType;
+import static org.matsim.alonso_mora.algorithm.function.AlonsoMoraMocks.mockRequest;
+import static org.matsim.alonso_mora.algorithm.function.AlonsoMoraMocks.mockVehicle;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.matsim.alonso_mora.algorithm.AlonsoMoraRequest;
+import org.matsim.alonso_mora.algorithm.AlonsoMoraStop;
+import org.matsim.alonso_mora.algorithm.AlonsoMoraStop.StopType;
+import org.matsim.alonso_mora.algorithm.AlonsoMoraVehicle;
+import org.matsim.alonso_mora.algorithm.function.AlonsoMoraFunction.Result;
+import org.matsim.alonso_mora.algorithm.function.DefaultAlonsoMoraFunction;
+import org.matsim.alonso_mora.algorithm.function.DefaultAlonsoMoraFunction.MinimumDelay;
+import org.matsim.alonso_mora.algorithm.function.DefaultAlonsoMoraFunction.NoopConstraint;
+import org.matsim.alonso_mora.travel_time.TravelTimeEstimator;
+import org.matsim.alonso_mora.travel_time.TravelTimeLowerBound;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.contrib.drt.stops.StaticPassengerStopDurationProvider;
+import org.matsim.contrib.dvrp.load.DvrpLoadType;
+import org.matsim.core.utils.geometry.CoordUtils;
+
+public class DynamicProgrammingSequenceGeneratorTest {
+	private final TravelTimeEstimator estimator = (fromLink, toLink, departureTime,
+			threshold) -> CoordUtils.calcEuclideanDistance(fromLink.getCoord(), toLink.getCoord()) / 10.0;
+
+	private AlonsoMoraRequest mockUnconstrainedRequest(Link pickupLink, Link dropoffLink) {
+		return mockRequest(pickupLink, dropoffLink, 0.0, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, 0.0, 1);
+	}
+
+	private DynamicProgrammingSequenceGenerator createGenerator(AlonsoMoraVehicle vehicle,
+			Collection<AlonsoMoraRequest> onboardRequests, List<AlonsoMoraRequest> requests, int maximumStops,
+			int beamWidth) {
+		return new DynamicProgrammingSequenceGenerator(vehicle, onboardRequests, requests, 0.0, estimator,
+				mockLoadType(), 0.0, maximumStops, beamWidth);
+	}
+
+	private String describe(List<AlonsoMoraStop> stops, List<AlonsoMoraRequest> requests) {
+		StringBuilder builder = new StringBuilder();
+
+		for (AlonsoMoraStop stop : stops) {
+			builder.append(stop.getType().equals(StopType.Pickup) ? "P" : "D");
+			builder.append(requests.indexOf(stop.getRequest()));
+		}
+
+		return builder.toString();
+	}
+
+	private List<String> collectComplete(SequenceGenerator generator, List<AlonsoMoraRequest> requests) {
+		List<String> sequences = new ArrayList<>();
+
+		while (generator.hasNext()) {
+			if (generator.isComplete()) {
+				sequences.add(describe(generator.get(), requests));
+			}
+
+			generator.advance();
+		}
+
+		return sequences;
+	}
+
+	@Test
+	public void testBestSequenceFirst() {
+		List<AlonsoMoraRequest> requests = Arrays.asList( //
+				mockUnconstrainedRequest(mockLink(100.0, 0.0), mockLink(300.0, 0.0)), //
+				mockUnconstrainedRequest(mockLink(200.0, 0.0), mockLink(400.0, 0.0)) //
+		);
+
+		AlonsoMoraVehicle vehicle = mockVehicle(mockLink(0.0, 0.0), 0.0, 4, Double.POSITIVE_INFINITY,
+				Collections.emptySet());
+		DynamicProgrammingSequenceGenerator generator = createGenerator(vehicle, Collections.emptySet(), requests,
+				12, 16);
+
+		// The best sequence is proposed stop by stop
+		int partial = 1;
+
+		while (!generator.isComplete()) {
+			generator.advance();
+			partial++;
+		}
+
+		assertEquals(4, partial);
+		assertEquals("P0P1D0D1", describe(generator.get(), requests));
+
+		// One candidate per final stop, sorted by cost
+		generator = createGenerator(vehicle, Collections.emptySet(), requests, 12, 16);
+		assertEquals(Arrays.asList("P0P1D0D1", "P0P1D1D0"), collectComplete(generator, requests));
+	}
+
+	@Test
+	public void testReusedTables() {
+		List<AlonsoMoraRequest> requests = Arrays.asList( //
+				mockUnconstrainedRequest(mockLink(100.0, 0.0), mockLink(300.0, 0.0)), //
+				mockUnconstrainedRequest(mockLink(200.0, 0.0), mockLink(400.0, 0.0)) //
+		);
+
+		List<AlonsoMoraRequest> largerRequests = Arrays.asList( //
+				mockUnconstrainedRequest(mockLink(100.0, 0.0), mockLink(300.0, 0.0)), //
+				mockUnconstrainedRequest(mockLink(200.0, 0.0), mockLink(400.0, 0.0)), //
+				mockUnconstrainedRequest(mockLink(-100.0, 0.0), mockLink(500.0, 0.0)) //
+		);
+
+		AlonsoMoraVehicle vehicle = mockVehicle(mockLink(0.0, 0.0), 0.0, 4, Double.POSITIVE_INFINITY,
+				Collections.emptySet());
+
+		List<String> expected = collectComplete(
+				createGenerator(vehicle, Collections.emptySet(), requests, 12, 16), requests);
+
+		// Solving a larger model in between leaves values in the tables of this thread
+		assertFalse(collectComplete(createGenerator(vehicle, Collections.emptySet(), largerRequests, 12, 16),
+				largerRequests).isEmpty());
+
+		assertEquals(expected,
+				collectComplete(createGenerator(vehicle, Collections.emptySet(), requests, 12, 16), requests));
+	}
+
+	@Test
+	public void testCapacity() {
+		List<AlonsoMoraRequest> requests = Arrays.asList( //
+				mockUnconstrainedRequest(mockLink(100.0, 0.0), mockLink(300.0, 0.0)), //
+				mockUnconstrainedRequest(mockLink(200.0, 0.0), mockLink(400.0, 0.0)) //
+		);
+
+		AlonsoMoraVehicle vehicle = mockVehicle(mockLink(0.0, 0.0), 0.0, 1, Double.POSITIVE_INFINITY,
+				Collections.emptySet());
+
+		for (int maximumStops : new int[] { 12, 0 }) {
+			List<String> sequences = collectComplete(
+					createGenerator(vehicle, Collections.emptySet(), requests, maximumStops, 16), requests);
+
+			assertEquals(Arrays.asList("P0D0P1D1", "P1D1P0D0"), sequences);
+		}
+	}
+
+	@Test
+	public void testTimeWindows() {
+		// The second request needs to be picked up first
+		List<AlonsoMoraRequest> requests = Arrays.asList( //
+				mockUnconstrainedRequest(mockLink(100.0, 0.0), mockLink(300.0, 0.0)), //
+				mockRequest(mockLink(-100.0, 0.0), mockLink(-200.0, 0.0), 0.0, 15.0, Double.POSITIVE_INFINITY,
+						0.0, 1) //
+		);
+
+		AlonsoMoraVehicle vehicle = mockVehicle(mockLink(0.0, 0.0), 0.0, 4, Double.POSITIVE_INFINITY,
+				Collections.emptySet());
+
+		for (int maximumStops : new int[] { 12, 0 }) {
+			List<String> sequences = collectComplete(
+					createGenerator(vehicle, Collections.emptySet(), requests, maximumStops, 16), requests);
+
+			assertFalse(sequences.isEmpty());
+
+			for (String sequence : sequences) {
+				assertTrue(sequence.startsWith("P1"));
+			}
+		}
+	}
+
+	@Test
+	public void testAbortSkipsCandidates() {
+		List<AlonsoMoraRequest> requests = Arrays.asList( //
+				mockUnconstrainedRequest(mockLink(100.0, 0.0), mockLink(300.0, 0.0)), //
+				mockUnconstrainedRequest(mockLink(200.0, 0.0), mockLink(400.0, 0.0)), //
+				mockUnconstrainedRequest(mockLink(-100.0, 0.0), mockLink(500.0, 0.0)) //
+		);
+
+		AlonsoMoraVehicle vehicle = mockVehicle(mockLink(0.0, 0.0), 0.0, 4, Double.POSITIVE_INFINITY,
+				Collections.emptySet());
+		DynamicProgrammingSequenceGenerator generator = createGenerator(vehicle, Collections.emptySet(), requests,
+				0, 64);
+
+		generator.advance();
+
+		String aborted = describe(generator.get(), requests);
+		generator.abort();
+
+		while (generator.hasNext()) {
+			String sequence = describe(generator.get(), requests);
+			assertFalse(sequence.startsWith(aborted));
+			generator.advance();
+		}
+	}
+
+	@Test
+	public void testBeamSearchMatchesDynamicProgramming() {
+		Random random = new Random(0);
+
+		for (int k = 0; k < 200; k++) {
+			List<AlonsoMoraRequest> onboardRequests = new ArrayList<>();
+			List<AlonsoMoraRequest> requests = new ArrayList<>();
+			List<AlonsoMoraRequest> allRequests = new ArrayList<>();
+
+			for (int r = 0; r < 4; r++) {
+				double earliestPickupTime = random.nextInt(100);
+				double plannedPickupTime = earliestPickupTime + 100 + random.nextInt(300);
+				double latestDropoffTime = plannedPickupTime + 200 + random.nextInt(400);
+
+				AlonsoMoraRequest request = mockRequest(
+						mockLink(random.nextDouble() * 3000.0, random.nextDouble() * 3000.0),
+						mockLink(random.nextDouble() * 3000.0, random.nextDouble() * 3000.0), earliestPickupTime,
+						plannedPickupTime, latestDropoffTime, earliestPickupTime + random.nextInt(300), 1);
+
+				(r == 0 ? onboardRequests : requests).add(request);
+				allRequests.add(request);
+			}
+
+			AlonsoMoraVehicle vehicle = mockVehicle(mockLink(1500.0, 1500.0), 0.0, 2, Double.POSITIVE_INFINITY,
+					onboardRequests);
+
+			// A beam that is wide enough keeps all states of the dynamic programming
+			List<String> expected = collectComplete(createGenerator(vehicle, onboardRequests, requests, 12, 1),
+					allRequests);
+			List<String> actual = collectComplete(createGenerator(vehicle, onboardRequests, requests, 0, 100000),
+					allRequests);
+
+			assertEquals(expected, actual);
+		}
+	}
+
+	/**
+	 * Proposes only the stops of a given result.
+	 */
+	static private class FixedSequenceGenerator implements SequenceGenerator {
+		private final List<AlonsoMoraStop> stops = new ArrayList<>();
+		private int length = 1;
+
+		FixedSequenceGenerator(Result result) {
+			for (int i = 0; i < result.getNumberOfStops(); i++) {
+				AlonsoMoraRequest request = result.getStopRequest(i);
+
+				if (result.getStopType(i).equals(StopType.Pickup)) {
+					stops.add(new AlonsoMoraStop(StopType.Pickup, request.getPickupLink(), request));
+				} else {
+					stops.add(new AlonsoMoraStop(StopType.Dropoff, request.getDropoffLink(), request));
+				}
+			}
+		}
+
+		@Override
+		public void advance() {
+			length++;
+		}
+
+		@Override
+		public void abort() {
+			length = stops.size() + 1;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return length <= stops.size();
+		}
+
+		@Override
+		public List<AlonsoMoraStop> get() {
+			return stops.subList(0, length);
+		}
+
+		@Override
+		public boolean isComplete() {
+			return length == stops.size();
+		}
+	}
+
+	private DefaultAlonsoMoraFunction createFunction(SequenceGeneratorFactory factory, DvrpLoadType loadType) {
+		return new DefaultAlonsoMoraFunction(estimator, factory, StaticPassengerStopDurationProvider.of(30.0, 15.0),
+				60.0, false, false, false, new MinimumDelay(), new NoopConstraint(), 60.0, 1000.0, false, loadType,
+				TravelTimeLowerBound.disabled());
+	}
+
+	@Test
+	public void testTravelFunction() {
+		Random random = new Random(0);
+
+		DvrpLoadType loadType = mockLoadType();
+		DefaultAlonsoMoraFunction function = createFunction(
+				new DynamicProgrammingSequenceGenerator.Factory(estimator, loadType, 60.0, 12, 16), loadType);
+
+		int numberOfFound = 0;
+
+		for (int k = 0; k < 200; k++) {
+			List<AlonsoMoraRequest> onboardRequests = new ArrayList<>();
+			List<AlonsoMoraRequest> requests = new ArrayList<>();
+
+			for (int r = 0; r < 5; r++) {
+				double earliestPickupTime = random.nextInt(100);
+				double plannedPickupTime = earliestPickupTime + 300 + random.nextInt(600);
+				double latestDropoffTime = plannedPickupTime + 600 + random.nextInt(1200);
+
+				AlonsoMoraRequest request = mockRequest(
+						mockLink(random.nextDouble() * 3000.0, random.nextDouble() * 3000.0),
+						mockLink(random.nextDouble() * 3000.0, random.nextDouble() * 3000.0), earliestPickupTime,
+						plannedPickupTime, latestDropoffTime, earliestPickupTime + random.nextInt(300), 1);
+
+				(r == 0 ? onboardRequests : requests).add(request);
+			}
+
+			AlonsoMoraVehicle vehicle = mockVehicle(mockLink(1500.0, 1500.0), 0.0, 2 + random.nextInt(2),
+					Double.POSITIVE_INFINITY, onboardRequests);
+
+			Optional<Result> result = function.calculateRoute(requests, vehicle, 0.0);
+
+			if (result.isPresent()) {
+				// The incremental evaluation of the candidates yields the same cost as
+				// evaluating the resulting sequence on its own
+				Optional<Result> expected = createFunction((v, o, r, n) -> new FixedSequenceGenerator(result.get()),
+						loadType).calculateRoute(requests, vehicle, 0.0);
+
+				assertTrue(expected.isPresent());
+				assertEquals(expected.get().getCost(), result.get().getCost(), 1e-6);
+				numberOfFound++;
+			}
+		}
+
+		assertTrue(numberOfFound > 0);
+	}
+}
@@ -4,12 +4,16 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 
 import org.junit.jupiter.api.Test;
 import org.matsim.alonso_mora.algorithm.AlonsoMoraRequest;
+import org.matsim.alonso_mora.algorithm.AlonsoMoraStop;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.network.Link;
 import org.matsim.contrib.drt.passenger.DrtRequest;
 import org.mockito.Mockito;
 
@@ -206,4 +210,89 @@ public class ExtensiveSequenceGeneratorTest {
 
 		assertFalse(generator.hasNext());
 	}
+
+	private AlonsoMoraRequest createAlonsoMoraRequestMock(double pickupLocation, double dropoffLocation) {
+		Link pickupLink = Mockito.mock(Link.class);
+		Mockito.when(pickupLink.getCoord()).thenReturn(new Coord(pickupLocation, 0.0));
+
+		Link dropoffLink = Mockito.mock(Link.class);
+		Mockito.when(dropoffLink.getCoord()).thenReturn(new Coord(dropoffLocation, 0.0));
+
+		AlonsoMoraRequest request = createAlonsoMoraRequestMock();
+		Mockito.when(request.getPickupLink()).thenReturn(pickupLink);
+		Mockito.when(request.getDropoffLink()).thenReturn(dropoffLink);
+		return request;
+	}
+
+	@Test
+	public void testNearestFirst() {
+		List<AlonsoMoraRequest> requests = new LinkedList<>();
+
+		requests.add(createAlonsoMoraRequestMock(400.0, 700.0));
+		requests.add(createAlonsoMoraRequestMock(200.0, 500.0));
+		requests.add(createAlonsoMoraRequestMock(100.0, 600.0));
+		requests.add(createAlonsoMoraRequestMock(300.0, 800.0));
+
+		Link startLink = Mockito.mock(Link.class);
+		Mockito.when(startLink.getCoord()).thenReturn(new Coord(0.0, 0.0));
+
+		ExtensiveSequenceGenerator generator = new ExtensiveSequenceGenerator(startLink, Collections.emptySet(),
+				requests);
+
+		// The first sequence visits the closest stop at every position
+		List<Double> locations = new LinkedList<>();
+
+		while (!generator.isComplete()) {
+			generator.advance();
+		}
+
+		for (AlonsoMoraStop stop : generator.get()) {
+			locations.add(stop.getLink().getCoord().getX());
+		}
+
+		assertEquals(Arrays.asList(100.0, 200.0, 300.0, 400.0, 500.0, 600.0, 700.0, 800.0), locations);
+
+		// All sequences are proposed
+		generator = new ExtensiveSequenceGenerator(startLink, Collections.emptySet(), requests);
+
+		int partial = 0;
+		int complete = 0;
+
+		while (generator.hasNext()) {
+			partial++;
+
+			if (generator.isComplete()) {
+				complete++;
+			}
+
+			generator.advance();
+		}
+
+		assertEquals(7364, partial);
+		assertEquals(2520, complete);
+	}
+
+	@Test
+	public void testNearestFirstAbortKeepsAlternatives() {
+		List<AlonsoMoraRequest> requests = new LinkedList<>();
+		requests.add(createAlonsoMoraRequestMock(100.0, 300.0));
+		requests.add(createAlonsoMoraRequestMock(200.0, 400.0));
+
+		Link startLink = Mockito.mock(Link.class);
+		Mockito.when(startLink.getCoord()).thenReturn(new Coord(0.0, 0.0));
+
+		ExtensiveSequenceGenerator generator = new ExtensiveSequenceGenerator(startLink, Collections.emptySet(),
+				requests);
+
+		generator.advance();
+		assertEquals(2, generator.get().size());
+
+		// Only the current sequence is aborted, the alternative at the same position
+		// is proposed next
+		generator.abort();
+
+		assertTrue(generator.hasNext());
+		assertEquals(2, generator.get().size());
+		assertEquals(300.0, generator.get().get(1).getLink().getCoord().getX(), 0.0);
+	}
 }
@@ -0,0 +1,174 @@
+package org.matsim.alonso_mora.travel_time;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.router.util.TravelTime;
+import org.matsim.core.trafficmonitoring.FreeSpeedTravelTime;
+
+public class MatrixTravelTimeCacheTest {
+	private Network createNetwork() {
+		Network network = NetworkUtils.createNetwork();
+		int size = 4;
+
+		for (int i = 0; i < size; i++) {
+			for (int j = 0; j < size; j++) {
+				NetworkUtils.createAndAddNode(network, Id.createNodeId(i + ":" + j), new Coord(i * 1000.0, j * 1000.0));
+			}
+		}
+
+		for (int i = 0; i < size; i++) {
+			for (int j = 0; j < size; j++) {
+				Node node = network.getNodes().get(Id.createNodeId(i + ":" + j));
+				double freespeed = 5.0 + i + 2.0 * j;
+
+				if (i + 1 < size) {
+					Node other = network.getNodes().get(Id.createNodeId((i + 1) + ":" + j));
+					NetworkUtils.createAndAddLink(network, Id.createLinkId(i + ":" + j + "-east"), node, other, 1000.0,
+							freespeed, 1000.0, 1.0);
+					NetworkUtils.createAndAddLink(network, Id.createLinkId(i + ":" + j + "-west"), other, node, 1000.0,
+							freespeed + 1.0, 1000.0, 1.0);
+				}
+
+				if (j + 1 < size) {
+					Node other = network.getNodes().get(Id.createNodeId(i + ":" + (j + 1)));
+					NetworkUtils.createAndAddLink(network, Id.createLinkId(i + ":" + j + "-north"), node, other,
+							1000.0, freespeed, 1000.0, 1.0);
+					NetworkUtils.createAndAddLink(network, Id.createLinkId(i + ":" + j + "-south"), other, node,
+							1000.0, freespeed + 3.0, 1000.0, 1.0);
+				}
+			}
+		}
+
+		// Remote node that can only be reached after more than 18 hours
+		Node cornerNode = network.getNodes().get(Id.createNodeId("0:0"));
+		Node remoteNode = NetworkUtils.createAndAddNode(network, Id.createNodeId("remote"), new Coord(-1000.0, 0.0));
+
+		NetworkUtils.createAndAddLink(network, Id.createLinkId("to_remote"), cornerNode, remoteNode, 1e5, 1.0,
+				1000.0, 1.0);
+		NetworkUtils.createAndAddLink(network, Id.createLinkId("from_remote"), remoteNode, cornerNode, 1000.0, 10.0,
+				1000.0, 1.0);
+
+		return network;
+	}
+
+	private void assertSameTravelTimes(Network network, TravelTimeEstimator expected, TravelTimeEstimator actual) {
+		for (Link fromLink : network.getLinks().values()) {
+			for (Link toLink : network.getLinks().values()) {
+				assertEquals(expected.estimateTravelTime(fromLink, toLink, 100.0, 0.0),
+						actual.estimateTravelTime(fromLink, toLink, 100.0, 0.0), 0.0);
+			}
+		}
+	}
+
+	@Test
+	public void testWriteAndMap(@TempDir File directory) {
+		Network network = createNetwork();
+		TravelTime travelTime = new FreeSpeedTravelTime();
+
+		MatrixTravelTimeEstimator calculated = MatrixTravelTimeEstimator.create(network, travelTime, 0.0);
+
+		// First call writes the matrix, second call only maps it
+		MatrixTravelTimeEstimator written = new MatrixTravelTimeCache(directory).createEstimator(network, travelTime,
+				0.0);
+		assertEquals(1, directory.listFiles().length);
+
+		MatrixTravelTimeEstimator mapped = new MatrixTravelTimeCache(directory).createEstimator(network, travelTime,
+				0.0);
+		assertEquals(1, directory.listFiles().length);
+
+		assertSameTravelTimes(network, calculated, written);
+		assertSameTravelTimes(network, calculated, mapped);
+	}
+
+	@Test
+	public void testParallelWrite(@TempDir File directory) {
+		Network network = createNetwork();
+		TravelTime travelTime = new FreeSpeedTravelTime();
+
+		MatrixTravelTimeEstimator calculated = MatrixTravelTimeEstimator.create(network, travelTime, 0.0);
+
+		ForkJoinPool pool = new ForkJoinPool(4);
+
+		try {
+			MatrixTravelTimeEstimator written = new MatrixTravelTimeCache(directory).createEstimator(network,
+					travelTime, 0.0, pool);
+			assertSameTravelTimes(network, calculated, written);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void testEncodings(@TempDir File directory) {
+		Network network = createNetwork();
+		TravelTime travelTime = new FreeSpeedTravelTime();
+
+		for (MatrixEncoding encoding : MatrixEncoding.values()) {
+			MatrixTravelTimeEstimator calculated = MatrixTravelTimeEstimator.create(network, travelTime, 0.0, null,
+					encoding);
+
+			new MatrixTravelTimeCache(directory, encoding).createEstimator(network, travelTime, 0.0);
+			MatrixTravelTimeEstimator mapped = new MatrixTravelTimeCache(directory, encoding)
+					.createEstimator(network, travelTime, 0.0);
+
+			assertSameTravelTimes(network, calculated, mapped);
+		}
+
+		// One file per encoding
+		assertEquals(MatrixEncoding.values().length, directory.listFiles().length);
+	}
+
+	@Test
+	public void testChangedSource(@TempDir File directory) {
+		Network network = createNetwork();
+		TravelTime freespeedTravelTime = new FreeSpeedTravelTime();
+		TravelTime slowTravelTime = (link, time, person, vehicle) -> 2.0 * link.getLength() / link.getFreespeed();
+
+		MatrixTravelTimeCache cache = new MatrixTravelTimeCache(directory);
+
+		cache.createEstimator(network, freespeedTravelTime, 0.0);
+		String freespeedName = directory.listFiles()[0].getName();
+
+		// Changing the travel times leads to a new matrix that replaces the old one
+		MatrixTravelTimeEstimator slow = cache.createEstimator(network, slowTravelTime, 0.0);
+		assertEquals(1, directory.listFiles().length);
+		assertTrue(!directory.listFiles()[0].getName().equals(freespeedName));
+
+		// Changing the departure time leads to an additional matrix
+		cache.createEstimator(network, freespeedTravelTime, 3600.0);
+		assertEquals(2, directory.listFiles().length);
+
+		assertSameTravelTimes(network, MatrixTravelTimeEstimator.create(network, slowTravelTime, 0.0), slow);
+	}
+
+	@Test
+	public void testChangedNetwork() {
+		Network network = createNetwork();
+
+		List<Node> nodes = new ArrayList<>(network.getNodes().values());
+		List<Link> links = new ArrayList<>(network.getLinks().values());
+
+		long networkHash = MatrixTravelTimeCache.calculateNetworkHash(nodes, links);
+		assertEquals(networkHash, MatrixTravelTimeCache.calculateNetworkHash(nodes, links));
+
+		NetworkUtils.createAndAddLink(network, Id.createLinkId("extra"), nodes.get(0), nodes.get(nodes.size() - 1),
+				100.0, 10.0, 1000.0, 1.0);
+		links = new ArrayList<>(network.getLinks().values());
+
+		assertTrue(networkHash != MatrixTravelTimeCache.calculateNetworkHash(nodes, links));
+	}
+}
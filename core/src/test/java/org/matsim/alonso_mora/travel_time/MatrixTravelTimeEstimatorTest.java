@@ -0,0 +1,109 @@
+package org.matsim.alonso_mora.travel_time;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.router.util.TravelTime;
+import org.matsim.core.trafficmonitoring.FreeSpeedTravelTime;
+
+public class MatrixTravelTimeEstimatorTest {
+	private Network createNetwork() {
+		Random random = new Random(0);
+		Network network = NetworkUtils.createNetwork();
+
+		int numberOfNodes = 50;
+
+		for (int i = 0; i < numberOfNodes; i++) {
+			NetworkUtils.createAndAddNode(network, Id.createNodeId("n" + i),
+					new Coord(random.nextDouble() * 5000.0, random.nextDouble() * 5000.0));
+		}
+
+		for (int i = 0; i < 4 * numberOfNodes; i++) {
+			Node fromNode = network.getNodes().get(Id.createNodeId("n" + random.nextInt(numberOfNodes)));
+			Node toNode = network.getNodes().get(Id.createNodeId("n" + random.nextInt(numberOfNodes)));
+
+			NetworkUtils.createAndAddLink(network, Id.createLinkId("l" + i), fromNode, toNode,
+					100.0 + random.nextDouble() * 2000.0, 5.0 + random.nextDouble() * 20.0, 1000.0, 1.0);
+		}
+
+		// Remote node that can only be reached after more than 18 hours
+		Node remoteNode = NetworkUtils.createAndAddNode(network, Id.createNodeId("remote"), new Coord(0.0, 0.0));
+		Node firstNode = network.getNodes().get(Id.createNodeId("n0"));
+
+		NetworkUtils.createAndAddLink(network, Id.createLinkId("to_remote"), firstNode, remoteNode, 1e5, 1.0,
+				1000.0, 1.0);
+		NetworkUtils.createAndAddLink(network, Id.createLinkId("from_remote"), remoteNode, firstNode, 100.0, 10.0,
+				1000.0, 1.0);
+
+		return network;
+	}
+
+	@Test
+	public void testParallelCalculation() {
+		Network network = createNetwork();
+
+		TravelTime travelTime = new FreeSpeedTravelTime();
+		MatrixTravelTimeEstimator sequential = MatrixTravelTimeEstimator.create(network, travelTime, 0.0);
+
+		ForkJoinPool pool = new ForkJoinPool(4);
+
+		try {
+			MatrixTravelTimeEstimator parallel = MatrixTravelTimeEstimator.create(network, travelTime, 0.0, pool,
+					MatrixEncoding.Double);
+
+			// Travel times are identical, including unreachable destinations
+			for (Link fromLink : network.getLinks().values()) {
+				for (Link toLink : network.getLinks().values()) {
+					assertEquals(sequential.estimateTravelTime(fromLink, toLink, 0.0, 0.0),
+							parallel.estimateTravelTime(fromLink, toLink, 0.0, 0.0), 0.0);
+				}
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void testEncodings() {
+		Network network = createNetwork();
+		TravelTime travelTime = new FreeSpeedTravelTime();
+
+		MatrixTravelTimeEstimator exact = MatrixTravelTimeEstimator.create(network, travelTime, 0.0);
+		MatrixTravelTimeEstimator floats = MatrixTravelTimeEstimator.create(network, travelTime, 0.0, null,
+				MatrixEncoding.Float);
+		MatrixTravelTimeEstimator seconds = MatrixTravelTimeEstimator.create(network, travelTime, 0.0, null,
+				MatrixEncoding.Seconds);
+
+		Link remoteLink = network.getLinks().get(Id.createLinkId("from_remote"));
+		int numberOfExactTravelTimes = 0;
+
+		for (Link fromLink : network.getLinks().values()) {
+			for (Link toLink : network.getLinks().values()) {
+				double exactTravelTime = exact.estimateTravelTime(fromLink, toLink, 0.0, 0.0);
+
+				assertEquals(exactTravelTime, floats.estimateTravelTime(fromLink, toLink, 0.0, 0.0),
+						exactTravelTime * 1e-7);
+
+				if (toLink == remoteLink && exactTravelTime > 65535.0) {
+					// Travel times of more than 18 hours are kept exactly
+					assertEquals(exactTravelTime, seconds.estimateTravelTime(fromLink, toLink, 0.0, 0.0), 0.0);
+					numberOfExactTravelTimes++;
+				} else {
+					assertEquals(exactTravelTime, seconds.estimateTravelTime(fromLink, toLink, 0.0, 0.0), 0.5);
+				}
+			}
+		}
+
+		assertTrue(numberOfExactTravelTimes > 0);
+	}
+}